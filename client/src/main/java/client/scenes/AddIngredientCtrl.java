@@ -68,7 +68,7 @@ public class AddIngredientCtrl implements Internationalizable {
     private final StringProperty emptyFieldProperty = new SimpleStringProperty();
     private final StringProperty positiveDoubleFieldProperty = new SimpleStringProperty();
 
-    private UUID ingredientId = UUID.randomUUID();
+    private UUID ingredientId = IdGenerator.next();
 
     private final ServerUtils server;
     private final AddRecipeCtrl ctrl;
@@ -223,7 +223,7 @@ public class AddIngredientCtrl implements Internationalizable {
      * Clears all fields
      */
     private void clearFields() {
-        ingredientId = UUID.randomUUID();
+        ingredientId = IdGenerator.next();
         nameField.clear();
         amountField.clear();
         proteinField.clear();
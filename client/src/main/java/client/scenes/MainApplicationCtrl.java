@@ -7,7 +7,9 @@ import client.services.LocaleManager;
 import client.services.RecipeManager;
 import client.services.WebSocketService;
 import client.utils.ServerUtils;
+import client.utils.VersionedRecipeState;
 import commons.*;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.inject.Inject;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
@@ -296,13 +298,30 @@ public class MainApplicationCtrl implements Internationalizable {
     }
 
     private void initializeWebSockets() {
-        webSocketService.connect();
+        // events missed while disconnected could not be replayed
+        webSocketService.setOnResync(() -> syncWithServer(null));
+        // only the recipes the list can show are pushed, the rest is fetched on demand
+        setRecipeFilter();
+        recipeManager.setOnFavouritesChanged(this::updateRecipeFilter);
 
         // Listen for individual recipe updates/deletes to keep list consistent
         webSocketService.subscribe("recipe", null, response -> {
-            if (response.type() == WebSocketTypes.UPDATE) {
+            if (response.type() == WebSocketTypes.UPDATE && response.data() instanceof List<?>) {
+                // batch updates arrive as one message holding all recipes
+                recipeManager.applyRecipeUpdates(webSocketService.convertData(response.data(),
+                        new TypeReference<List<Recipe>>() { }));
+            } else if (response.type() == WebSocketTypes.UPDATE) {
                 Recipe recipe = webSocketService.convertData(response.data(), Recipe.class);
                 recipeManager.applyRecipeUpdate(recipe);
+            } else if (response.type() == WebSocketTypes.PATCH) {
+                RecipePatch patch = webSocketService.convertData(response.data(), RecipePatch.class);
+                if (!recipeManager.applyRecipePatch(patch)) {
+                    // the local version differs from the one the patch is for
+                    syncWithServer(null);
+                }
+            } else if (response.type() == WebSocketTypes.INGREDIENT_CHANGE) {
+                recipeManager.applyIngredientChange(
+                        webSocketService.convertData(response.data(), IngredientChange.class));
             } else if (response.type() == WebSocketTypes.DELETE) {
                 UUID id = UUID.fromString((String) response.data());
                 recipeManager.applyRecipeDelete(id);
@@ -311,7 +330,10 @@ public class MainApplicationCtrl implements Internationalizable {
 
         // Listen for individual ingredient updates/deletes
         webSocketService.subscribe("ingredient", null, response -> {
-            if (response.type() == WebSocketTypes.UPDATE) {
+            if (response.type() == WebSocketTypes.UPDATE && response.data() instanceof List<?>) {
+                recipeManager.applyIngredientUpdates(webSocketService.convertData(response.data(),
+                        new TypeReference<List<Ingredient>>() { }));
+            } else if (response.type() == WebSocketTypes.UPDATE) {
                 Ingredient ingredient = webSocketService.convertData(response.data(), Ingredient.class);
                 recipeManager.applyIngredientUpdate(ingredient);
             } else if (response.type() == WebSocketTypes.DELETE) {
@@ -319,6 +341,9 @@ public class MainApplicationCtrl implements Internationalizable {
                 recipeManager.applyIngredientDelete(id);
             }
         });
+
+        // connecting after registering sends all subscriptions in one message
+        webSocketService.connect();
     }
 
     private void prepareToggleTheme() {
@@ -439,6 +464,26 @@ public class MainApplicationCtrl implements Internationalizable {
 
         config.setLanguageFilters(languages);
         localeManager.getConfigManager().save();
+        updateRecipeFilter();
+    }
+
+    /**
+     * Limits the recipe updates pushed by the server to the selected languages
+     * and the favourite recipes.
+     */
+    private void setRecipeFilter() {
+        List<Language> languages = localeManager.getConfigManager().getConfig().getLanguageFilters();
+        webSocketService.setRecipeFilter(languages == null ? Set.of() : Set.copyOf(languages),
+                recipeManager.getFavouriteRecipesSnapshot());
+    }
+
+    /**
+     * Changes the recipe filter and fetches the changes of recipes that were
+     * filtered out until now, as the server does not push those again.
+     */
+    private void updateRecipeFilter() {
+        setRecipeFilter();
+        syncWithServer(null);
     }
 
     private void initializeSidebarListCtrl() {
@@ -702,9 +747,20 @@ public class MainApplicationCtrl implements Internationalizable {
     }
 
     /**
-     * Refreshes db to get latest data
+     * Refreshes db to get latest data.
+     * Only the changes since the last refresh are downloaded, unless the server
+     * no longer knows them, in which case the full state is downloaded once.
      */
     public void refresh(Runnable afterRefresh) {
+        syncWithServer(afterRefresh);
+        showMainScreen();
+    }
+
+    /**
+     * Downloads the changes since the last refresh in the background, without
+     * changing the shown screen.
+     */
+    private void syncWithServer(Runnable afterRefresh) {
         Task<Void> task = new Task<>() {
             @Override
             protected Void call() throws Exception {
@@ -712,11 +768,20 @@ public class MainApplicationCtrl implements Internationalizable {
                     throw new Exception("Server is offline");
                 }
 
-                List<Recipe> recipes = serverUtils.getRecipes();
-                List<Ingredient> ingredients = serverUtils.getIngredients();
+                long revision = recipeManager.getRevision();
+                RecipeChanges changes = revision < 0 ? null : serverUtils.getChangesSince(revision);
+                if (changes != null && !changes.resyncRequired()) {
+                    Platform.runLater(() -> {
+                        recipeManager.applyChanges(changes);
+                        if (afterRefresh != null)
+                            afterRefresh.run();
+                    });
+                    return null;
+                }
 
+                VersionedRecipeState state = serverUtils.getRecipeState();
                 Platform.runLater(() -> {
-                    recipeManager.sync(recipes, ingredients);
+                    recipeManager.sync(state);
                     if (afterRefresh != null)
                         afterRefresh.run();
                 });
@@ -732,7 +797,6 @@ public class MainApplicationCtrl implements Internationalizable {
         });
 
         new Thread(task).start();
-        showMainScreen();
     }
 
     /**
@@ -21,6 +21,7 @@ import java.text.DecimalFormatSymbols;
 import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -125,6 +126,7 @@ public class RecipeViewerCtrl implements Internationalizable {
         this.webSocketService = webSocketService;
 
         localeManager.register(this);
+        recipeManager.setOnRecipesChanged(this::refreshIfChanged);
     }
 
     public void setOnRecipeEdit(Consumer<Recipe> cb) {
@@ -208,6 +210,22 @@ public class RecipeViewerCtrl implements Internationalizable {
      * 
      * @param recipe the recipe
      */
+    /**
+     * Shows the latest version of the current recipe if it is among the recipes
+     * the recipe manager just updated.
+     *
+     * @param changed the ids of the updated recipes
+     */
+    private void refreshIfChanged(Set<UUID> changed) {
+        if (currentRecipe == null || !changed.contains(currentRecipe.getId())) {
+            return;
+        }
+        Recipe latest = recipeManager.getRecipe(currentRecipe.getId());
+        if (latest != null) {
+            setRecipe(latest);
+        }
+    }
+
     public void setRecipe(Recipe recipe) {
         if (recipe == null) {
             titleProperty.set("");
@@ -221,14 +239,10 @@ public class RecipeViewerCtrl implements Internationalizable {
 
         if (currentRecipe == null || !currentRecipe.getId().equals(recipe.getId())) {
             webSocketService.subscribe("recipe", recipe.getId(), response -> {
-                Platform.runLater(() -> {
-                    if (response.type() == WebSocketTypes.UPDATE) {
-                        Recipe updated = webSocketService.convertData(response.data(), Recipe.class);
-                        setRecipe(updated);
-                    } else if (response.type() == WebSocketTypes.DELETE) {
-                        mainCtrl.showMainScreen();
-                    }
-                });
+                // updates are shown once the recipe manager applied them, see refreshIfChanged
+                if (response.type() == WebSocketTypes.DELETE) {
+                    Platform.runLater(mainCtrl::showMainScreen);
+                }
             });
         }
 
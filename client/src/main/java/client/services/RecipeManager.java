@@ -3,6 +3,7 @@ package client.services;
 import client.config.ConfigManager;
 import client.config.FavoriteRecipe;
 import client.utils.ServerUtils;
+import client.utils.VersionedRecipeState;
 import com.google.inject.Inject;
 import commons.*;
 import javafx.application.Platform;
@@ -11,8 +12,11 @@ import javafx.collections.ObservableList;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * - Keeps maps for fast lookup and validation.
@@ -31,6 +35,13 @@ public class RecipeManager {
     private final ObservableList<Recipe> recipesFx = FXCollections.observableArrayList();
     private final ObservableList<Ingredient> ingredientsFx = FXCollections.observableArrayList();
     private Consumer<FavoriteRecipe> onFavoriteRecipeDeleted;
+    /** UI updates waiting for the JavaFX thread, all run by a single runLater. */
+    private static final Queue<Runnable> fxMailbox = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean fxDrainScheduled = new AtomicBoolean();
+    /** Server revision the local state was last synchronized with, -1 if never. */
+    private volatile long revision = -1;
+    private Runnable onFavouritesChanged = () -> { };
+    private Consumer<Set<UUID>> onRecipesChanged = ids -> { };
 
     @Inject
     private ServerUtils server;
@@ -101,9 +112,85 @@ public class RecipeManager {
                 recipesMap.put(recipe.getId(), recipe);
             }
             recipesFx.setAll(recipesCopy);
+            onRecipesChanged.accept(Set.copyOf(recipesMap.keySet()));
         });
     }
 
+    /**
+     * Replaces the local state with a full server state.
+     *
+     * @param versionedState the state and the revision it was taken at
+     */
+    public void sync(VersionedRecipeState versionedState) {
+        RecipeState state = versionedState.state();
+        sync(new ArrayList<>(state.recipes()), new ArrayList<>(state.ingredients()));
+        revision = versionedState.revision();
+    }
+
+    /**
+     * Applies the changes made on the server since the last synchronization,
+     * instead of replacing the whole state.
+     *
+     * @param changes the changes to apply, must not require a resync
+     */
+    public void applyChanges(RecipeChanges changes) {
+        for (Ingredient ingredient : changes.ingredients()) {
+            ingredientsMap.put(ingredient.getId(), ingredient);
+        }
+        changes.deletedIngredients().forEach(ingredientsMap::remove);
+        for (Recipe recipe : changes.recipes()) {
+            recipesMap.put(recipe.getId(), recipe);
+        }
+        for (UUID id : changes.deletedRecipes()) {
+            recipesMap.remove(id);
+            scaledRecipesMap.remove(id);
+        }
+        revision = changes.revision();
+
+        Set<UUID> deletedIngredients = Set.copyOf(changes.deletedIngredients());
+        Set<UUID> deletedRecipes = Set.copyOf(changes.deletedRecipes());
+        runOnFx(() -> {
+            upsertAll(ingredientsFx, changes.ingredients(), Ingredient::getId);
+            ingredientsFx.removeIf(i -> deletedIngredients.contains(i.getId()));
+            upsertAll(recipesFx, changes.recipes(), Recipe::getId);
+            recipesFx.removeIf(r -> deletedRecipes.contains(r.getId()));
+        });
+        // changed ingredients can change what any recipe shows
+        notifyRecipesChanged(changes.ingredients().isEmpty()
+                ? changes.recipes().stream().map(Recipe::getId).toList()
+                : recipesMap.keySet());
+        refreshFavoriteRecipes();
+    }
+
+    /**
+     * Gets the server revision the local state is synchronized with.
+     *
+     * @return the revision, or -1 if no full state was downloaded yet
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Replaces items with the same id in place and appends new ones, looking up
+     * positions once instead of scanning the list per item.
+     */
+    private static <T> void upsertAll(ObservableList<T> list, List<T> items, Function<T, UUID> idOf) {
+        Map<UUID, Integer> positions = new HashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            positions.put(idOf.apply(list.get(i)), i);
+        }
+        for (T item : items) {
+            Integer idx = positions.get(idOf.apply(item));
+            if (idx != null) {
+                list.set(idx, item);
+            } else {
+                positions.put(idOf.apply(item), list.size());
+                list.add(item);
+            }
+        }
+    }
+
     public void syncIngredients(List<Ingredient> ingredients) {
         List<Ingredient> ingredientsCopy = new ArrayList<>(ingredients);
         runOnFx(() -> {
@@ -126,9 +213,28 @@ public class RecipeManager {
             else
                 recipesFx.add(recipe);
         });
+        notifyRecipesChanged(List.of(recipe.getId()));
         refreshFavoriteRecipes();
     }
 
+    /**
+     * Applies a patch of a recipe to the local version in place.
+     *
+     * @param patch the changed fields of the recipe
+     * @return false if the local version is not the one the patch was computed
+     *         from, then the recipe has to be fetched again
+     */
+    public boolean applyRecipePatch(RecipePatch patch) {
+        if (patch == null || !patch.appliesTo(recipesMap.get(patch.id())))
+            return false;
+        try {
+            applyRecipeUpdate(patch.applyTo(recipesMap.get(patch.id())));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     public void applyIngredientUpdate(Ingredient ingredient) {
         if (ingredient == null || ingredient.getId() == null)
             return;
@@ -142,6 +248,55 @@ public class RecipeManager {
         });
     }
 
+    /**
+     * Applies a changed ingredient and refreshes the recipes using it, so the
+     * values derived from their ingredients, such as nutrition, are shown again.
+     * The recipes themselves did not change and are not sent by the server.
+     *
+     * @param change the new ingredient and the ids of the recipes using it
+     */
+    public void applyIngredientChange(IngredientChange change) {
+        if (change == null || change.ingredient() == null)
+            return;
+        applyIngredientUpdate(change.ingredient());
+        List<Recipe> affected = change.recipeIds().stream()
+                .map(recipesMap::get)
+                .filter(Objects::nonNull)
+                .toList();
+        // replacing a recipe by itself makes the list render it again
+        runOnFx(() -> upsertAll(recipesFx, affected, Recipe::getId));
+        notifyRecipesChanged(affected.stream().map(Recipe::getId).toList());
+    }
+
+    /**
+     * Applies many recipe updates received in one batch broadcast, with a single
+     * update of the observable list.
+     *
+     * @param recipes the new versions of the recipes
+     */
+    public void applyRecipeUpdates(List<Recipe> recipes) {
+        List<Recipe> valid = recipes.stream()
+                .filter(r -> r != null && r.getId() != null)
+                .toList();
+        valid.forEach(recipe -> recipesMap.put(recipe.getId(), recipe));
+        runOnFx(() -> upsertAll(recipesFx, valid, Recipe::getId));
+        notifyRecipesChanged(valid.stream().map(Recipe::getId).toList());
+        refreshFavoriteRecipes();
+    }
+
+    /**
+     * Applies many ingredient updates received in one batch broadcast.
+     *
+     * @param ingredients the new versions of the ingredients
+     */
+    public void applyIngredientUpdates(List<Ingredient> ingredients) {
+        List<Ingredient> valid = ingredients.stream()
+                .filter(i -> i != null && i.getId() != null)
+                .toList();
+        valid.forEach(ingredient -> ingredientsMap.put(ingredient.getId(), ingredient));
+        runOnFx(() -> upsertAll(ingredientsFx, valid, Ingredient::getId));
+    }
+
     public void applyRecipeDelete(UUID id) {
         if (id == null)
             return;
@@ -200,6 +355,7 @@ public class RecipeManager {
             favouriteRecipes = new HashSet<>(
                     toKeep.stream().map(FavoriteRecipe::id).toList());
             configManager.save();
+            onFavouritesChanged.run();
         });
     }
 
@@ -371,17 +527,33 @@ public class RecipeManager {
         return -1;
     }
 
+    /**
+     * Runs r on the JavaFX thread. Updates arriving in a burst, e.g. the events of
+     * one batch frame, are queued and applied together in a single runLater call.
+     */
     private static void runOnFx(Runnable r) {
-        if (Platform.isFxApplicationThread())
+        if (Platform.isFxApplicationThread()) {
             r.run();
-        else
-            Platform.runLater(r);
+            return;
+        }
+        fxMailbox.add(r);
+        if (fxDrainScheduled.compareAndSet(false, true))
+            Platform.runLater(RecipeManager::drainFxMailbox);
+    }
+
+    private static void drainFxMailbox() {
+        // reset first, so an update added while draining schedules a new drain
+        fxDrainScheduled.set(false);
+        Runnable next;
+        while ((next = fxMailbox.poll()) != null)
+            next.run();
     }
 
     /** Clears internal state for unit tests only. */
     public void clearForTests() {
         recipesMap.clear();
         ingredientsMap.clear();
+        revision = -1;
         CountDownLatch latch = new CountDownLatch(1);
         runOnFx(() -> {
             recipesFx.clear();
@@ -406,6 +578,38 @@ public class RecipeManager {
         } else {
             favouriteRecipes.add(id);
         }
+        onFavouritesChanged.run();
+    }
+
+    /**
+     * Sets the callback invoked after the set of favourite recipes changed.
+     *
+     * @param onFavouritesChanged the callback
+     */
+    public void setOnFavouritesChanged(Runnable onFavouritesChanged) {
+        this.onFavouritesChanged = onFavouritesChanged;
+    }
+
+    /**
+     * Sets the callback invoked on the JavaFX thread after recipes were updated
+     * from the server, either by applying a change or by a full resync. When it
+     * runs, {@link #getRecipe(UUID)} already returns the new versions.
+     *
+     * @param onRecipesChanged the callback, given the ids of the changed recipes
+     */
+    public void setOnRecipesChanged(Consumer<Set<UUID>> onRecipesChanged) {
+        this.onRecipesChanged = onRecipesChanged;
+    }
+
+    /**
+     * Queues the recipes changed callback behind the list updates already queued
+     * on the JavaFX thread.
+     */
+    private void notifyRecipesChanged(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return;
+        Set<UUID> changed = Set.copyOf(ids);
+        runOnFx(() -> onRecipesChanged.accept(changed));
     }
 
     public Set<UUID> getFavouriteRecipesSnapshot() {
@@ -5,9 +5,11 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import commons.Language;
 import commons.WebSocketResponse;
 import commons.WebSocketTypes;
 import jakarta.websocket.*;
+import org.glassfish.tyrus.ext.extension.deflate.PerMessageDeflateExtension;
 
 import java.net.URI;
 import java.util.*;
@@ -17,7 +19,12 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
-@ClientEndpoint
+/**
+ * Keeps the WebSocket connection to the server and dispatches its messages to
+ * the subscribed listeners. Extensions such as compression can only be offered
+ * by programmatic endpoints, so the callbacks below are registered through an
+ * {@link Endpoint} when connecting.
+ */
 @Singleton
 public class WebSocketService {
 
@@ -28,6 +35,12 @@ public class WebSocketService {
 
     private Session session;
     private boolean manuallyClosed = false;
+    private boolean connectedBefore = false;
+    /** Highest sequence number of an event received, used to resume after reconnecting. */
+    private volatile long lastSeq = 0;
+    private volatile Runnable onResync;
+    private volatile Set<Language> recipeLanguages = Set.of();
+    private volatile Set<UUID> recipeIds = Set.of();
 
     @Inject
     public WebSocketService(ConfigManager configManager) {
@@ -50,6 +63,16 @@ public class WebSocketService {
         return mapper.convertValue(data, typeRef);
     }
 
+    /**
+     * Sets what to do when the server cannot replay the events missed while
+     * disconnected, usually refreshing the local state.
+     *
+     * @param onResync called on the WebSocket thread
+     */
+    public void setOnResync(Runnable onResync) {
+        this.onResync = onResync;
+    }
+
     /**
      * Connects to the WebSocket server.
      */
@@ -65,7 +88,27 @@ public class WebSocketService {
 
         try {
             WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-            container.connectToServer(this, new URI(wsAddress));
+            // offer compression, the server decides whether it is used
+            ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+                    .extensions(List.of(new PerMessageDeflateExtension()))
+                    .build();
+            container.connectToServer(new Endpoint() {
+                @Override
+                public void onOpen(Session session, EndpointConfig endpointConfig) {
+                    session.addMessageHandler(String.class, WebSocketService.this::onMessage);
+                    WebSocketService.this.onOpen(session);
+                }
+
+                @Override
+                public void onClose(Session session, CloseReason closeReason) {
+                    WebSocketService.this.onClose(session, closeReason);
+                }
+
+                @Override
+                public void onError(Session session, Throwable throwable) {
+                    WebSocketService.this.onError(throwable);
+                }
+            }, config, new URI(wsAddress));
         } catch (Exception e) {
             System.err.println("Failed to connect to WebSocket: " + e.getMessage());
             scheduleReconnect();
@@ -111,9 +154,53 @@ public class WebSocketService {
         }
     }
 
+    /**
+     * Limits the subscription to all recipes to the recipes in {@code languages}
+     * plus the recipes in {@code ids}. Both sets empty means all recipes. Changes
+     * of recipes that are no longer filtered out are not resent, so the caller has
+     * to fetch them when the filter becomes wider.
+     *
+     * @param languages the languages to receive recipes of
+     * @param ids       the recipes to receive regardless of their language
+     */
+    public void setRecipeFilter(Set<Language> languages, Set<UUID> ids) {
+        if (recipeLanguages.equals(languages) && recipeIds.equals(ids)) {
+            return;
+        }
+        recipeLanguages = Set.copyOf(languages);
+        recipeIds = Set.copyOf(ids);
+        if (session != null && session.isOpen() && listeners.containsKey("recipe")) {
+            sendSubscriptionMessage(WebSocketTypes.SUBSCRIBE, "recipe", null);
+        }
+    }
+
     private void sendSubscriptionMessage(WebSocketTypes type, String topic, UUID id) {
-        Map<String, Object> message = new java.util.HashMap<>();
+        Map<String, Object> message = subscriptionEntry(type, topic, id);
         message.put("type", type.toString());
+        send(message, "subscription");
+    }
+
+    /**
+     * Subscribes to several topics with one message, the server answers once for
+     * all of them.
+     *
+     * @param fullTopics the topics, each either {@code topic} or {@code topic:id}
+     */
+    private void sendSubscriptionBatch(Collection<String> fullTopics) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (String fullTopic : fullTopics) {
+            String[] parts = fullTopic.split(":");
+            UUID id = parts.length > 1 ? UUID.fromString(parts[1]) : null;
+            entries.add(subscriptionEntry(WebSocketTypes.SUBSCRIBE, parts[0], id));
+        }
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", WebSocketTypes.SUBSCRIBE.toString());
+        message.put("topics", entries);
+        send(message, "subscription");
+    }
+
+    private Map<String, Object> subscriptionEntry(WebSocketTypes type, String topic, UUID id) {
+        Map<String, Object> message = new HashMap<>();
         message.put("topic", topic);
         if (id != null) {
             if ("recipe".equals(topic)) {
@@ -121,63 +208,115 @@ public class WebSocketService {
             } else if ("ingredient".equals(topic)) {
                 message.put("ingredientId", id.toString());
             }
+        } else if (type == WebSocketTypes.SUBSCRIBE && "recipe".equals(topic)) {
+            message.put("languages", recipeLanguages);
+            message.put("recipeIds", recipeIds);
         }
+        return message;
+    }
 
+    private void send(Map<String, Object> message, String kind) {
         try {
             session.getBasicRemote().sendText(mapper.writeValueAsString(message));
         } catch (Exception e) {
-            System.err.println("Failed to send subscription message: " + e.getMessage());
+            System.err.println("Failed to send " + kind + " message: " + e.getMessage());
         }
     }
 
-    @OnOpen
     public void onOpen(Session session) {
         this.session = session;
         System.out.println("Connected to WebSocket: " + session.getId());
 
-        // Re-subscribe to all active topics on reconnection
-        for (String fullTopic : listeners.keySet()) {
-            String[] parts = fullTopic.split(":");
-            String topic = parts[0];
-            UUID id = parts.length > 1 ? UUID.fromString(parts[1]) : null;
-            sendSubscriptionMessage(WebSocketTypes.SUBSCRIBE, topic, id);
+        // Re-subscribe to all active topics on reconnection, in a single message
+        Set<String> topics = Set.copyOf(listeners.keySet());
+        if (!topics.isEmpty()) {
+            sendSubscriptionBatch(topics);
         }
+
+        // after subscribing again, ask for only the events missed meanwhile
+        if (connectedBefore) {
+            sendResume();
+        }
+        connectedBefore = true;
+    }
+
+    private void sendResume() {
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", WebSocketTypes.RESUME.toString());
+        message.put("seq", lastSeq);
+        send(message, "resume");
     }
 
-    @OnMessage
     public void onMessage(String message) {
         try {
             WebSocketResponse response = mapper.readValue(message, WebSocketResponse.class);
-            String topic = response.topic();
-
-            if (topic == null) {
-                if (response.type() == WebSocketTypes.ERROR) {
-                    System.err.println("WebSocket server error: " + response.data());
+            if (response.type() == WebSocketTypes.BATCH && response.data() instanceof List<?> events) {
+                // the server sends events that queued up together, in order
+                for (Object event : events) {
+                    dispatch(mapper.convertValue(event, WebSocketResponse.class));
                 }
-                return;
+            } else {
+                dispatch(response);
             }
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            System.err.println("Failed to parse WebSocket message: " + e.getMessage());
+        }
+    }
 
-            String fullTopic = topic;
-            if (response.data() != null && response.data() instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> data = (Map<String, Object>) response.data();
-                if (data.containsKey("id")) {
-                    fullTopic = topic + ":" + data.get("id");
-                }
-            } else if (response.type() == WebSocketTypes.DELETE && response.data() instanceof String) {
-                fullTopic = topic + ":" + response.data();
+    private void dispatch(WebSocketResponse response) {
+        if (response.seq() > lastSeq) {
+            lastSeq = response.seq();
+        }
+        if (response.type() == WebSocketTypes.RESYNC) {
+            // the missed events are gone, continue from the current sequence number
+            if (response.data() instanceof Number seq) {
+                lastSeq = seq.longValue();
             }
+            Runnable callback = onResync;
+            if (callback != null) {
+                callback.run();
+            }
+            return;
+        }
+        String topic = response.topic();
+
+        if (topic == null) {
+            if (response.type() == WebSocketTypes.ERROR) {
+                System.err.println("WebSocket server error: " + response.data());
+            } else if (response.data() instanceof Map<?, ?> answer
+                    && answer.get("errors") instanceof List<?> errors && !errors.isEmpty()) {
+                // the answer to a batch of subscriptions, some may have failed
+                System.err.println("WebSocket subscription errors: " + errors);
+            }
+            return;
+        }
 
-            // Notify specific listeners
-            notifyListeners(fullTopic, response);
+        String fullTopic = topic;
+        if (response.data() != null && response.data() instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> data = (Map<String, Object>) response.data();
+            if (data.containsKey("id")) {
+                fullTopic = topic + ":" + data.get("id");
+            }
+        } else if (response.type() == WebSocketTypes.DELETE && response.data() instanceof String) {
+            fullTopic = topic + ":" + response.data();
+        }
 
-            // Also notify generic topic listeners (if any)
-            if (!fullTopic.equals(topic)) {
-                notifyListeners(topic, response);
+        if (response.type() == WebSocketTypes.INGREDIENT_CHANGE
+                && response.data() instanceof Map<?, ?> change
+                && change.get("recipeIds") instanceof List<?> recipeIds) {
+            // concerns every recipe using the ingredient
+            for (Object recipeId : recipeIds) {
+                notifyListeners(topic + ":" + recipeId, response);
             }
+        }
 
-        } catch (JsonProcessingException e) {
-            System.err.println("Failed to parse WebSocket message: " + e.getMessage());
+        // Notify specific listeners
+        notifyListeners(fullTopic, response);
+
+        // Also notify generic topic listeners (if any)
+        if (!fullTopic.equals(topic)) {
+            notifyListeners(topic, response);
         }
     }
 
@@ -192,7 +331,6 @@ public class WebSocketService {
         }
     }
 
-    @OnClose
     public void onClose(Session session, CloseReason closeReason) {
         this.session = null;
         System.out.println("WebSocket closed: " + closeReason);
@@ -201,7 +339,6 @@ public class WebSocketService {
         }
     }
 
-    @OnError
     public void onError(Throwable throwable) {
         System.err.println("WebSocket error: " + throwable.getMessage());
         // Usually onError is followed by onClose, but if not:
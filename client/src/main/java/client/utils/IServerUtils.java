@@ -2,6 +2,7 @@ package client.utils;
 
 import commons.Ingredient;
 import commons.Recipe;
+import commons.RecipeChanges;
 
 import java.util.List;
 import java.util.UUID;
@@ -12,6 +13,10 @@ public interface IServerUtils {
 
     List<Recipe> getRecipes();
 
+    VersionedRecipeState getRecipeState();
+
+    RecipeChanges getChangesSince(long revision);
+
     Recipe setRecipe(Recipe recipe);
 
     Ingredient setIngredient(Ingredient ingredient);
@@ -4,16 +4,22 @@ import client.config.ConfigManager;
 import com.google.inject.Inject;
 import commons.Ingredient;
 import commons.Recipe;
+import commons.RecipeChanges;
 import commons.RecipeState;
 import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
 
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
 import org.glassfish.jersey.client.ClientConfig;
 
 import java.net.ConnectException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -23,9 +29,23 @@ public class ServerUtils implements IServerUtils {
 
     // public static final String SERVER = "http://localhost:8080/";
 
+    /** Response header in which the server sends the catalog revision. */
+    private static final String REVISION_HEADER = "X-Recipe-Revision";
+
     private final ConfigManager configManager;
     private final Client client;
 
+    /**
+     * A response body together with the ETag the server sent for it.
+     */
+    private record Cached<T>(String etag, T body) {
+    }
+
+    /** Last full state, reused when the server answers 304 Not Modified. */
+    private volatile Cached<VersionedRecipeState> cachedState;
+    /** Last list of all recipes, reused when the server answers 304 Not Modified. */
+    private volatile Cached<List<Recipe>> cachedRecipes;
+
     @Inject
     public ServerUtils(ConfigManager configManager) {
         this.configManager = configManager;
@@ -36,19 +56,82 @@ public class ServerUtils implements IServerUtils {
         return configManager.getConfig().getServerAddress();
     }
 
+    /**
+     * Gets all recipes. If nothing changed since the last call the server only
+     * confirms that, and the previously downloaded recipes are returned.
+     *
+     * @return a new list holding all recipes
+     */
     public List<Recipe> getRecipes() {
-        return client.target(getServerURL())
-                .path("api/recipes/all")
-                .request(APPLICATION_JSON)
-                .get(new GenericType<List<Recipe>>() {});
+        Cached<List<Recipe>> cached = cachedRecipes;
+        try (Response response = conditionalGet("api/recipes/all", cached)) {
+            if (cached != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                return new ArrayList<>(cached.body());
+            }
+            checkSuccessful(response);
+            List<Recipe> recipes = response.readEntity(new GenericType<List<Recipe>>() {});
+            cachedRecipes = new Cached<>(response.getHeaderString(HttpHeaders.ETAG), List.copyOf(recipes));
+            return recipes;
+        }
     }
 
     public List<Ingredient> getIngredients() {
-        RecipeState state = client.target(getServerURL())
-                .path("api/recipes")
+        return getRecipeState().state().ingredients().stream().toList();
+    }
+
+    /**
+     * Downloads the full state of the server in a single request.
+     *
+     * @return all recipes and ingredients, with the revision they were taken at
+     */
+    public VersionedRecipeState getRecipeState() {
+        Cached<VersionedRecipeState> cached = cachedState;
+        try (Response response = conditionalGet("api/recipes", cached)) {
+            if (cached != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                return cached.body();
+            }
+            checkSuccessful(response);
+            RecipeState state = response.readEntity(RecipeState.class);
+            String revision = response.getHeaderString(REVISION_HEADER);
+            VersionedRecipeState result =
+                    new VersionedRecipeState(revision == null ? -1 : Long.parseLong(revision), state);
+            cachedState = new Cached<>(response.getHeaderString(HttpHeaders.ETAG), result);
+            return result;
+        }
+    }
+
+    /**
+     * Sends a GET that carries the ETag of the cached body, if there is one, so
+     * the server can answer 304 instead of sending the same body again.
+     */
+    private Response conditionalGet(String path, Cached<?> cached) {
+        Invocation.Builder request = client.target(getServerURL())
+                .path(path)
+                .request(APPLICATION_JSON);
+        if (cached != null && cached.etag() != null) {
+            request = request.header(HttpHeaders.IF_NONE_MATCH, cached.etag());
+        }
+        return request.get();
+    }
+
+    private static void checkSuccessful(Response response) {
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            throw new WebApplicationException(response);
+        }
+    }
+
+    /**
+     * Gets everything that changed on the server after the given revision.
+     *
+     * @param revision the last revision the client is up to date with
+     * @return the changes, or a marker that a full resync is needed
+     */
+    public RecipeChanges getChangesSince(long revision) {
+        return client.target(getServerURL())
+                .path("api/recipes/changes")
+                .queryParam("since", revision)
                 .request(APPLICATION_JSON)
-                .get(RecipeState.class);
-        return state.ingredients().stream().toList();
+                .get(RecipeChanges.class);
     }
 
     public Recipe setRecipe(Recipe recipe) {
@@ -0,0 +1,12 @@
+package client.utils;
+
+import commons.RecipeState;
+
+/**
+ * The full recipe state together with the server revision it was taken at.
+ *
+ * @param revision the catalog revision of the state, -1 if the server did not send one
+ * @param state    the recipes and ingredients
+ */
+public record VersionedRecipeState(long revision, RecipeState state) {
+}
@@ -40,7 +40,7 @@ public class Ingredient {
      * @param nutritionValues the nutrition values of the ingredient
      */
     public Ingredient(String name, NutritionValues nutritionValues) {
-        this.id = UUID.randomUUID();
+        this.id = IdGenerator.next();
         this.name = name;
         this.nutritionValues = nutritionValues;
     }
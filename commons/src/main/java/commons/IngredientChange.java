@@ -0,0 +1,17 @@
+package commons;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An ingredient that changed, together with the recipes that use it.
+ * <p>
+ * Recipes only reference their ingredients, so they are unchanged themselves.
+ * A client that already has the recipes only needs the new ingredient to
+ * recompute what depends on it, such as the nutrition values.
+ *
+ * @param ingredient the new version of the ingredient
+ * @param recipeIds  the ids of the recipes using the ingredient
+ */
+public record IngredientChange(Ingredient ingredient, List<UUID> recipeIds) {
+}
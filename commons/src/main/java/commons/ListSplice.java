@@ -0,0 +1,68 @@
+package commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Replaces one contiguous range of a list, which turns the old list into the new one.
+ * <p>
+ * The range is what remains after removing the common prefix and suffix of both
+ * lists, so inserting, removing or changing items that are next to each other
+ * takes a single splice. Moving an item is expressed as replacing the items
+ * between its old and new position.
+ *
+ * @param start    index of the first replaced item
+ * @param removed  how many items are removed at {@code start}
+ * @param inserted the items inserted at {@code start}
+ * @param <T>      the type of the items
+ */
+public record ListSplice<T>(int start, int removed, List<T> inserted) {
+
+    /**
+     * Computes the splice turning {@code from} into {@code to}.
+     *
+     * @param from the old list, {@code null} is treated as empty
+     * @param to   the new list, {@code null} is treated as empty
+     * @param <T>  the type of the items
+     * @return the splice, or {@code null} if both lists are equal
+     */
+    public static <T> ListSplice<T> between(List<T> from, List<T> to) {
+        List<T> before = from == null ? List.of() : from;
+        List<T> after = to == null ? List.of() : to;
+        int shorter = Math.min(before.size(), after.size());
+
+        int prefix = 0;
+        while (prefix < shorter && Objects.equals(before.get(prefix), after.get(prefix))) {
+            prefix++;
+        }
+        if (prefix == before.size() && prefix == after.size()) {
+            return null;
+        }
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && Objects.equals(before.get(before.size() - 1 - suffix), after.get(after.size() - 1 - suffix))) {
+            suffix++;
+        }
+        return new ListSplice<>(prefix, before.size() - prefix - suffix,
+                new ArrayList<>(after.subList(prefix, after.size() - suffix)));
+    }
+
+    /**
+     * Applies this splice to a copy of {@code list}.
+     *
+     * @param list the list to apply it to, {@code null} is treated as empty
+     * @return a new list with the range replaced
+     * @throws IllegalArgumentException if the range is outside of {@code list}
+     */
+    public List<T> applyTo(List<T> list) {
+        List<T> result = list == null ? new ArrayList<>() : new ArrayList<>(list);
+        if (start < 0 || removed < 0 || start + removed > result.size()) {
+            throw new IllegalArgumentException("Splice " + start + "+" + removed
+                    + " does not fit a list of " + result.size());
+        }
+        result.subList(start, start + removed).clear();
+        result.addAll(start, inserted == null ? List.of() : inserted);
+        return result;
+    }
+}
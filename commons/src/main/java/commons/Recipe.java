@@ -2,10 +2,12 @@ package commons;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.persistence.CollectionTable;
 import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.Id;
+import jakarta.persistence.OrderColumn;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -23,7 +25,13 @@ public class Recipe {
     public UUID id;
     public String title;
 
+    /**
+     * Stored with the position of every row, so changing one ingredient updates
+     * that row instead of deleting and inserting all of them again.
+     */
     @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "recipe_ingredients")
+    @OrderColumn(name = "ingredient_index")
     public List<RecipeIngredient> ingredients;
 
     public List<String> steps;
@@ -32,7 +40,7 @@ public class Recipe {
 
     public Recipe(String title, List<RecipeIngredient> ingredients,
                   List<String> steps, int portions, Language language) {
-        this.id = UUID.randomUUID();
+        this.id = IdGenerator.next();
         this.title = title;
         this.ingredients = ingredients;
         this.steps = steps;
@@ -126,7 +134,7 @@ public class Recipe {
     /**
      * Create a clone of this recipe.
      * <p>
-     * - Generates a new UUID for the clone.
+     * - Generates a new time-ordered id for the clone.
      * - Copies all {@link RecipeIngredient} wrappers
      * - Copies the steps list.
      *
@@ -146,7 +154,7 @@ public class Recipe {
                 : new ArrayList<>(this.steps);
 
         return new Recipe(
-                UUID.randomUUID(),
+                IdGenerator.next(),
                 this.title,
                 ingrCopy,
                 stepsCopy,
@@ -0,0 +1,37 @@
+package commons;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Everything that changed in the catalog after a given revision.
+ * <p>
+ * Upserts hold the latest version of each changed entity. When {@code resyncRequired}
+ * is set the server no longer knows the changes since the requested revision, and
+ * the client has to download the full state instead.
+ *
+ * @param revision           the revision the client is up to date with after applying
+ *                           these changes
+ * @param resyncRequired     whether the changes are unavailable
+ * @param recipes            created or updated recipes
+ * @param ingredients        created or updated ingredients
+ * @param deletedRecipes     ids of deleted recipes
+ * @param deletedIngredients ids of deleted ingredients
+ */
+public record RecipeChanges(long revision,
+                            boolean resyncRequired,
+                            List<Recipe> recipes,
+                            List<Ingredient> ingredients,
+                            List<UUID> deletedRecipes,
+                            List<UUID> deletedIngredients) {
+
+    /**
+     * Creates the marker telling a client to download the full state.
+     *
+     * @param revision the current revision of the server
+     * @return changes with {@code resyncRequired} set and no entries
+     */
+    public static RecipeChanges resync(long revision) {
+        return new RecipeChanges(revision, true, List.of(), List.of(), List.of(), List.of());
+    }
+}
@@ -0,0 +1,140 @@
+package commons;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The fields of a recipe that changed between two versions, sent instead of the
+ * whole recipe when that is smaller.
+ * <p>
+ * Fields that did not change are {@code null}. The fingerprints identify both
+ * versions, so a client only applies a patch to the exact version it was computed
+ * from and can tell whether the result is correct. Otherwise it has to fetch the
+ * recipe again.
+ *
+ * @param id                the id of the recipe
+ * @param baseFingerprint   fingerprint of the version the patch applies to
+ * @param targetFingerprint fingerprint of the version after applying the patch
+ * @param title             the new title, or {@code null} if unchanged
+ * @param portions          the new portions, or {@code null} if unchanged
+ * @param language          the new language, or {@code null} if unchanged
+ * @param steps             the change of the steps, or {@code null} if unchanged
+ * @param ingredients       the change of the ingredients, or {@code null} if unchanged
+ */
+public record RecipePatch(UUID id,
+                          long baseFingerprint,
+                          long targetFingerprint,
+                          String title,
+                          Integer portions,
+                          Language language,
+                          ListSplice<String> steps,
+                          ListSplice<RecipeIngredient> ingredients) {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Computes the patch turning {@code from} into {@code to}.
+     *
+     * @param from the previous version
+     * @param to   the new version, with the same id
+     * @return the patch
+     */
+    public static RecipePatch diff(Recipe from, Recipe to) {
+        if (!Objects.equals(from.getId(), to.getId())) {
+            throw new IllegalArgumentException("Cannot diff different recipes");
+        }
+        return new RecipePatch(to.getId(),
+                fingerprint(from),
+                fingerprint(to),
+                Objects.equals(from.getTitle(), to.getTitle()) ? null : to.getTitle(),
+                from.getPortions() == to.getPortions() ? null : to.getPortions(),
+                from.getLanguage() == to.getLanguage() ? null : to.getLanguage(),
+                ListSplice.between(from.getSteps(), to.getSteps()),
+                ListSplice.between(from.getIngredients(), to.getIngredients()));
+    }
+
+    /**
+     * Checks whether this patch was computed from {@code base}.
+     *
+     * @param base the local version of the recipe, may be {@code null}
+     * @return whether {@link #applyTo(Recipe)} can be used on it
+     */
+    public boolean appliesTo(Recipe base) {
+        return base != null && Objects.equals(base.getId(), id) && fingerprint(base) == baseFingerprint;
+    }
+
+    /**
+     * Applies this patch to {@code base} without modifying it.
+     *
+     * @param base the version the patch was computed from
+     * @return the new version of the recipe
+     * @throws IllegalArgumentException if the patch does not apply to {@code base},
+     *                                  or the result is not the expected version
+     */
+    public Recipe applyTo(Recipe base) {
+        if (!appliesTo(base)) {
+            throw new IllegalArgumentException("Patch does not apply to this version of recipe " + id);
+        }
+        Recipe patched = new Recipe(id,
+                title != null ? title : base.getTitle(),
+                ingredients != null ? ingredients.applyTo(base.getIngredients()) : base.getIngredients(),
+                steps != null ? steps.applyTo(base.getSteps()) : base.getSteps(),
+                portions != null ? portions : base.getPortions(),
+                language != null ? language : base.getLanguage());
+        if (fingerprint(patched) != targetFingerprint) {
+            throw new IllegalArgumentException("Patch of recipe " + id + " produced a different version");
+        }
+        return patched;
+    }
+
+    /**
+     * Checks whether the patch changes anything at all.
+     *
+     * @return whether both versions are equal
+     */
+    public boolean changesNothing() {
+        return baseFingerprint == targetFingerprint && title == null && portions == null
+                && language == null && steps == null && ingredients == null;
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash of the content of a recipe. Unlike
+     * {@link Recipe#hashCode()} it does not depend on identity hashes of enums, so
+     * the server and client compute the same value.
+     *
+     * @param recipe the recipe
+     * @return the fingerprint
+     */
+    public static long fingerprint(Recipe recipe) {
+        StringBuilder content = new StringBuilder()
+                .append(recipe.getId()).append('\u0000')
+                .append(recipe.getTitle()).append('\u0000')
+                .append(recipe.getPortions()).append('\u0000')
+                .append(recipe.getLanguage() == null ? "" : recipe.getLanguage().name()).append('\u0000');
+        List<String> steps = recipe.getSteps() == null ? List.of() : recipe.getSteps();
+        for (String step : steps) {
+            content.append(step).append('\u0001');
+        }
+        content.append('\u0000');
+        List<RecipeIngredient> ingredients = recipe.getIngredients() == null ? List.of() : recipe.getIngredients();
+        for (RecipeIngredient ingredient : ingredients) {
+            Amount amount = ingredient.getAmount();
+            content.append(ingredient.getIngredientRef()).append(':');
+            if (amount != null) {
+                content.append(Double.doubleToLongBits(amount.quantity())).append(':')
+                        .append(amount.unit() == null ? "" : amount.unit().name()).append(':')
+                        .append(amount.description());
+            }
+            content.append('\u0001');
+        }
+
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < content.length(); i++) {
+            hash ^= content.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
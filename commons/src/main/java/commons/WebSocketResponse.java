@@ -1,7 +1,42 @@
 package commons;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A message sent over the WebSocket.
+ *
+ * @param type  the kind of message
+ * @param topic the topic the message is about, or {@code null}
+ * @param data  the payload
+ * @param seq   the sequence number of a broadcast event, increasing with every
+ *              event the server broadcasts, or 0 for messages that are not events
+ */
 public record WebSocketResponse(
         WebSocketTypes type,
         String topic,
-        Object data) {
+        Object data,
+        long seq) {
+
+    @JsonCreator
+    public WebSocketResponse(@JsonProperty("type") WebSocketTypes type,
+                             @JsonProperty("topic") String topic,
+                             @JsonProperty("data") Object data,
+                             @JsonProperty("seq") long seq) {
+        this.type = type;
+        this.topic = topic;
+        this.data = data;
+        this.seq = seq;
+    }
+
+    /**
+     * Creates a message that is not a broadcast event, without a sequence number.
+     *
+     * @param type  the kind of message
+     * @param topic the topic the message is about, or {@code null}
+     * @param data  the payload
+     */
+    public WebSocketResponse(WebSocketTypes type, String topic, Object data) {
+        this(type, topic, data, 0);
+    }
 }
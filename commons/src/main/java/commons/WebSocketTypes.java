@@ -7,5 +7,15 @@ public enum WebSocketTypes {
     UNSUBSCRIBED,
     UPDATE,
     DELETE,
-    ERROR
+    /** Only the changed fields of a recipe, the data is a {@link RecipePatch}. */
+    PATCH,
+    /** An ingredient changed, the data is an {@link IngredientChange} naming the recipes using it. */
+    INGREDIENT_CHANGE,
+    ERROR,
+    /** Several events in one frame, the data is the ordered array of them. */
+    BATCH,
+    /** Sent by a reconnecting client with the last sequence number it received. */
+    RESUME,
+    /** The events a client missed are no longer known, it has to refresh its state. */
+    RESYNC
 }
@@ -0,0 +1,121 @@
+package commons;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdGeneratorTest {
+    private static final int IDS_PER_THREAD = 200_000;
+
+    @Test
+    public void idsAreVersion7WithTheCurrentTime() throws Exception {
+        long before = System.currentTimeMillis();
+        UUID id;
+        // a fresh thread, this one may have borrowed from later milliseconds
+        try (ExecutorService thread = Executors.newSingleThreadExecutor()) {
+            id = thread.submit(IdGenerator::next).get();
+        }
+        long after = System.currentTimeMillis();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        long timestamp = IdGenerator.timestamp(id);
+        assertTrue(timestamp >= before && timestamp <= after, "timestamp " + timestamp);
+    }
+
+    @Test
+    public void idsOfOneThreadAreStrictlyIncreasing() {
+        UUID previous = IdGenerator.next();
+        for (int i = 0; i < 100_000; i++) {
+            UUID next = IdGenerator.next();
+            assertTrue(previous.compareTo(next) < 0, previous + " >= " + next);
+            assertTrue(previous.toString().compareTo(next.toString()) < 0);
+            previous = next;
+        }
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        int threads = 8;
+        Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        try (ExecutorService pool = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        ids.add(IdGenerator.next());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        assertEquals(threads * 20_000, ids.size());
+    }
+
+    @Test
+    public void timestampRejectsRandomIds() {
+        assertThrows(IllegalArgumentException.class, () -> IdGenerator.timestamp(UUID.randomUUID()));
+    }
+
+    @Test
+    public void constructorsUseTimeOrderedIds() {
+        Recipe recipe = new Recipe("Soup", List.of(), List.of(), 1, Language.EN);
+        Ingredient ingredient = new Ingredient("Salt", new NutritionValues(0, 0, 0));
+
+        assertEquals(7, recipe.getId().version());
+        assertEquals(7, ingredient.getId().version());
+        assertEquals(7, recipe.cloneRecipe().getId().version());
+    }
+
+    /**
+     * Prints how many ids per second all cores create with both generators, so
+     * they can be compared between machines. Only runs with {@code -Pbenchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    public void throughputComparedToRandomIds() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int round = 0; round < 2; round++) {
+            // the first round only warms up
+            double ordered = idsPerSecond(IdGenerator::next, cores);
+            double random = idsPerSecond(UUID::randomUUID, cores);
+            if (round == 1) {
+                System.out.printf("Ids on %d threads: time-ordered %.0f/s, random %.0f/s (x%.2f)%n",
+                        cores, ordered, random, ordered / random);
+            }
+        }
+    }
+
+    private static double idsPerSecond(Supplier<UUID> generator, int threads) throws Exception {
+        try (ExecutorService pool = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    long sink = 0;
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        sink += generator.get().getLeastSignificantBits();
+                    }
+                    return sink;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return (double) threads * IDS_PER_THREAD / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+}
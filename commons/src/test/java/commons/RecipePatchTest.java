@@ -0,0 +1,88 @@
+package commons;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecipePatchTest {
+    private static final UUID FLOUR = UUID.randomUUID();
+    private static final UUID SUGAR = UUID.randomUUID();
+
+    private static Recipe recipe(UUID id, String title, List<String> steps, List<RecipeIngredient> ingredients) {
+        return new Recipe(id, title, ingredients, steps, 2, Language.EN);
+    }
+
+    private static RecipeIngredient grams(UUID ingredient, double quantity) {
+        return new RecipeIngredient(ingredient, new Amount(quantity, Unit.GRAM));
+    }
+
+    @Test
+    public void onlyChangedFieldsAreIncluded() {
+        UUID id = UUID.randomUUID();
+        Recipe before = recipe(id, "Cake", List.of("mix", "bake"), List.of(grams(FLOUR, 200)));
+        Recipe after = recipe(id, "Better cake", List.of("mix", "bake"), List.of(grams(FLOUR, 200)));
+
+        RecipePatch patch = RecipePatch.diff(before, after);
+        assertEquals("Better cake", patch.title());
+        assertNull(patch.portions());
+        assertNull(patch.language());
+        assertNull(patch.steps());
+        assertNull(patch.ingredients());
+        assertEquals(after, patch.applyTo(before));
+    }
+
+    @Test
+    public void listEditsAreApplied() {
+        UUID id = UUID.randomUUID();
+        Recipe before = recipe(id, "Cake", List.of("mix", "bake", "eat"),
+                List.of(grams(FLOUR, 200), grams(SUGAR, 100)));
+        Recipe after = recipe(id, "Cake", List.of("mix", "rest", "bake", "eat"),
+                List.of(grams(FLOUR, 250), grams(SUGAR, 100)));
+
+        RecipePatch patch = RecipePatch.diff(before, after);
+        assertEquals(new ListSplice<>(1, 0, List.of("rest")), patch.steps());
+        assertEquals(new ListSplice<>(0, 1, List.of(grams(FLOUR, 250))), patch.ingredients());
+        assertEquals(after, patch.applyTo(before));
+    }
+
+    @Test
+    public void movedStepIsOneSplice() {
+        List<String> before = List.of("a", "b", "c", "d");
+        List<String> after = List.of("a", "c", "b", "d");
+        ListSplice<String> splice = ListSplice.between(before, after);
+        assertEquals(new ListSplice<>(1, 2, List.of("c", "b")), splice);
+        assertEquals(after, splice.applyTo(before));
+    }
+
+    @Test
+    public void equalListsHaveNoSplice() {
+        assertNull(ListSplice.between(List.of("a"), List.of("a")));
+    }
+
+    @Test
+    public void patchDoesNotApplyToOtherVersion() {
+        UUID id = UUID.randomUUID();
+        Recipe before = recipe(id, "Cake", List.of("mix"), List.of());
+        Recipe after = recipe(id, "Pie", List.of("mix"), List.of());
+        Recipe other = recipe(id, "Tart", List.of("mix"), List.of());
+
+        RecipePatch patch = RecipePatch.diff(before, after);
+        assertTrue(patch.appliesTo(before));
+        assertFalse(patch.appliesTo(other));
+        assertFalse(patch.appliesTo(null));
+        assertThrows(IllegalArgumentException.class, () -> patch.applyTo(other));
+    }
+
+    @Test
+    public void fingerprintDependsOnContentOnly() {
+        UUID id = UUID.randomUUID();
+        Recipe a = recipe(id, "Cake", List.of("mix"), List.of(grams(FLOUR, 1)));
+        Recipe b = recipe(id, "Cake", List.of("mix"), List.of(grams(FLOUR, 1)));
+        Recipe c = recipe(id, "Cake", List.of("mix"), List.of(grams(FLOUR, 2)));
+        assertEquals(RecipePatch.fingerprint(a), RecipePatch.fingerprint(b));
+        assertNotEquals(RecipePatch.fingerprint(a), RecipePatch.fingerprint(c));
+    }
+}
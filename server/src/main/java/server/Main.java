@@ -18,9 +18,11 @@ package server;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
 @EntityScan(basePackages = { "commons", "server" })
+@ConfigurationPropertiesScan
 public class Main {
 
     public static void main(String[] args) {
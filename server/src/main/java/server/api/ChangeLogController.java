@@ -0,0 +1,31 @@
+package server.api;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import server.database.CatalogStorage;
+import server.database.ChangeRecord;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/change-log")
+public class ChangeLogController {
+    static final int MAX_LIMIT = 1_000;
+
+    private final CatalogStorage storage;
+
+    public ChangeLogController(CatalogStorage storage) {
+        this.storage = storage;
+    }
+
+    /// Gets the committed change records after sequence number `after`, oldest
+    /// first, for auditing and replication. Records older than the retention of
+    /// the outbox are no longer available.
+    @GetMapping(path = { "", "/" })
+    public List<ChangeRecord> getChanges(@RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "100") int limit) {
+        return storage.changesAfter(after, Math.clamp(limit, 1, MAX_LIMIT));
+    }
+}
@@ -0,0 +1,31 @@
+package server.api;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import server.service.IRecipeService;
+import server.service.LoadState;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/health")
+public class HealthController {
+    private final IRecipeService recipeService;
+
+    public HealthController(IRecipeService recipeService) {
+        this.recipeService = recipeService;
+    }
+
+    /// Reports `READY` once the catalog is loaded. While the server is still
+    /// `WARMING_UP` (or loading `FAILED`) it answers 503, so load balancers keep
+    /// traffic away until it can serve complete data.
+    @GetMapping(path = { "", "/" })
+    public ResponseEntity<Map<String, String>> getHealth() {
+        LoadState state = recipeService.getLoadState();
+        HttpStatus status = state == LoadState.READY ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(Map.of("status", state.name()));
+    }
+}
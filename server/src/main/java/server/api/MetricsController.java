@@ -0,0 +1,31 @@
+package server.api;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import server.metrics.MetricsSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+    private final List<MetricsSource> sources;
+
+    /// Creates a controller reporting the metrics of all given sources, in runtime
+    /// these are all `MetricsSource` beans
+    public MetricsController(List<MetricsSource> sources) {
+        this.sources = sources;
+    }
+
+    @GetMapping(path = { "", "/" })
+    public Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (MetricsSource source : sources) {
+            result.put(source.metricsName(), source.metrics());
+        }
+        return result;
+    }
+}
@@ -2,38 +2,120 @@ package server.api;
 
 import commons.Recipe;
 import commons.Ingredient;
-import commons.RecipeState;
+import commons.RecipeChanges;
 import commons.InvalidRecipeError;
 import commons.InvalidIngredientError;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import server.service.CatalogSnapshot;
 import server.service.IRecipeService;
 
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
-import java.util.Collection;
-
 @RestController
 @RequestMapping("/api/recipes")
 public class RecipeController {
+    /// Response header carrying the catalog revision the body was taken from
+    public static final String REVISION_HEADER = "X-Recipe-Revision";
+
     private final IRecipeService recipeService;
+    private final SerializedStateCache stateCache;
 
     /// Creates a Recipe RestController which uses the provided interface service
     /// for resolving requests.
     ///
     /// In runtime this interface will be injected by spring-boot
-    public RecipeController(IRecipeService recipeService) {
+    public RecipeController(IRecipeService recipeService, SerializedStateCache stateCache) {
         this.recipeService = recipeService;
+        this.stateCache = stateCache;
     }
 
+    /// Gets the full `RecipeState` as JSON, served from the serialized state cache.
+    /// Answers 304 without a body if the client already has this revision.
     @GetMapping(path = { "", "/" })
-    public RecipeState getRecipeState() {
-        return recipeService.getState();
+    public ResponseEntity<byte[]> getRecipeState(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return serialized(SerializedStateCache.View.STATE, acceptEncoding, ifNoneMatch);
     }
 
+    /// Gets all recipes as a JSON array, served from the serialized state cache.
+    /// Answers 304 without a body if the client already has this revision.
     @GetMapping("/all")
-    public Collection<Recipe> getAllRecipes() {
-        return recipeService.getState().recipes();
+    public ResponseEntity<byte[]> getAllRecipes(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return serialized(SerializedStateCache.View.RECIPES, acceptEncoding, ifNoneMatch);
+    }
+
+    private ResponseEntity<byte[]> serialized(SerializedStateCache.View view,
+            String acceptEncoding, String ifNoneMatch) {
+        CatalogSnapshot snapshot = recipeService.getSnapshot();
+        boolean gzip = stateCache.isGzipEnabled()
+                && acceptEncoding != null && acceptEncoding.contains("gzip");
+        String etag = etag(view, snapshot.revision(), gzip);
+        if (matchesAny(ifNoneMatch, etag)) {
+            // checked before touching the cache, so a no-op poll never serializes
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(REVISION_HEADER, Long.toString(snapshot.revision()))
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        SerializedStateCache.Entry entry = stateCache.get(snapshot, view);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(etag)
+                .header(REVISION_HEADER, Long.toString(snapshot.revision()))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(entry.gzip());
+        }
+        return response.body(entry.json());
+    }
+
+    /// A strong ETag for one representation of a revision. Revisions carry the
+    /// startup time of the server in their upper bits, so they are not reused
+    /// across restarts either and the revision identifies the content.
+    /// The gzipped bytes are a different representation and get their own tag.
+    static String etag(SerializedStateCache.View view, long revision, boolean gzip) {
+        return "\"" + view.name().toLowerCase() + "-" + revision + (gzip ? "-gzip" : "") + "\"";
+    }
+
+    /// Whether an `If-None-Match` header matches `etag`, using the weak comparison
+    /// the header is defined with
+    static boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.strip();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /// Gets what changed after revision `since`, clients use this to stay in sync
+    /// without downloading the full state
+    @GetMapping("/changes")
+    public RecipeChanges getChanges(@RequestParam long since) {
+        return recipeService.getChangesSince(since);
+    }
+
+    @GetMapping("/ingredient/{id}/usages")
+    public Set<UUID> getIngredientUsages(@PathVariable UUID id) {
+        return recipeService.getIngredientUsages(id);
     }
 
     @PostMapping(path = { "", "/" })
@@ -46,6 +128,18 @@ public class RecipeController {
         recipeService.setIngredient(ingredient);
     }
 
+    /// Stores many recipes in one transaction and one broadcast. The whole batch
+    /// is rejected if any recipe references an unknown ingredient.
+    @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void setRecipes(@RequestBody List<Recipe> recipes) throws InvalidRecipeError {
+        recipeService.setRecipes(recipes);
+    }
+
+    @PostMapping(path = "/ingredient/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void setIngredients(@RequestBody List<Ingredient> ingredients) throws InvalidIngredientError {
+        recipeService.setIngredients(ingredients);
+    }
+
     @DeleteMapping("/{id}")
     public void deleteRecipe(@PathVariable UUID id) {
         recipeService.deleteRecipe(id);
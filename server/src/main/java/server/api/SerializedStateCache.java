@@ -0,0 +1,145 @@
+package server.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import server.metrics.MetricsSource;
+import server.service.CatalogSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/// Keeps the serialized JSON of the latest catalog snapshot, so reads of the full
+/// state only copy bytes instead of walking the whole object graph.
+///
+/// Every `View` is serialized lazily, at most once per revision. Snapshots are
+/// immutable, so the bytes built for a revision stay valid for as long as that
+/// revision is current. When `foodpal.state-cache.gzip` is enabled a gzipped copy
+/// is kept as well for clients accepting it.
+@Component
+public class SerializedStateCache implements MetricsSource {
+    /// The serialized forms of a snapshot that are cached
+    public enum View {
+        /// The full `RecipeState`
+        STATE(CatalogSnapshot::toState),
+        /// Only the recipes
+        RECIPES(CatalogSnapshot::recipes);
+
+        private final Function<CatalogSnapshot, Object> body;
+
+        View(Function<CatalogSnapshot, Object> body) {
+            this.body = body;
+        }
+    }
+
+    /// The bytes of one view at one revision, `gzip` is `null` if disabled
+    public record Entry(long revision, byte[] json, byte[] gzip) {
+    }
+
+    private final ObjectMapper mapper;
+    private final boolean gzipEnabled;
+    /// Filled once in the constructor and never modified, so it is safe to read
+    private final Map<View, AtomicReference<Entry>> entries = new EnumMap<>(View.class);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong serializedBytes = new AtomicLong();
+
+    public SerializedStateCache(ObjectMapper mapper,
+            @Value("${foodpal.state-cache.gzip:true}") boolean gzipEnabled) {
+        this.mapper = mapper;
+        this.gzipEnabled = gzipEnabled;
+        for (View view : View.values()) {
+            entries.put(view, new AtomicReference<>());
+        }
+    }
+
+    /// Gets the serialized `view` of `snapshot`, serializing it only if this
+    /// revision was not requested before
+    public Entry get(CatalogSnapshot snapshot, View view) {
+        AtomicReference<Entry> cached = entries.get(view);
+        Entry entry = cached.get();
+        if (entry != null && entry.revision() == snapshot.revision()) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        // one thread serializes a new revision, concurrent readers wait for it
+        // instead of all doing the same work
+        synchronized (cached) {
+            entry = cached.get();
+            if (entry != null && entry.revision() == snapshot.revision()) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            misses.incrementAndGet();
+            Entry built = serialize(snapshot, view);
+            // a reader holding an older snapshot must not replace a newer entry
+            cached.accumulateAndGet(built,
+                    (previous, next) -> previous == null || previous.revision() < next.revision()
+                            ? next
+                            : previous);
+            return built;
+        }
+    }
+
+    private Entry serialize(CatalogSnapshot snapshot, View view) {
+        try {
+            byte[] json = mapper.writeValueAsBytes(view.body.apply(snapshot));
+            byte[] gzip = gzipEnabled ? gzip(json) : null;
+            serializedBytes.addAndGet(json.length);
+            return new Entry(snapshot.revision(), json, gzip);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+            zip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public boolean isGzipEnabled() {
+        return gzipEnabled;
+    }
+
+    @Override
+    public String metricsName() {
+        return "stateCache";
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("serializedBytes", serializedBytes.get());
+        metrics.put("gzip", gzipEnabled);
+        entries.forEach((view, cached) -> {
+            Entry entry = cached.get();
+            if (entry == null) {
+                return;
+            }
+            String name = view.name().toLowerCase();
+            metrics.put(name + "Revision", entry.revision());
+            metrics.put(name + "Bytes", entry.json().length);
+            if (entry.gzip() != null) {
+                metrics.put(name + "GzipBytes", entry.gzip().length);
+            }
+        });
+        return metrics;
+    }
+}
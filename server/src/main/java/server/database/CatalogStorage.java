@@ -0,0 +1,41 @@
+package server.database;
+
+import commons.Ingredient;
+import commons.Recipe;
+
+import java.util.List;
+
+/// Where the catalog is persisted.
+///
+/// All state lives in memory in `RecipeService`, so a storage is only read once
+/// on startup, in pages that may be fetched concurrently, and afterwards only
+/// written to. The engine is chosen with `foodpal.storage.engine`.
+///
+/// Every write also appends `ChangeRecord`s to the change log of the storage, in
+/// the same transaction, which the `OutboxPublisher` reads after commit.
+public interface CatalogStorage {
+    long countRecipes();
+
+    long countIngredients();
+
+    /// One page of recipes, in a stable order so concurrent pages do not overlap
+    List<Recipe> recipePage(int page, int pageSize);
+
+    /// Ingredient counterpart of `recipePage`
+    List<Ingredient> ingredientPage(int page, int pageSize);
+
+    /// Persists `writes` in order, atomically: after a crash either all of them
+    /// are recovered or none. The change records describing them are appended
+    /// to the change log in the same transaction, numbered without gaps in the
+    /// order they are committed.
+    void apply(List<PendingWrite> writes);
+
+    /// Up to `limit` committed change records after `seq`, in sequence order
+    List<ChangeRecord> changesAfter(long seq, int limit);
+
+    /// The sequence number of the last change record, 0 if the log is empty
+    long lastChangeSeq();
+
+    /// Removes the change records before `seq`, they are no longer needed
+    void pruneChanges(long seq);
+}
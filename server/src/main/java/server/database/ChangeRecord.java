@@ -0,0 +1,156 @@
+package server.database;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import commons.Ingredient;
+import commons.Recipe;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+import org.springframework.data.domain.Persistable;
+import server.service.ChangeLog.Kind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/// One row of the durable change log (transactional outbox).
+///
+/// A storage appends a row for every entity a write creates, updates or deletes,
+/// atomically with the write itself. Sequence numbers are handed out by the
+/// committing transaction without gaps, in the order the rows are committed.
+/// The row carries the value the write stored as JSON, so it can be published
+/// without reading the catalog, which may already hold later changes.
+@Entity
+@Table(name = "change_log")
+public class ChangeRecord implements Persistable<Long> {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Id
+    public Long seq;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    public Kind kind;
+    @Column(nullable = false)
+    public UUID entityId;
+    public boolean deleted;
+    /// Milliseconds since the epoch when the write was committed
+    public long committedAt;
+    /// The stored recipe or ingredient as JSON, `null` if it was deleted
+    @Lob
+    public String payload;
+
+    public ChangeRecord(Long seq, Kind kind, UUID entityId, boolean deleted, long committedAt, String payload) {
+        this.seq = seq;
+        this.kind = kind;
+        this.entityId = entityId;
+        this.deleted = deleted;
+        this.committedAt = committedAt;
+        this.payload = payload;
+    }
+
+    // for JPA and Jackson
+    public ChangeRecord() {
+    }
+
+    /// The rows describing `writes`, in order and without a sequence number yet
+    public static List<ChangeRecord> describing(List<PendingWrite> writes, long committedAt) {
+        List<ChangeRecord> records = new ArrayList<>();
+        for (PendingWrite write : writes) {
+            switch (write) {
+                case PendingWrite.SaveRecipe(var recipe) -> records.add(of(recipe, committedAt));
+                case PendingWrite.DeleteRecipe(var id) -> records.add(deleted(Kind.RECIPE, id, committedAt));
+                case PendingWrite.SaveIngredient(var ingredient) -> records.add(of(ingredient, committedAt));
+                case PendingWrite.DeleteIngredient(var id) -> records.add(deleted(Kind.INGREDIENT, id, committedAt));
+                case PendingWrite.SaveRecipes(var recipes) ->
+                        recipes.forEach(recipe -> records.add(of(recipe, committedAt)));
+                case PendingWrite.RemoveIngredientUsages usages ->
+                        usages.after().forEach(recipe -> records.add(of(recipe, committedAt)));
+                case PendingWrite.DeleteIngredientAndUsages usages -> {
+                    usages.after().forEach(recipe -> records.add(of(recipe, committedAt)));
+                    records.add(deleted(Kind.INGREDIENT, usages.ingredientId(), committedAt));
+                }
+                case PendingWrite.SaveIngredients(var ingredients) ->
+                        ingredients.forEach(ingredient -> records.add(of(ingredient, committedAt)));
+            }
+        }
+        return records;
+    }
+
+    private static ChangeRecord of(Recipe recipe, long committedAt) {
+        return new ChangeRecord(null, Kind.RECIPE, recipe.getId(), false, committedAt, encode(recipe));
+    }
+
+    private static ChangeRecord of(Ingredient ingredient, long committedAt) {
+        return new ChangeRecord(null, Kind.INGREDIENT, ingredient.getId(), false, committedAt, encode(ingredient));
+    }
+
+    private static ChangeRecord deleted(Kind kind, UUID id, long committedAt) {
+        return new ChangeRecord(null, kind, id, true, committedAt, null);
+    }
+
+    private static String encode(Object value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode " + value, e);
+        }
+    }
+
+    /// The stored recipe of a `RECIPE` row that is not deleted
+    public Recipe recipe() {
+        return decode(Recipe.class);
+    }
+
+    /// The stored ingredient of an `INGREDIENT` row that is not deleted
+    public Ingredient ingredient() {
+        return decode(Ingredient.class);
+    }
+
+    private <T> T decode(Class<T> type) {
+        try {
+            return MAPPER.readValue(payload, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to decode change record " + seq, e);
+        }
+    }
+
+    @Override
+    @JsonIgnore
+    public Long getId() {
+        return seq;
+    }
+
+    /// Rows are only ever inserted, so saving one never reads it first
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof ChangeRecord that)) return false;
+        return Objects.equals(seq, that.seq) && kind == that.kind && Objects.equals(entityId, that.entityId)
+                && deleted == that.deleted && committedAt == that.committedAt
+                && Objects.equals(payload, that.payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(seq, kind, entityId, deleted, committedAt, payload);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeRecord{seq=" + seq + ", kind=" + kind + ", entityId=" + entityId
+                + ", deleted=" + deleted + ", committedAt=" + committedAt + "}";
+    }
+}
@@ -0,0 +1,32 @@
+package server.database;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+public interface ChangeRecordRepository extends JpaRepository<ChangeRecord, Long> {
+    List<ChangeRecord> findBySeqGreaterThanOrderBySeqAsc(long seq, Limit limit);
+
+    @Modifying
+    @Query("delete from ChangeRecord c where c.seq < :seq")
+    int deleteBefore(long seq);
+
+    /// Creates the sequence row, continuing after the records of a database
+    /// that numbered them before it existed
+    @Modifying
+    @Query(value = "INSERT INTO change_sequence (id, last_seq) SELECT 1, COALESCE(MAX(seq), 0) FROM change_log "
+            + "WHERE NOT EXISTS (SELECT 1 FROM change_sequence)", nativeQuery = true)
+    int createSequence();
+
+    /// Takes `count` sequence numbers, the row stays locked until the calling
+    /// transaction ends
+    @Modifying
+    @Query("update ChangeSequence s set s.lastSeq = s.lastSeq + :count where s.id = 1")
+    int advanceSequence(int count);
+
+    @Query("select s.lastSeq from ChangeSequence s where s.id = 1")
+    long currentSequence();
+}
@@ -0,0 +1,23 @@
+package server.database;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/// The single row holding the last sequence number handed to a change record.
+///
+/// A transaction advances it right before it commits, which locks the row until
+/// the commit, so the numbers have no gaps and are committed in order.
+@Entity
+@Table(name = "change_sequence")
+public class ChangeSequence {
+    @Id
+    public int id;
+    @Column(nullable = false)
+    public long lastSeq;
+
+    // for JPA
+    public ChangeSequence() {
+    }
+}
@@ -0,0 +1,144 @@
+package server.database;
+
+import commons.Ingredient;
+import commons.Recipe;
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/// Stores the catalog in the database through the JPA repositories, every
+/// `apply` is one transaction that also inserts the change records into the
+/// `change_log` table. This is the default engine.
+///
+/// The records are numbered from the `change_sequence` row as the last step
+/// before the commit. Advancing it locks the row until the commit, so a later
+/// transaction waits for the numbers of an earlier one to be committed and a
+/// rolled back transaction never took any.
+@Component
+@ConditionalOnProperty(name = "foodpal.storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaCatalogStorage implements CatalogStorage {
+    private final RecipeRepository recipeRepository;
+    private final IngredientRepository ingredientRepository;
+    private final ChangeRecordRepository changeRecordRepository;
+    private final TransactionOperations transactions;
+
+    public JpaCatalogStorage(RecipeRepository recipeRepository,
+            IngredientRepository ingredientRepository,
+            ChangeRecordRepository changeRecordRepository,
+            TransactionOperations transactions) {
+        this.recipeRepository = recipeRepository;
+        this.ingredientRepository = ingredientRepository;
+        this.changeRecordRepository = changeRecordRepository;
+        this.transactions = transactions;
+    }
+
+    /// Creates the change sequence and gives ingredient rows of a database
+    /// created before they were stored by position their position, so they load
+    /// again. Runs before the catalog is loaded and does nothing on a database
+    /// that is up to date.
+    @PostConstruct
+    public void migrate() {
+        Integer numbered = transactions.execute(_ -> {
+            changeRecordRepository.createSequence();
+            return recipeRepository.numberUnindexedIngredientRows();
+        });
+        if (numbered != null && numbered > 0) {
+            System.out.println("Numbered " + numbered + " recipe ingredient rows stored without a position");
+        }
+    }
+
+    @Override
+    public long countRecipes() {
+        return recipeRepository.count();
+    }
+
+    @Override
+    public long countIngredients() {
+        return ingredientRepository.count();
+    }
+
+    @Override
+    public List<Recipe> recipePage(int page, int pageSize) {
+        return recipeRepository.findAll(PageRequest.of(page, pageSize, Sort.by("id"))).getContent();
+    }
+
+    @Override
+    public List<Ingredient> ingredientPage(int page, int pageSize) {
+        return ingredientRepository.findAll(PageRequest.of(page, pageSize, Sort.by("id"))).getContent();
+    }
+
+    @Override
+    public void apply(List<PendingWrite> writes) {
+        transactions.executeWithoutResult(_ -> {
+            writes.forEach(this::apply);
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                appendChanges(writes);
+                return;
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    appendChanges(writes);
+                }
+            });
+        });
+    }
+
+    private void appendChanges(List<PendingWrite> writes) {
+        List<ChangeRecord> records = ChangeRecord.describing(writes, 0);
+        if (records.isEmpty()) {
+            return;
+        }
+        changeRecordRepository.advanceSequence(records.size());
+        // stamped once the row is locked, so no later commit has an earlier stamp
+        long committedAt = System.currentTimeMillis();
+        long seq = changeRecordRepository.currentSequence() - records.size();
+        for (ChangeRecord record : records) {
+            record.seq = ++seq;
+            record.committedAt = committedAt;
+        }
+        changeRecordRepository.saveAll(records);
+    }
+
+    @Override
+    public List<ChangeRecord> changesAfter(long seq, int limit) {
+        return changeRecordRepository.findBySeqGreaterThanOrderBySeqAsc(seq, Limit.of(limit));
+    }
+
+    @Override
+    public long lastChangeSeq() {
+        return changeRecordRepository.currentSequence();
+    }
+
+    @Override
+    public void pruneChanges(long seq) {
+        transactions.executeWithoutResult(_ -> changeRecordRepository.deleteBefore(seq));
+    }
+
+    private void apply(PendingWrite write) {
+        switch (write) {
+            case PendingWrite.SaveRecipe(var recipe) -> recipeRepository.save(recipe);
+            case PendingWrite.DeleteRecipe(var id) -> recipeRepository.deleteById(id);
+            case PendingWrite.SaveIngredient(var ingredient) -> ingredientRepository.save(ingredient);
+            case PendingWrite.DeleteIngredient(var id) -> ingredientRepository.deleteById(id);
+            case PendingWrite.SaveRecipes(var recipes) -> recipeRepository.saveAll(recipes);
+            case PendingWrite.RemoveIngredientUsages(var id, var before) ->
+                    recipeRepository.removeIngredient(id, before);
+            case PendingWrite.DeleteIngredientAndUsages(var id, var before) -> {
+                if (!before.isEmpty()) {
+                    recipeRepository.removeIngredient(id, before);
+                }
+                ingredientRepository.deleteById(id);
+            }
+            case PendingWrite.SaveIngredients(var ingredients) -> ingredientRepository.saveAll(ingredients);
+        }
+    }
+}
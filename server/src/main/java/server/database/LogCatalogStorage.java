@@ -0,0 +1,487 @@
+package server.database;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import commons.Ingredient;
+import commons.Recipe;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import server.metrics.MetricsSource;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/// Stores the catalog in an append-only write-ahead log instead of a database.
+///
+/// Every `apply` appends one frame holding all of its changes and forces it to
+/// disk, so a batch of the `PersistenceWriter` costs one fsync. A frame is its
+/// length, a CRC32 and the JSON of the changes. Changes are whole entities or
+/// deletes, so replaying them twice gives the same state.
+///
+/// Once the log grows past `compactAfterBytes`, the old snapshot is merged with
+/// the log into a new snapshot, which atomically replaces the old one, and the
+/// log starts over. The merge streams the old snapshot and only holds the latest
+/// entries of the log in memory, so the catalog itself is never kept here; it
+/// lives in `RecipeService`. On startup the snapshot is read and the log replayed
+/// on top of it. A frame at the end of the log that is incomplete or fails its
+/// checksum was being written during a crash, it is never reported as committed,
+/// so it is cut off.
+///
+/// The change records of a write are part of its frame. Compaction keeps the
+/// records that were not pruned yet, and a snapshot starts with the last
+/// sequence number, so numbers are not handed out again after everything was
+/// pruned.
+///
+/// Metrics are read without the lock, so they never wait for an fsync.
+@Component
+@ConditionalOnProperty(name = "foodpal.storage.engine", havingValue = "log")
+public class LogCatalogStorage implements CatalogStorage, MetricsSource, AutoCloseable {
+    static final String LOG_FILE = "catalog.log";
+    static final String SNAPSHOT_FILE = "catalog.snapshot";
+    private static final int HEADER_BYTES = 8;
+    private static final int SNAPSHOT_FRAME_ENTRIES = 1_000;
+
+    enum Op { PUT_RECIPE, DELETE_RECIPE, PUT_INGREDIENT, DELETE_INGREDIENT, CHANGE, LAST_CHANGE_SEQ }
+
+    /// One change as it is stored, only the field matching `op` is set
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Entry(Op op, UUID id, Recipe recipe, Ingredient ingredient, ChangeRecord change, Long seq) {
+    }
+
+    /// Receives the entries of a replayed file
+    @FunctionalInterface
+    private interface EntrySink {
+        void accept(Entry entry) throws IOException;
+    }
+
+    /// The recipe or ingredient an entry puts or deletes
+    private record EntityKey(boolean recipe, UUID id) {
+        /// `null` for entries that are not about an entity
+        static EntityKey of(Entry entry) {
+            return switch (entry.op()) {
+                case PUT_RECIPE, DELETE_RECIPE -> new EntityKey(true, entry.id());
+                case PUT_INGREDIENT, DELETE_INGREDIENT -> new EntityKey(false, entry.id());
+                case CHANGE, LAST_CHANGE_SEQ -> null;
+            };
+        }
+    }
+
+    /// Where the intact frames of a replayed file end and how many there are
+    private record Replayed(long validBytes, long frames) {
+    }
+
+    private final ObjectMapper mapper;
+    private final StorageProperties properties;
+    private final Path directory;
+
+    /// The change log by sequence number, guarded by `this`
+    private final TreeMap<Long, ChangeRecord> changes = new TreeMap<>();
+    private long lastChangeSeq = 0;
+    /// The state recovered on startup, sorted so pages are stable. Dropped once
+    /// every row was read, the catalog is only loaded once.
+    private volatile List<Recipe> recoveredRecipes;
+    private volatile List<Ingredient> recoveredIngredients;
+    private final long recipeCount;
+    private final long ingredientCount;
+    private final AtomicLong servedRecipes = new AtomicLong();
+    private final AtomicLong servedIngredients = new AtomicLong();
+    private final FileChannel log;
+
+    /// Written under `this`, read without it by `metrics`
+    private volatile long logBytes = 0;
+    private volatile long recoveredFrames = 0;
+    private volatile long truncatedBytes = 0;
+    private volatile long frames = 0;
+    private volatile long fsyncs = 0;
+    private volatile long fsyncNanos = 0;
+    private volatile long snapshots = 0;
+    private volatile long failedCompactions = 0;
+    private volatile int changeRecords = 0;
+
+    public LogCatalogStorage(ObjectMapper mapper, StorageProperties properties) {
+        this.mapper = mapper;
+        this.properties = properties;
+        this.directory = properties.directory();
+        Map<UUID, Recipe> recipes = new TreeMap<>();
+        Map<UUID, Ingredient> ingredients = new TreeMap<>();
+        EntrySink recover = entry -> {
+            switch (entry.op()) {
+                case PUT_RECIPE -> recipes.put(entry.id(), entry.recipe());
+                case DELETE_RECIPE -> recipes.remove(entry.id());
+                case PUT_INGREDIENT -> ingredients.put(entry.id(), entry.ingredient());
+                case DELETE_INGREDIENT -> ingredients.remove(entry.id());
+                case CHANGE, LAST_CHANGE_SEQ -> recordChange(entry);
+            }
+        };
+        try {
+            Files.createDirectories(directory);
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) {
+                Replayed replayed = replay(snapshot, recover);
+                if (replayed.validBytes() != Files.size(snapshot)) {
+                    throw new IllegalStateException("Snapshot " + snapshot + " is corrupt");
+                }
+                recoveredFrames = replayed.frames();
+            }
+            this.log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Replayed replayed = replay(directory.resolve(LOG_FILE), recover);
+            recoveredFrames += replayed.frames();
+            long valid = replayed.validBytes();
+            if (log.size() > valid) {
+                truncatedBytes = log.size() - valid;
+                log.truncate(valid);
+                log.force(true);
+                System.out.println("Cut off " + truncatedBytes + " bytes of an incomplete write at the end of "
+                        + directory.resolve(LOG_FILE));
+            }
+            log.position(valid);
+            logBytes = valid;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the catalog log in " + directory, e);
+        }
+        this.recoveredRecipes = List.copyOf(recipes.values());
+        this.recoveredIngredients = List.copyOf(ingredients.values());
+        this.recipeCount = recoveredRecipes.size();
+        this.ingredientCount = recoveredIngredients.size();
+        System.out.println("Recovered " + recoveredIngredients.size() + " ingredients and "
+                + recoveredRecipes.size() + " recipes from " + recoveredFrames + " frames in " + directory);
+    }
+
+    /// Hands the entries of the intact frames of `file` to `sink`
+    private Replayed replay(Path file, EntrySink sink) throws IOException {
+        if (!Files.exists(file)) {
+            return new Replayed(0, 0);
+        }
+        long size = Files.size(file);
+        long offset = 0;
+        long count = 0;
+        try (InputStream stream = Files.newInputStream(file);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            while (size - offset >= HEADER_BYTES) {
+                int length = in.readInt();
+                long checksum = Integer.toUnsignedLong(in.readInt());
+                if (length < 0 || length > size - offset - HEADER_BYTES) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (crc(payload) != checksum) {
+                    break;
+                }
+                for (Entry entry : mapper.readValue(payload, Entry[].class)) {
+                    sink.accept(entry);
+                }
+                offset += HEADER_BYTES + length;
+                count++;
+            }
+        } catch (EOFException e) {
+            // the file ended inside a frame
+        }
+        return new Replayed(offset, count);
+    }
+
+    private static long crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    @Override
+    public long countRecipes() {
+        return recipeCount;
+    }
+
+    @Override
+    public long countIngredients() {
+        return ingredientCount;
+    }
+
+    @Override
+    public List<Recipe> recipePage(int page, int pageSize) {
+        List<Recipe> rows = page(recoveredRecipes, page, pageSize);
+        if (servedRecipes.addAndGet(rows.size()) >= recipeCount) {
+            recoveredRecipes = List.of();
+        }
+        return rows;
+    }
+
+    @Override
+    public List<Ingredient> ingredientPage(int page, int pageSize) {
+        List<Ingredient> rows = page(recoveredIngredients, page, pageSize);
+        if (servedIngredients.addAndGet(rows.size()) >= ingredientCount) {
+            recoveredIngredients = List.of();
+        }
+        return rows;
+    }
+
+    /// A copy, so the page does not keep the whole recovered list alive
+    private static <T> List<T> page(List<T> all, int page, int pageSize) {
+        int from = (int) Math.min((long) page * pageSize, all.size());
+        return List.copyOf(all.subList(from, Math.min(from + pageSize, all.size())));
+    }
+
+    @Override
+    public synchronized void apply(List<PendingWrite> writes) {
+        List<Entry> entries = new ArrayList<>();
+        writes.forEach(write -> toEntries(write, entries));
+        if (entries.isEmpty()) {
+            return;
+        }
+        // numbered here, the sequence only advances once the frame is written,
+        // and stamped as the frame is written, which commits it
+        long seq = lastChangeSeq;
+        for (ChangeRecord change : ChangeRecord.describing(writes, System.currentTimeMillis())) {
+            change.seq = ++seq;
+            entries.add(change(change));
+        }
+        try {
+            long start = log.position();
+            try {
+                writeFrame(log, entries);
+                if (properties.fsync()) {
+                    long fsyncStart = System.nanoTime();
+                    log.force(false);
+                    fsyncNanos += System.nanoTime() - fsyncStart;
+                    fsyncs++;
+                }
+            } catch (IOException e) {
+                // later frames must not end up behind a torn one
+                log.truncate(start);
+                log.position(start);
+                throw e;
+            }
+            frames++;
+            logBytes = log.position();
+            entries.stream().filter(entry -> entry.op() == Op.CHANGE).forEach(this::recordChange);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to the catalog log", e);
+        }
+        if (logBytes >= properties.compactAfterBytes()) {
+            compactAfterAppend();
+        }
+    }
+
+    /// The frame is durable once this runs, so a failed compaction must not fail
+    /// the write. The old snapshot and the log stay valid, the next append tries
+    /// again.
+    private void compactAfterAppend() {
+        try {
+            compact();
+        } catch (IOException | UncheckedIOException e) {
+            failedCompactions++;
+            System.err.println("Failed to compact the catalog log: " + e.getMessage());
+        }
+    }
+
+    private void toEntries(PendingWrite write, List<Entry> entries) {
+        switch (write) {
+            case PendingWrite.SaveRecipe(var recipe) -> entries.add(put(recipe));
+            case PendingWrite.DeleteRecipe(var id) -> entries.add(delete(Op.DELETE_RECIPE, id));
+            case PendingWrite.SaveIngredient(var ingredient) -> entries.add(put(ingredient));
+            case PendingWrite.DeleteIngredient(var id) -> entries.add(delete(Op.DELETE_INGREDIENT, id));
+            case PendingWrite.SaveRecipes(var saved) -> saved.forEach(recipe -> entries.add(put(recipe)));
+            case PendingWrite.SaveIngredients(var saved) ->
+                    saved.forEach(ingredient -> entries.add(put(ingredient)));
+            case PendingWrite.RemoveIngredientUsages usages ->
+                    usages.after().forEach(recipe -> entries.add(put(recipe)));
+            case PendingWrite.DeleteIngredientAndUsages usages -> {
+                usages.after().forEach(recipe -> entries.add(put(recipe)));
+                entries.add(delete(Op.DELETE_INGREDIENT, usages.ingredientId()));
+            }
+        }
+    }
+
+    private static Entry put(Recipe recipe) {
+        return new Entry(Op.PUT_RECIPE, recipe.getId(), recipe, null, null, null);
+    }
+
+    private static Entry put(Ingredient ingredient) {
+        return new Entry(Op.PUT_INGREDIENT, ingredient.getId(), null, ingredient, null, null);
+    }
+
+    private static Entry delete(Op op, UUID id) {
+        return new Entry(op, id, null, null, null, null);
+    }
+
+    private static Entry change(ChangeRecord change) {
+        return new Entry(Op.CHANGE, null, null, null, change, null);
+    }
+
+    /// Keeps a change record, or only the sequence number of a snapshot header
+    private void recordChange(Entry entry) {
+        if (entry.op() == Op.LAST_CHANGE_SEQ) {
+            lastChangeSeq = Math.max(lastChangeSeq, entry.seq());
+            return;
+        }
+        changes.put(entry.change().seq, entry.change());
+        lastChangeSeq = Math.max(lastChangeSeq, entry.change().seq);
+        changeRecords = changes.size();
+    }
+
+    private void writeFrame(FileChannel channel, List<Entry> entries) throws IOException {
+        byte[] payload = mapper.writeValueAsBytes(entries);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc(payload))
+                .put(payload)
+                .flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /// Merges the snapshot and the log into a new snapshot and empties the log. A
+    /// crash in between leaves the old snapshot, or the new one with a log that
+    /// only repeats what it already holds.
+    private void compact() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path next = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        Map<EntityKey, Entry> logged = latestLogged();
+        try (SnapshotWriter out = new SnapshotWriter(next)) {
+            out.write(new Entry(Op.LAST_CHANGE_SEQ, null, null, null, null, lastChangeSeq));
+            replay(snapshot, entry -> {
+                if (isPut(entry) && !logged.containsKey(EntityKey.of(entry))) {
+                    out.write(entry);
+                }
+            });
+            for (Entry entry : logged.values()) {
+                if (isPut(entry)) {
+                    out.write(entry);
+                }
+            }
+            for (ChangeRecord change : changes.values()) {
+                out.write(change(change));
+            }
+        }
+        Files.move(next, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        log.truncate(0);
+        log.position(0);
+        log.force(true);
+        logBytes = 0;
+        snapshots++;
+    }
+
+    /// The latest entry of every entity in the log, which is about
+    /// `compactAfterBytes` long, in the order of those entries
+    private Map<EntityKey, Entry> latestLogged() throws IOException {
+        Map<EntityKey, Entry> latest = new LinkedHashMap<>();
+        replay(directory.resolve(LOG_FILE), entry -> {
+            EntityKey key = EntityKey.of(entry);
+            if (key != null) {
+                latest.remove(key);
+                latest.put(key, entry);
+            }
+        });
+        return latest;
+    }
+
+    private static boolean isPut(Entry entry) {
+        return entry.op() == Op.PUT_RECIPE || entry.op() == Op.PUT_INGREDIENT;
+    }
+
+    /// Writes a snapshot in frames of `SNAPSHOT_FRAME_ENTRIES`, closing it forces
+    /// it to disk
+    private final class SnapshotWriter implements AutoCloseable {
+        private final FileChannel out;
+        private final List<Entry> frame = new ArrayList<>(SNAPSHOT_FRAME_ENTRIES);
+
+        SnapshotWriter(Path file) throws IOException {
+            this.out = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        void write(Entry entry) throws IOException {
+            frame.add(entry);
+            if (frame.size() == SNAPSHOT_FRAME_ENTRIES) {
+                writeFrame(out, frame);
+                frame.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (out) {
+                if (!frame.isEmpty()) {
+                    writeFrame(out, frame);
+                }
+                out.force(true);
+            }
+        }
+    }
+
+    /// Makes the rename of the snapshot durable, where the platform allows it
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // not supported on every platform, the rename is usually durable anyway
+        }
+    }
+
+    @Override
+    public synchronized List<ChangeRecord> changesAfter(long seq, int limit) {
+        return changes.tailMap(seq, false).values().stream().limit(limit).toList();
+    }
+
+    @Override
+    public synchronized long lastChangeSeq() {
+        return lastChangeSeq;
+    }
+
+    @Override
+    public synchronized void pruneChanges(long seq) {
+        changes.headMap(seq).clear();
+        changeRecords = changes.size();
+    }
+
+    @Override
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (log.isOpen()) {
+            log.force(true);
+            log.close();
+        }
+    }
+
+    @Override
+    public String metricsName() {
+        return "storage";
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("engine", StorageProperties.Engine.LOG);
+        metrics.put("logBytes", logBytes);
+        metrics.put("recoveredFrames", recoveredFrames);
+        metrics.put("truncatedBytes", truncatedBytes);
+        metrics.put("frames", frames);
+        metrics.put("fsyncs", fsyncs);
+        metrics.put("avgFsyncMillis", fsyncs == 0 ? 0.0 : fsyncNanos / 1e6 / fsyncs);
+        metrics.put("snapshots", snapshots);
+        metrics.put("failedCompactions", failedCompactions);
+        metrics.put("changeRecords", changeRecords);
+        return metrics;
+    }
+}
@@ -0,0 +1,61 @@
+package server.database;
+
+import commons.Ingredient;
+import commons.Recipe;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/// A single change that has to be persisted
+public sealed interface PendingWrite {
+    record SaveRecipe(Recipe recipe) implements PendingWrite {
+    }
+
+    record DeleteRecipe(UUID recipeId) implements PendingWrite {
+    }
+
+    record SaveIngredient(Ingredient ingredient) implements PendingWrite {
+    }
+
+    record DeleteIngredient(UUID ingredientId) implements PendingWrite {
+    }
+
+    /// A bulk upsert, always persisted with one `saveAll` in a single transaction
+    record SaveRecipes(List<Recipe> recipes) implements PendingWrite {
+    }
+
+    /// Removes an ingredient from the recipes in `before`, which are the versions
+    /// still using it. Only the rows of the ingredient are deleted and the rows
+    /// behind them renumbered, instead of saving every recipe again.
+    record RemoveIngredientUsages(UUID ingredientId, List<Recipe> before) implements PendingWrite {
+        /// The recipes as they are stored once the write is applied
+        public List<Recipe> after() {
+            return withoutIngredient(before, ingredientId);
+        }
+    }
+
+    /// Deletes an ingredient together with its rows in the recipes in `before`,
+    /// like `RemoveIngredientUsages` followed by `DeleteIngredient` but in one
+    /// transaction, so no recipe is ever stored referencing a deleted ingredient
+    record DeleteIngredientAndUsages(UUID ingredientId, List<Recipe> before) implements PendingWrite {
+        /// The recipes as they are stored once the write is applied
+        public List<Recipe> after() {
+            return withoutIngredient(before, ingredientId);
+        }
+    }
+
+    /// Ingredient counterpart of `SaveRecipes`
+    record SaveIngredients(List<Ingredient> ingredients) implements PendingWrite {
+    }
+
+    private static List<Recipe> withoutIngredient(List<Recipe> recipes, UUID ingredientId) {
+        return recipes.stream()
+                .map(recipe -> new Recipe(recipe.getId(), recipe.getTitle(),
+                        recipe.getIngredients().stream()
+                                .filter(ri -> !Objects.equals(ri.getIngredientRef(), ingredientId))
+                                .toList(),
+                        recipe.getSteps(), recipe.getPortions(), recipe.getLanguage()))
+                .toList();
+    }
+}
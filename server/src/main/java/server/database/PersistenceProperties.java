@@ -0,0 +1,37 @@
+package server.database;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/// Settings for how writes reach the database, bound from `foodpal.persistence.*`
+///
+/// @param durability        when a write is persisted relative to the request
+/// @param queueCapacity     how many writes may wait in the queue before writers
+///                          block, ignored for `SYNC`
+/// @param batchSize         the maximum number of writes committed in one
+///                          transaction in `BATCHED` mode
+/// @param batchLingerMillis how long the background writer waits for more writes
+///                          to fill a batch in `BATCHED` mode
+@ConfigurationProperties("foodpal.persistence")
+public record PersistenceProperties(
+        @DefaultValue("SYNC") Durability durability,
+        @DefaultValue("10000") int queueCapacity,
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("20") long batchLingerMillis) {
+
+    public enum Durability {
+        /// Every write commits its own transaction before the request returns
+        SYNC,
+        /// Writes are queued and committed one transaction per write by a
+        /// background writer
+        ASYNC,
+        /// Writes are queued and committed in groups of up to `batchSize` per
+        /// transaction by a background writer
+        BATCHED
+    }
+
+    /// The default, fully synchronous settings
+    public static PersistenceProperties sync() {
+        return new PersistenceProperties(Durability.SYNC, 10_000, 500, 20);
+    }
+}
@@ -0,0 +1,261 @@
+package server.database;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import server.metrics.MetricsSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/// Persists recipe and ingredient changes to the configured `CatalogStorage`.
+///
+/// In `SYNC` mode every write is committed on the calling thread. In `ASYNC` and
+/// `BATCHED` mode writes are put on a bounded queue and the caller returns
+/// immediately. A background writer drains the queue, in `BATCHED` mode it commits
+/// many writes per transaction (group commit). Writes are always applied in the
+/// order they were submitted. When the queue is full, submitting blocks until the
+/// writer catches up.
+///
+/// On shutdown all queued writes are flushed before the database goes away.
+@Component
+public class PersistenceWriter implements MetricsSource {
+    private static final long POLL_MILLIS = 100;
+
+    private final CatalogStorage storage;
+    private final PersistenceProperties properties;
+
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+    /// Submitters hold the read lock while they check `running` and enqueue, it is
+    /// only cleared under the write lock, so no write is queued after the writer
+    /// saw the last one
+    private final ReadWriteLock intake = new ReentrantReadWriteLock();
+
+    private final AtomicLong submitted = new AtomicLong();
+    /// Guarded by `this`, writers waiting in `flush` are notified when it grows
+    private long completed = 0;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+    private volatile long lastCommitNanos = 0;
+    private volatile long maxCommitNanos = 0;
+
+    public PersistenceWriter(CatalogStorage storage, PersistenceProperties properties) {
+        this.storage = storage;
+        this.properties = properties;
+
+        if (properties.durability() == PersistenceProperties.Durability.SYNC) {
+            this.queue = null;
+            this.writer = null;
+        } else {
+            this.queue = new LinkedBlockingQueue<>(properties.queueCapacity());
+            this.writer = Thread.ofPlatform()
+                    .name("persistence-writer")
+                    .daemon()
+                    .start(this::drainLoop);
+        }
+    }
+
+    /// Persists `write`, either right away or through the queue depending on the
+    /// configured durability
+    public void write(PendingWrite write) {
+        if (queue == null) {
+            submitted.incrementAndGet();
+            commit(List.of(write));
+            return;
+        }
+        try {
+            while (!offer(write)) {
+                // the queue is full, the lock was released so a shutdown can get in
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing a write", e);
+        }
+    }
+
+    /// Queues `write` unless the writer is shut down, waiting at most `POLL_MILLIS`
+    /// for space in the queue
+    private boolean offer(PendingWrite write) throws InterruptedException {
+        intake.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Persistence writer is shut down");
+            }
+            if (!queue.offer(write, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            submitted.incrementAndGet();
+            return true;
+        } finally {
+            intake.readLock().unlock();
+        }
+    }
+
+    /// Stops accepting writes, once this returns no more writes are queued
+    private void stopAccepting() {
+        intake.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            intake.writeLock().unlock();
+        }
+    }
+
+    /// Blocks until every write submitted before this call has been committed.
+    /// Fails if the writer stopped before it got to them.
+    public void flush() throws InterruptedException {
+        long target = submitted.get();
+        synchronized (this) {
+            while (completed < target) {
+                if (writer != null && !writer.isAlive()) {
+                    throw new IllegalStateException("Persistence writer stopped with "
+                            + (target - completed) + " writes not persisted");
+                }
+                wait(POLL_MILLIS);
+            }
+        }
+    }
+
+    /// Stops accepting writes and waits for the queue to be drained
+    @PreDestroy
+    public void close() throws InterruptedException {
+        stopAccepting();
+        if (writer != null) {
+            writer.join();
+        }
+        System.out.println("Persistence writer flushed, " + completed + " writes persisted");
+    }
+
+    private void drainLoop() {
+        int batchSize = properties.durability() == PersistenceProperties.Durability.BATCHED
+                ? Math.max(1, properties.batchSize())
+                : 1;
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch, batchSize);
+            } catch (InterruptedException e) {
+                // keep draining, the queue must be empty before the writer exits
+                stopAccepting();
+            }
+            if (!batch.isEmpty()) {
+                // also the writes taken off the queue before an interrupt
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /// Adds queued writes to `batch`, waiting up to the linger time for the batch
+    /// to fill up
+    private void fillBatch(List<PendingWrite> batch, int batchSize) throws InterruptedException {
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(properties.batchLingerMillis());
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !running) {
+                return;
+            }
+            PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /// Commits all writes in one transaction. If that fails they are retried one
+    /// per transaction, so a single bad write does not take the others down.
+    private void commit(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        try {
+            storage.apply(batch);
+            commits.incrementAndGet();
+        } catch (RuntimeException e) {
+            if (queue == null) {
+                // synchronous writes report their failure to the caller
+                markCompleted(batch.size());
+                throw e;
+            }
+            if (batch.size() == 1) {
+                recordFailure(batch.getFirst(), e);
+            } else {
+                batch.forEach(this::commitAlone);
+            }
+        }
+        recordLatency(System.nanoTime() - start);
+        markCompleted(batch.size());
+    }
+
+    private void commitAlone(PendingWrite write) {
+        try {
+            storage.apply(List.of(write));
+            commits.incrementAndGet();
+        } catch (RuntimeException e) {
+            recordFailure(write, e);
+        }
+    }
+
+    private void recordFailure(PendingWrite write, RuntimeException e) {
+        failedWrites.incrementAndGet();
+        System.err.println("Failed to persist " + write + ": " + e.getMessage());
+    }
+
+    private void recordLatency(long nanos) {
+        lastCommitNanos = nanos;
+        totalCommitNanos.addAndGet(nanos);
+        if (nanos > maxCommitNanos) {
+            maxCommitNanos = nanos;
+        }
+    }
+
+    private synchronized void markCompleted(int count) {
+        completed += count;
+        notifyAll();
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public String metricsName() {
+        return "persistence";
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        long commitCount = commits.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("durability", properties.durability());
+        metrics.put("queueDepth", getQueueDepth());
+        metrics.put("queueCapacity", queue == null ? 0 : properties.queueCapacity());
+        metrics.put("submittedWrites", submitted.get());
+        metrics.put("commits", commitCount);
+        metrics.put("failedWrites", failedWrites.get());
+        metrics.put("lastCommitMillis", lastCommitNanos / 1e6);
+        metrics.put("avgCommitMillis",
+                commitCount == 0 ? 0.0 : totalCommitNanos.get() / 1e6 / commitCount);
+        metrics.put("maxCommitMillis", maxCommitNanos / 1e6);
+        return metrics;
+    }
+}
@@ -16,9 +16,79 @@
 package server.database;
 
 import commons.Recipe;
+import commons.RecipeIngredient;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 public interface RecipeRepository extends JpaRepository<Recipe, UUID> {
+    /// Numbers ingredient rows stored before they had a position, which
+    /// `ddl-auto=update` leaves at `NULL`. They keep the order H2 stored them in,
+    /// after the rows of their recipe that already have a position.
+    String NUMBER_UNINDEXED_INGREDIENT_ROWS = "UPDATE recipe_ingredients r SET ingredient_index = "
+            + "(SELECT COUNT(*) FROM recipe_ingredients o WHERE o.recipe_id = r.recipe_id "
+            + "AND (o.ingredient_index IS NOT NULL OR o._ROWID_ < r._ROWID_)) "
+            + "WHERE ingredient_index IS NULL";
+
+    /// Removes an ingredient from all recipes with one bulk delete, then moves
+    /// the rows behind the removed ones up so every list has no gaps again.
+    /// `before` are the recipes using the ingredient as they are stored now.
+    default void removeIngredient(UUID ingredientId, Collection<Recipe> before) {
+        deleteIngredientRows(ingredientId);
+        for (Recipe recipe : before) {
+            List<RecipeIngredient> rows = recipe.getIngredients();
+            List<Integer> removed = new ArrayList<>();
+            for (int index = 0; index < rows.size(); index++) {
+                if (Objects.equals(rows.get(index).getIngredientRef(), ingredientId)) {
+                    removed.add(index);
+                }
+            }
+            if (removed.size() == 1) {
+                // every row behind moves up by one, taking two statements
+                // so no position is ever held by two rows
+                if (removed.getFirst() < rows.size() - 1) {
+                    negateIngredientRowsAfter(recipe.getId(), removed.getFirst());
+                    moveNegatedIngredientRowsUp(recipe.getId());
+                }
+                continue;
+            }
+            // ascending, so a row only moves to a position that is free already
+            for (int index = 0, shift = 0; index < rows.size(); index++) {
+                if (shift < removed.size() && removed.get(shift) == index) {
+                    shift++;
+                } else if (shift > 0) {
+                    moveIngredientRow(recipe.getId(), index, index - shift);
+                }
+            }
+        }
+    }
+
+    @Modifying
+    @Query(value = NUMBER_UNINDEXED_INGREDIENT_ROWS, nativeQuery = true)
+    int numberUnindexedIngredientRows();
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "DELETE FROM recipe_ingredients WHERE ingredient_ref = :ingredientId", nativeQuery = true)
+    int deleteIngredientRows(UUID ingredientId);
+
+    @Modifying
+    @Query(value = "UPDATE recipe_ingredients SET ingredient_index = -ingredient_index "
+            + "WHERE recipe_id = :recipeId AND ingredient_index > :index", nativeQuery = true)
+    int negateIngredientRowsAfter(UUID recipeId, int index);
+
+    @Modifying
+    @Query(value = "UPDATE recipe_ingredients SET ingredient_index = -ingredient_index - 1 "
+            + "WHERE recipe_id = :recipeId AND ingredient_index < 0", nativeQuery = true)
+    int moveNegatedIngredientRowsUp(UUID recipeId);
+
+    @Modifying
+    @Query(value = "UPDATE recipe_ingredients SET ingredient_index = :to "
+            + "WHERE recipe_id = :recipeId AND ingredient_index = :from", nativeQuery = true)
+    int moveIngredientRow(UUID recipeId, int from, int to);
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package server.database;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+
+/// Settings for where the catalog is stored, bound from `foodpal.storage.*`
+///
+/// @param engine            the storage engine
+/// @param directory         where the `LOG` engine keeps its log and snapshot
+/// @param fsync             whether the `LOG` engine forces every appended batch
+///                          to disk before the write counts as committed
+/// @param compactAfterBytes log size after which the `LOG` engine writes a new
+///                          snapshot and starts an empty log
+@ConfigurationProperties("foodpal.storage")
+public record StorageProperties(
+        @DefaultValue("JPA") Engine engine,
+        @DefaultValue("catalog-log") Path directory,
+        @DefaultValue("true") boolean fsync,
+        @DefaultValue("67108864") long compactAfterBytes) {
+
+    public enum Engine {
+        /// The JPA repositories on the configured database
+        JPA,
+        /// An append-only write-ahead log with periodic snapshots
+        LOG
+    }
+}
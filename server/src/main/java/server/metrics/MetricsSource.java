@@ -0,0 +1,15 @@
+package server.metrics;
+
+import java.util.Map;
+
+/// A component that exposes runtime metrics on `/api/metrics`.
+///
+/// Every Spring bean implementing this interface is picked up automatically.
+public interface MetricsSource {
+    /// Name the metrics of this source are grouped under
+    String metricsName();
+
+    /// Current values of the metrics. This is called on every metrics request, so
+    /// it should only read counters and not compute anything expensive.
+    Map<String, Object> metrics();
+}
@@ -0,0 +1,132 @@
+package server.service;
+
+import commons.Ingredient;
+import commons.Recipe;
+import org.springframework.stereotype.Component;
+import server.database.CatalogStorage;
+import server.metrics.MetricsSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/// Loads all recipes and ingredients from the `CatalogStorage` on startup.
+///
+/// Entities are fetched in pages of `foodpal.startup.page-size`, and all pages
+/// of both tables are fetched concurrently on `foodpal.startup.parallelism`
+/// threads. Every recipe page is handed to a callback on the thread that fetched
+/// it, so indexing runs in parallel with fetching instead of after it. The time
+/// every phase took is printed and exposed as metrics.
+@Component
+public class CatalogLoader implements MetricsSource {
+    private final CatalogStorage storage;
+    private final StartupProperties properties;
+
+    /// Milliseconds every phase took, in the order the phases finished
+    private final Map<String, Long> phaseMillis = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /// The entities read from the database
+    public record Catalog(List<Ingredient> ingredients, List<Recipe> recipes) {
+    }
+
+    public CatalogLoader(CatalogStorage storage, StartupProperties properties) {
+        this.storage = storage;
+        this.properties = properties;
+    }
+
+    /// Whether the service should start serving before the catalog is loaded
+    public boolean loadsAsync() {
+        return properties.asyncLoad();
+    }
+
+    /// Reads the whole catalog. `onRecipePage` is called concurrently from the
+    /// loader threads with every page of recipes as soon as it is fetched.
+    public Catalog load(Consumer<List<Recipe>> onRecipePage) {
+        long start = System.nanoTime();
+        int pageSize = Math.max(1, properties.pageSize());
+        try (ExecutorService pool = Executors.newFixedThreadPool(properties.threads(),
+                Thread.ofPlatform().name("catalog-loader-", 0).daemon().factory())) {
+            long ingredientCount = storage.countIngredients();
+            long recipeCount = storage.countRecipes();
+            recordPhase("count", start);
+
+            // ingredients first, so their pages are at the front of the queue
+            List<Future<List<Ingredient>>> ingredientPages =
+                    submitPages(pool, storage::ingredientPage, ingredientCount, pageSize, _ -> { });
+            List<Future<List<Recipe>>> recipePages =
+                    submitPages(pool, storage::recipePage, recipeCount, pageSize, onRecipePage);
+
+            List<Ingredient> ingredients = collect(ingredientPages);
+            recordPhase("ingredients", start);
+            List<Recipe> recipes = collect(recipePages);
+            recordPhase("recipes", start);
+
+            System.out.println("Loaded " + ingredients.size() + " ingredients and "
+                    + recipes.size() + " recipes in pages of " + pageSize
+                    + " on " + properties.threads() + " threads");
+            return new Catalog(ingredients, recipes);
+        }
+    }
+
+    /// Records that `phase` finished, measured from `start`
+    public void recordPhase(String phase, long start) {
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        phaseMillis.put(phase, millis);
+        System.out.println("Catalog load phase '" + phase + "' done after " + millis + " ms");
+    }
+
+    private static <T> List<Future<List<T>>> submitPages(ExecutorService pool,
+            BiFunction<Integer, Integer, List<T>> readPage, long count, int pageSize,
+            Consumer<List<T>> onPage) {
+        int pages = (int) ((count + pageSize - 1) / pageSize);
+        List<Future<List<T>>> futures = new ArrayList<>(pages);
+        for (int page = 0; page < pages; page++) {
+            int index = page;
+            futures.add(pool.submit(() -> {
+                List<T> content = readPage.apply(index, pageSize);
+                onPage.accept(content);
+                return content;
+            }));
+        }
+        return futures;
+    }
+
+    private static <T> List<T> collect(List<Future<List<T>>> pages) {
+        List<T> result = new ArrayList<>();
+        try {
+            for (Future<List<T>> page : pages) {
+                result.addAll(page.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the catalog", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load the catalog", e.getCause());
+        }
+        return result;
+    }
+
+    @Override
+    public String metricsName() {
+        return "startup";
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pageSize", properties.pageSize());
+        metrics.put("threads", properties.threads());
+        synchronized (phaseMillis) {
+            phaseMillis.forEach((phase, millis) -> metrics.put(phase + "Millis", millis));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,23 @@
+package server.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+
+/// Settings for how the in-memory catalog keeps recipes, bound from
+/// `foodpal.catalog.*`
+///
+/// @param offHeap      keep serialized recipes in memory-mapped files instead
+///                     of as objects on the heap
+/// @param directory    where the mapped files are created, a new temporary
+///                     directory if not set
+/// @param segmentBytes size of one mapped file
+/// @param cacheEntries how many decoded recipes are kept on the heap
+@ConfigurationProperties("foodpal.catalog")
+public record CatalogProperties(
+        @DefaultValue("false") boolean offHeap,
+        Path directory,
+        @DefaultValue("67108864") int segmentBytes,
+        @DefaultValue("1024") int cacheEntries) {
+}
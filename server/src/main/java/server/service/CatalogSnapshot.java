@@ -0,0 +1,152 @@
+package server.service;
+
+import commons.Ingredient;
+import commons.Recipe;
+import commons.RecipeState;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.UUID;
+
+/// An immutable, point-in-time view of all recipes and ingredients.
+///
+/// Snapshots are never modified. Every `with...`/`without...` call returns a new
+/// snapshot that shares all unchanged entries with this one, so publishing a new
+/// version after a write costs O(log n) and readers holding an older snapshot are
+/// never affected by it.
+///
+/// Recipes are kept in the form chosen by the `RecipeStore`, by default as the
+/// objects themselves. Every snapshot derived from another one uses the same
+/// store.
+public final class CatalogSnapshot {
+    private static final CatalogSnapshot EMPTY = empty(HeapRecipeStore.INSTANCE);
+
+    private final long revision;
+    private final RecipeStore store;
+    /// The recipes as returned by `store.store`
+    private final PersistentHashMap<UUID, Object> recipes;
+    private final PersistentHashMap<UUID, Ingredient> ingredients;
+
+    private CatalogSnapshot(long revision,
+            RecipeStore store,
+            PersistentHashMap<UUID, Object> recipes,
+            PersistentHashMap<UUID, Ingredient> ingredients) {
+        this.revision = revision;
+        this.store = store;
+        this.recipes = recipes;
+        this.ingredients = ingredients;
+    }
+
+    /// The empty catalog at revision 0
+    public static CatalogSnapshot empty() {
+        return EMPTY;
+    }
+
+    /// The empty catalog at revision 0, keeping recipes in `store`
+    public static CatalogSnapshot empty(RecipeStore store) {
+        return new CatalogSnapshot(0, store, PersistentHashMap.empty(), PersistentHashMap.empty());
+    }
+
+    /// Builds a snapshot holding exactly the given recipes and ingredients
+    public static CatalogSnapshot of(long revision,
+            Collection<Recipe> recipes,
+            Collection<Ingredient> ingredients) {
+        return of(revision, recipes, ingredients, HeapRecipeStore.INSTANCE);
+    }
+
+    /// Builds a snapshot holding exactly the given recipes and ingredients, keeping
+    /// the recipes in `store`
+    public static CatalogSnapshot of(long revision,
+            Collection<Recipe> recipes,
+            Collection<Ingredient> ingredients,
+            RecipeStore store) {
+        CatalogSnapshot snapshot = empty(store);
+        for (Ingredient ingredient : ingredients) {
+            snapshot = snapshot.withIngredient(ingredient);
+        }
+        for (Recipe recipe : recipes) {
+            snapshot = snapshot.withRecipe(recipe);
+        }
+        return snapshot.withRevision(revision);
+    }
+
+    /// Monotonically increasing version of the catalog, every published write
+    /// increments it by one
+    public long revision() {
+        return revision;
+    }
+
+    public Recipe recipe(UUID id) {
+        Object stored = recipes.get(id);
+        return stored == null ? null : store.load(stored);
+    }
+
+    public Ingredient ingredient(UUID id) {
+        return ingredients.get(id);
+    }
+
+    public boolean hasIngredient(UUID id) {
+        return ingredients.containsKey(id);
+    }
+
+    /// Read-only view of all recipes, no copy is made. Recipes are loaded from
+    /// the store while iterating.
+    public Collection<Recipe> recipes() {
+        Collection<Object> stored = recipes.values();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Recipe> iterator() {
+                Iterator<Object> values = stored.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return values.hasNext();
+                    }
+
+                    @Override
+                    public Recipe next() {
+                        return store.load(values.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return stored.size();
+            }
+        };
+    }
+
+    /// Read-only view of all ingredients, no copy is made
+    public Collection<Ingredient> ingredients() {
+        return ingredients.values();
+    }
+
+    public CatalogSnapshot withRevision(long newRevision) {
+        return new CatalogSnapshot(newRevision, store, recipes, ingredients);
+    }
+
+    public CatalogSnapshot withRecipe(Recipe recipe) {
+        return new CatalogSnapshot(revision, store,
+                recipes.plus(recipe.getId(), store.store(recipe)), ingredients);
+    }
+
+    public CatalogSnapshot withoutRecipe(UUID id) {
+        return new CatalogSnapshot(revision, store, recipes.minus(id), ingredients);
+    }
+
+    public CatalogSnapshot withIngredient(Ingredient ingredient) {
+        return new CatalogSnapshot(revision, store, recipes,
+                ingredients.plus(ingredient.getId(), ingredient));
+    }
+
+    public CatalogSnapshot withoutIngredient(UUID id) {
+        return new CatalogSnapshot(revision, store, recipes, ingredients.minus(id));
+    }
+
+    /// Wraps this snapshot in the `RecipeState` sent to clients, in O(1)
+    public RecipeState toState() {
+        return new RecipeState(recipes(), ingredients());
+    }
+}
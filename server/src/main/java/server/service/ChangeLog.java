@@ -0,0 +1,82 @@
+package server.service;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.SequencedSet;
+import java.util.UUID;
+
+/// A bounded log of which entities changed in which catalog revision.
+///
+/// Only the kind and id of a changed entity are kept, the current value is looked
+/// up in the snapshot when the changes are requested. That way multiple changes to
+/// the same entity are compacted into one, and the log stays small.
+///
+/// When the log is full the oldest entries are dropped, clients asking for changes
+/// from before that point need to do a full resync.
+public class ChangeLog {
+    public enum Kind {
+        RECIPE,
+        INGREDIENT
+    }
+
+    /// An entity that was created, updated or deleted
+    public record Key(Kind kind, UUID id) {
+    }
+
+    private record Entry(long revision, Key key) {
+    }
+
+    private final int capacity;
+    private final ArrayDeque<Entry> entries;
+    /// All changes after this revision are still in the log
+    private long floor;
+
+    /// Creates an empty log, `startRevision` is the revision of the catalog the
+    /// log starts tracking changes from
+    public ChangeLog(int capacity, long startRevision) {
+        this.capacity = capacity;
+        this.entries = new ArrayDeque<>(capacity);
+        this.floor = startRevision;
+    }
+
+    /// Records that `key` changed in `revision`, revisions must be appended in
+    /// increasing order
+    public synchronized void append(long revision, Key key) {
+        if (entries.size() == capacity) {
+            // changes made in the evicted revision may now be incomplete
+            floor = entries.removeFirst().revision();
+        }
+        entries.addLast(new Entry(revision, key));
+    }
+
+    /// Gets every entity changed after revision `since` up to and including
+    /// `upTo`, in the order of their latest change. Returns `null` if the log no
+    /// longer covers that range.
+    public synchronized SequencedSet<Key> changedBetween(long since, long upTo) {
+        if (since < floor || since > upTo) {
+            return null;
+        }
+        // walk backwards, so every key ends up at the position of its latest change
+        LinkedHashSet<Key> changed = new LinkedHashSet<>();
+        Iterator<Entry> it = entries.descendingIterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.revision() <= since) {
+                break;
+            }
+            if (entry.revision() <= upTo) {
+                changed.add(entry.key());
+            }
+        }
+        return changed.reversed();
+    }
+
+    public synchronized long floor() {
+        return floor;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,22 @@
+package server.service;
+
+import commons.Recipe;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/// Keeps every recipe as an object on the heap, the default
+@Component
+@ConditionalOnProperty(name = "foodpal.catalog.off-heap", havingValue = "false", matchIfMissing = true)
+public class HeapRecipeStore implements RecipeStore {
+    static final HeapRecipeStore INSTANCE = new HeapRecipeStore();
+
+    @Override
+    public Object store(Recipe recipe) {
+        return recipe;
+    }
+
+    @Override
+    public Recipe load(Object stored) {
+        return (Recipe) stored;
+    }
+}
@@ -2,12 +2,30 @@ package server.service;
 
 import commons.*;
 
+import java.util.Collection;
+import java.util.Set;
 import java.util.UUID;
 
 public interface IRecipeService {
     /// Get a snapshot of the current state of the `RecipeService`, the returned
     /// value is a record, so it will not be updated.
-    RecipeState getState();
+    default RecipeState getState() {
+        return getSnapshot().toState();
+    }
+
+    /// Whether the catalog has been loaded, reads made while `WARMING_UP` may see
+    /// an incomplete catalog
+    default LoadState getLoadState() {
+        return LoadState.READY;
+    }
+
+    /// Get the current immutable catalog snapshot, including its revision. This is
+    /// O(1) and the snapshot will never change, later writes publish new snapshots.
+    CatalogSnapshot getSnapshot();
+
+    /// Gets the compacted changes made after the given revision, or a resync marker
+    /// if they are no longer known
+    RecipeChanges getChangesSince(long revision);
 
     /// Note: Setting a recipe with the same id should replace the old version with
     /// the new one
@@ -17,9 +35,21 @@ public interface IRecipeService {
     /// with the new one
     void setIngredient(Ingredient ingredient) throws InvalidIngredientError;
 
+    /// Stores all recipes as one change. The batch is validated as a whole, if any
+    /// recipe is invalid nothing is stored.
+    void setRecipes(Collection<Recipe> recipes) throws InvalidRecipeError;
+
+    /// Stores all ingredients as one change, if any ingredient is invalid nothing
+    /// is stored
+    void setIngredients(Collection<Ingredient> ingredients) throws InvalidIngredientError;
+
     /// Deletes a recipe based on its unique identifier.
     void deleteRecipe(UUID recipeId);
 
     ///  Deletes an ingredient based on its unique identifier
     void deleteIngredient(UUID ingredientId);
+
+    /// Gets the ids of all recipes that reference the given ingredient. The
+    /// returned set is a copy and will not be updated.
+    Set<UUID> getIngredientUsages(UUID ingredientId);
 }
@@ -0,0 +1,11 @@
+package server.service;
+
+/// Whether the catalog has been loaded from the database yet
+public enum LoadState {
+    /// The catalog is still being loaded, reads may see an incomplete catalog and
+    /// writes wait until loading is done
+    WARMING_UP,
+    READY,
+    /// Loading failed, writes are rejected
+    FAILED
+}
@@ -0,0 +1,35 @@
+package server.service;
+
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/// A fixed set of locks that entity ids are hashed onto.
+///
+/// Writers to different entities usually end up on different stripes and can
+/// proceed in parallel, while writers to the same entity are always serialized.
+/// The number of locks stays constant no matter how many entities exist.
+public class LockStripes {
+    private final Lock[] stripes;
+
+    /// Creates `count` stripes, rounded up to the next power of two
+    public LockStripes(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        stripes = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /// Gets the lock guarding the entity with the given id
+    public Lock lockFor(UUID id) {
+        int hash = id.hashCode();
+        // spread the high bits, UUID.hashCode already mixes both halves
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+}
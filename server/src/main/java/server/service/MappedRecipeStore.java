@@ -0,0 +1,199 @@
+package server.service;
+
+import commons.Recipe;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import server.metrics.MetricsSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/// Keeps serialized recipes in memory-mapped files instead of on the heap.
+///
+/// Each stored recipe is appended to the current segment as its length and its
+/// `RecipeCodec` bytes, and the snapshot only keeps a `Long` holding the segment
+/// and position. Reads decode the recipe again, the most recently used ones are
+/// kept decoded in a small cache. Written bytes are never modified, so a reader
+/// needs no lock, the handle it got from a published snapshot makes the bytes
+/// visible.
+///
+/// The files only back the current process, the catalog is loaded from the
+/// database on every start. Bytes of replaced or deleted recipes are not reused,
+/// so the files grow with the number of writes until the next restart.
+@Component
+@ConditionalOnProperty(name = "foodpal.catalog.off-heap", havingValue = "true")
+public class MappedRecipeStore implements RecipeStore, MetricsSource, AutoCloseable {
+    static final String SEGMENT_PREFIX = "segment-";
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final Path directory;
+    private final boolean temporary;
+    private final int segmentBytes;
+    private final int cacheEntries;
+
+    /// Replaced on every new segment, so readers never lock
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /// Write position in the last segment, guarded by `this`
+    private int position = 0;
+    private long storedBytes = 0;
+    private long stored = 0;
+
+    /// Decoded recipes by handle in access order, guarded by itself
+    private final Map<Long, Recipe> cache;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+    private long decodeNanos = 0;
+
+    public MappedRecipeStore(CatalogProperties properties) {
+        this.segmentBytes = Math.max(LENGTH_BYTES, properties.segmentBytes());
+        this.cacheEntries = Math.max(0, properties.cacheEntries());
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Recipe> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+        try {
+            this.temporary = properties.directory() == null;
+            this.directory = temporary
+                    ? Files.createTempDirectory("foodpal-catalog")
+                    : Files.createDirectories(properties.directory());
+            deleteSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the off-heap catalog directory", e);
+        }
+    }
+
+    @Override
+    public Object store(Recipe recipe) {
+        byte[] data = RecipeCodec.encode(recipe);
+        Long handle;
+        synchronized (this) {
+            MappedByteBuffer segment = segmentFor(LENGTH_BYTES + data.length);
+            handle = ((long) (segments.length - 1) << 32) | position;
+            segment.putInt(position, data.length);
+            segment.put(position + LENGTH_BYTES, data);
+            position += LENGTH_BYTES + data.length;
+            storedBytes += LENGTH_BYTES + data.length;
+            stored++;
+        }
+        // a recipe that was just written is usually read again right away
+        cache(handle, recipe);
+        return handle;
+    }
+
+    @Override
+    public Recipe load(Object stored) {
+        long handle = (Long) stored;
+        synchronized (cache) {
+            Recipe cached = cache.get(handle);
+            if (cached != null) {
+                cacheHits++;
+                return cached;
+            }
+            cacheMisses++;
+        }
+        long start = System.nanoTime();
+        MappedByteBuffer segment = segments[(int) (handle >>> 32)];
+        int offset = (int) handle;
+        byte[] data = new byte[segment.getInt(offset)];
+        segment.get(offset + LENGTH_BYTES, data);
+        Recipe recipe = RecipeCodec.decode(data);
+        synchronized (cache) {
+            decodeNanos += System.nanoTime() - start;
+        }
+        cache(handle, recipe);
+        return recipe;
+    }
+
+    private void cache(Long handle, Recipe recipe) {
+        if (cacheEntries == 0) {
+            return;
+        }
+        synchronized (cache) {
+            cache.put(handle, recipe);
+        }
+    }
+
+    /// The segment to append `size` bytes to, maps a new one if the last one is
+    /// full. A recipe larger than a segment gets a segment of its own.
+    private MappedByteBuffer segmentFor(int size) {
+        MappedByteBuffer[] current = segments;
+        if (current.length > 0 && current[current.length - 1].capacity() - position >= size) {
+            return current[current.length - 1];
+        }
+        int index = current.length;
+        Path file = directory.resolve(SEGMENT_PREFIX + index);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, size));
+            MappedByteBuffer[] next = Arrays.copyOf(current, index + 1);
+            next[index] = segment;
+            segments = next;
+            position = 0;
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map catalog segment " + file, e);
+        }
+    }
+
+    /// Deletes segment files left by an earlier run
+    private void deleteSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX)).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /// Deletes the files, mappings that are still in use stay readable until
+    /// they are garbage collected
+    @Override
+    @PreDestroy
+    public synchronized void close() {
+        try {
+            deleteSegments();
+            if (temporary) {
+                Files.deleteIfExists(directory);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to delete the off-heap catalog: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String metricsName() {
+        return "catalog";
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (this) {
+            MappedByteBuffer[] current = segments;
+            metrics.put("offHeap", true);
+            metrics.put("segments", current.length);
+            metrics.put("mappedBytes", Arrays.stream(current).mapToLong(MappedByteBuffer::capacity).sum());
+            metrics.put("storedBytes", storedBytes);
+            metrics.put("storedRecipes", stored);
+        }
+        synchronized (cache) {
+            metrics.put("cacheEntries", cache.size());
+            metrics.put("cacheHits", cacheHits);
+            metrics.put("cacheMisses", cacheMisses);
+            metrics.put("avgDecodeMicros", cacheMisses == 0 ? 0.0 : decodeNanos / 1e3 / cacheMisses);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,37 @@
+package server.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/// Settings for publishing the durable change log, bound from `foodpal.outbox.*`
+///
+/// @param publish       when WebSocket events are sent relative to the commit
+/// @param pollMillis    how often the publisher looks for new change records,
+///                      only with `AFTER_COMMIT` publishing
+/// @param batchSize     how many change records are read per poll
+/// @param retainRecords how many change records are kept as history
+@ConfigurationProperties("foodpal.outbox")
+public record OutboxProperties(
+        @DefaultValue("IMMEDIATE") Publish publish,
+        @DefaultValue("50") long pollMillis,
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("100000") long retainRecords) {
+
+    public enum Publish {
+        /// `RecipeService` broadcasts every change as soon as it is published in
+        /// memory, the change log is only kept as history and never polled
+        IMMEDIATE,
+        /// The `OutboxPublisher` broadcasts changes once their change records are
+        /// committed, so clients never see a change that is lost in a crash
+        AFTER_COMMIT
+    }
+
+    /// Immediate broadcasts with the default polling settings
+    public static OutboxProperties defaults() {
+        return new OutboxProperties(Publish.IMMEDIATE, 50, 500, 100_000);
+    }
+
+    public boolean publishesAfterCommit() {
+        return publish == Publish.AFTER_COMMIT;
+    }
+}
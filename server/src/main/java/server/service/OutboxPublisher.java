@@ -0,0 +1,185 @@
+package server.service;
+
+import commons.Recipe;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import server.database.CatalogStorage;
+import server.database.ChangeRecord;
+import server.metrics.MetricsSource;
+import server.websocket.WebSocketHub;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/// With `AFTER_COMMIT` publishing, reads the committed change records of the
+/// `CatalogStorage` in sequence order and broadcasts them to the `WebSocketHub`.
+///
+/// Records are read from where the log ended on startup. Each record carries the
+/// value its write stored, so clients see exactly what was committed even when
+/// the catalog in memory is already ahead. Several changes of one entity read in
+/// the same poll are sent once, with the latest value. Storages number records
+/// without gaps in commit order, so a record is never committed behind one that
+/// was already published.
+///
+/// With `IMMEDIATE` publishing the log is not polled, the history is only
+/// pruned every `PRUNE_MILLIS`. Records are kept as history until
+/// `retainRecords` newer ones were written.
+@Component
+public class OutboxPublisher implements MetricsSource, AutoCloseable {
+    static final long PRUNE_MILLIS = 60_000;
+
+    private final CatalogStorage storage;
+    private final IRecipeService recipeService;
+    private final WebSocketHub webSocketHub;
+    private final OutboxProperties properties;
+
+    private Thread poller;
+    private volatile boolean running = true;
+
+    /// Guarded by `this`
+    private long publishedSeq;
+    private long prunedBefore = 0;
+    private long records = 0;
+    private long broadcasts = 0;
+
+    public OutboxPublisher(CatalogStorage storage,
+            IRecipeService recipeService,
+            WebSocketHub webSocketHub,
+            OutboxProperties properties) {
+        this.storage = storage;
+        this.recipeService = recipeService;
+        this.webSocketHub = webSocketHub;
+        this.properties = properties;
+        this.publishedSeq = storage.lastChangeSeq();
+    }
+
+    @PostConstruct
+    public void start() {
+        poller = Thread.ofPlatform()
+                .name("outbox-publisher")
+                .daemon()
+                .start(properties.publishesAfterCommit() ? this::pollLoop : this::pruneLoop);
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                if (drain() == 0) {
+                    Thread.sleep(Math.max(1, properties.pollMillis()));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // keep polling, the records are read again on the next attempt
+                System.err.println("Failed to publish change records: " + e.getMessage());
+            }
+        }
+    }
+
+    private void pruneLoop() {
+        while (running) {
+            try {
+                Thread.sleep(PRUNE_MILLIS);
+                pruneHistory();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Failed to prune change records: " + e.getMessage());
+            }
+        }
+    }
+
+    /// Publishes the records committed since the last call, returns how many
+    /// records were consumed
+    synchronized int drain() {
+        if (recipeService.getLoadState() != LoadState.READY) {
+            // the recipes using an ingredient are looked up in the catalog
+            return 0;
+        }
+        Map<ChangeLog.Key, ChangeRecord> latest = new LinkedHashMap<>();
+        List<ChangeRecord> batch = storage.changesAfter(publishedSeq, properties.batchSize());
+        for (ChangeRecord record : batch) {
+            ChangeLog.Key key = new ChangeLog.Key(record.kind, record.entityId);
+            // moved to the position of its latest change
+            latest.remove(key);
+            latest.put(key, record);
+            publishedSeq = record.seq;
+        }
+        records += batch.size();
+        latest.values().forEach(this::broadcast);
+        broadcasts += latest.size();
+        if (!batch.isEmpty()) {
+            prune();
+        }
+        return batch.size();
+    }
+
+    private void broadcast(ChangeRecord record) {
+        UUID id = record.entityId;
+        if (record.kind == ChangeLog.Kind.RECIPE) {
+            if (record.deleted) {
+                webSocketHub.broadcastRecipeDelete(id);
+            } else {
+                webSocketHub.broadcastRecipeUpdate(id, record.recipe());
+            }
+            return;
+        }
+        if (record.deleted) {
+            webSocketHub.broadcastIngredientDelete(id);
+            return;
+        }
+        // only the ids and languages of the recipes using it are sent
+        CatalogSnapshot snapshot = recipeService.getSnapshot();
+        List<Recipe> using = recipeService.getIngredientUsages(id).stream()
+                .map(snapshot::recipe)
+                .filter(Objects::nonNull)
+                .toList();
+        webSocketHub.broadcastIngredientChange(record.ingredient(), using);
+    }
+
+    /// Prunes up to the last record written, for `IMMEDIATE` publishing
+    synchronized void pruneHistory() {
+        publishedSeq = storage.lastChangeSeq();
+        prune();
+    }
+
+    /// Drops history older than `retainRecords`, the last published record is
+    /// always kept
+    private void prune() {
+        long keepFrom = publishedSeq - Math.max(1, properties.retainRecords()) + 1;
+        if (keepFrom > prunedBefore) {
+            storage.pruneChanges(keepFrom);
+            prunedBefore = keepFrom;
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+            poller.join();
+        }
+    }
+
+    @Override
+    public String metricsName() {
+        return "outbox";
+    }
+
+    @Override
+    public synchronized Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("publish", properties.publish());
+        metrics.put("publishedSeq", publishedSeq);
+        metrics.put("records", records);
+        metrics.put("broadcasts", broadcasts);
+        metrics.put("prunedBefore", prunedBefore);
+        return metrics;
+    }
+}
@@ -0,0 +1,420 @@
+package server.service;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/// An immutable hash map where every update returns a new map.
+///
+/// The map is a hash array mapped trie: every level consumes 5 bits of the key
+/// hash and only stores the children that exist. An update copies the nodes on
+/// the path from the root to the changed key, which is at most 7 small arrays, and
+/// shares everything else with the previous version. This makes it cheap to keep
+/// old versions around while new ones are being built.
+///
+/// `null` keys and values are not supported.
+@SuppressWarnings("unchecked")
+public final class PersistentHashMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_DEPTH = 10;
+
+    private static final PersistentHashMap<?, ?> EMPTY =
+            new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(K key) {
+        Leaf leaf = root.find(0, hash(key), key);
+        return leaf == null ? null : (V) leaf.value;
+    }
+
+    public boolean containsKey(K key) {
+        return root.find(0, hash(key), key) != null;
+    }
+
+    /// Returns a map that also maps `key` to `value`
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(0, new Leaf(hash(key), key, value), added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /// Returns a map without `key`
+    public PersistentHashMap<K, V> minus(K key) {
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+    }
+
+    /// A read-only view of the values of this map, iteration order is unspecified
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                LeafIterator leaves = new LeafIterator(root);
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return leaves.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return (V) leaves.next().value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /// A read-only view of the keys of this map, iteration order is unspecified
+    public Collection<K> keys() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<K> iterator() {
+                LeafIterator leaves = new LeafIterator(root);
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return leaves.hasNext();
+                    }
+
+                    @Override
+                    public K next() {
+                        return (K) leaves.next().key;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private record Leaf(int hash, Object key, Object value) {
+        boolean matches(int otherHash, Object otherKey) {
+            return hash == otherHash && key.equals(otherKey);
+        }
+    }
+
+    private abstract static class Node {
+        abstract Leaf find(int shift, int hash, Object key);
+
+        /// Returns this node if nothing changed, `added[0]` is set when the
+        /// key was not present before
+        abstract Node put(int shift, Leaf leaf, boolean[] added);
+
+        /// Returns this node if the key was not present, `null` when the node
+        /// became empty
+        abstract Node remove(int shift, int hash, Object key);
+
+        /// The only leaf of this node, or `null` if it holds anything else
+        abstract Leaf singleLeaf();
+
+        /// Leaves and child nodes, in no particular order
+        abstract Object[] children();
+    }
+
+    /// A trie level, `slots` holds a `Leaf` or a child `Node` for every set bit
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Leaf find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[index(bit)];
+            if (slot instanceof Leaf leaf) {
+                return leaf.matches(hash, key) ? leaf : null;
+            }
+            return ((Node) slot).find(shift + BITS, hash, key);
+        }
+
+        @Override
+        Node put(int shift, Leaf leaf, boolean[] added) {
+            int bit = bit(leaf.hash, shift);
+            int idx = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, idx);
+                newSlots[idx] = leaf;
+                System.arraycopy(slots, idx, newSlots, idx + 1, slots.length - idx);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+
+            Object slot = slots[idx];
+            Object replacement;
+            if (slot instanceof Leaf existing) {
+                if (existing.matches(leaf.hash, leaf.key)) {
+                    if (existing.value == leaf.value) {
+                        return this;
+                    }
+                    replacement = leaf;
+                } else {
+                    added[0] = true;
+                    replacement = merge(shift + BITS, existing, leaf);
+                }
+            } else {
+                Node child = (Node) slot;
+                replacement = child.put(shift + BITS, leaf, added);
+                if (replacement == child) {
+                    return this;
+                }
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[idx] = replacement;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        /// Builds the smallest sub-trie holding two leaves with different keys
+        private static Node merge(int shift, Leaf a, Leaf b) {
+            if (a.hash == b.hash) {
+                return new CollisionNode(a.hash, new Object[] { a, b });
+            }
+            int bitA = bit(a.hash, shift);
+            int bitB = bit(b.hash, shift);
+            if (bitA == bitB) {
+                return new BitmapNode(bitA, new Object[] { merge(shift + BITS, a, b) });
+            }
+            Object[] ordered = Integer.compareUnsigned(bitA, bitB) < 0
+                    ? new Object[] { a, b }
+                    : new Object[] { b, a };
+            return new BitmapNode(bitA | bitB, ordered);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int idx = index(bit);
+            Object slot = slots[idx];
+            Object replacement;
+            if (slot instanceof Leaf leaf) {
+                if (!leaf.matches(hash, key)) {
+                    return this;
+                }
+                replacement = null;
+            } else {
+                Node child = (Node) slot;
+                Node newChild = child.remove(shift + BITS, hash, key);
+                if (newChild == child) {
+                    return this;
+                }
+                // keep the trie compact by pulling lone leaves up a level
+                Leaf single = newChild == null ? null : newChild.singleLeaf();
+                replacement = single != null ? single : newChild;
+            }
+
+            if (replacement != null) {
+                Object[] newSlots = slots.clone();
+                newSlots[idx] = replacement;
+                return new BitmapNode(bitmap, newSlots);
+            }
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, idx);
+            System.arraycopy(slots, idx + 1, newSlots, idx, slots.length - idx - 1);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+
+        @Override
+        Leaf singleLeaf() {
+            return slots.length == 1 && slots[0] instanceof Leaf leaf ? leaf : null;
+        }
+
+        @Override
+        Object[] children() {
+            return slots;
+        }
+    }
+
+    /// Leaves whose keys have exactly the same hash
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final Object[] leaves;
+
+        CollisionNode(int hash, Object[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (((Leaf) leaves[i]).key.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Leaf find(int shift, int otherHash, Object key) {
+            if (otherHash != hash) {
+                return null;
+            }
+            int idx = indexOf(key);
+            return idx < 0 ? null : (Leaf) leaves[idx];
+        }
+
+        @Override
+        Node put(int shift, Leaf leaf, boolean[] added) {
+            if (leaf.hash != hash) {
+                // a different hash ended up here, split this level
+                BitmapNode wrapper = new BitmapNode(BitmapNode.bit(hash, shift), new Object[] { this });
+                return wrapper.put(shift, leaf, added);
+            }
+            int idx = indexOf(leaf.key);
+            if (idx >= 0) {
+                if (((Leaf) leaves[idx]).value == leaf.value) {
+                    return this;
+                }
+                Object[] newLeaves = leaves.clone();
+                newLeaves[idx] = leaf;
+                return new CollisionNode(hash, newLeaves);
+            }
+            added[0] = true;
+            Object[] newLeaves = new Object[leaves.length + 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+            newLeaves[leaves.length] = leaf;
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        Node remove(int shift, int otherHash, Object key) {
+            if (otherHash != hash) {
+                return this;
+            }
+            int idx = indexOf(key);
+            if (idx < 0) {
+                return this;
+            }
+            if (leaves.length == 1) {
+                return null;
+            }
+            Object[] newLeaves = new Object[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, idx);
+            System.arraycopy(leaves, idx + 1, newLeaves, idx, leaves.length - idx - 1);
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        Leaf singleLeaf() {
+            return leaves.length == 1 ? (Leaf) leaves[0] : null;
+        }
+
+        @Override
+        Object[] children() {
+            return leaves;
+        }
+    }
+
+    /// Depth-first walk over all leaves using an explicit stack
+    private static final class LeafIterator implements Iterator<Leaf> {
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Leaf next;
+
+        LeafIterator(Node root) {
+            stack[0] = root.children();
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] level = stack[depth];
+                if (positions[depth] >= level.length) {
+                    depth--;
+                    continue;
+                }
+                Object child = level[positions[depth]++];
+                if (child instanceof Leaf leaf) {
+                    next = leaf;
+                    return;
+                }
+                depth++;
+                stack[depth] = ((Node) child).children();
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Leaf next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf result = next;
+            advance();
+            return result;
+        }
+    }
+}
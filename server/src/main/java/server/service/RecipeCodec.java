@@ -0,0 +1,138 @@
+package server.service;
+
+import commons.Amount;
+import commons.Language;
+import commons.Recipe;
+import commons.RecipeIngredient;
+import commons.Unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/// Compact binary form of a recipe for the `MappedRecipeStore`.
+///
+/// Strings are length-prefixed UTF-8, enums are ordinals and a `null` string,
+/// list or enum is written as length or ordinal -1. The form is only read by the
+/// process that wrote it, so it has no version and may change freely.
+final class RecipeCodec {
+    private static final int NULL = -1;
+
+    private RecipeCodec() {
+    }
+
+    static byte[] encode(Recipe recipe) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeUuid(out, recipe.getId());
+            writeString(out, recipe.getTitle());
+            out.writeInt(recipe.getPortions());
+            writeOrdinal(out, recipe.getLanguage());
+            List<String> steps = recipe.getSteps();
+            out.writeInt(steps == null ? NULL : steps.size());
+            if (steps != null) {
+                for (String step : steps) {
+                    writeString(out, step);
+                }
+            }
+            List<RecipeIngredient> ingredients = recipe.getIngredients();
+            out.writeInt(ingredients == null ? NULL : ingredients.size());
+            if (ingredients != null) {
+                for (RecipeIngredient ingredient : ingredients) {
+                    writeIngredient(out, ingredient);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Recipe decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            UUID id = readUuid(in);
+            String title = readString(in);
+            int portions = in.readInt();
+            int language = in.readInt();
+            int stepCount = in.readInt();
+            List<String> steps = stepCount == NULL ? null : new ArrayList<>(stepCount);
+            for (int i = 0; i < stepCount; i++) {
+                steps.add(readString(in));
+            }
+            int ingredientCount = in.readInt();
+            List<RecipeIngredient> ingredients = ingredientCount == NULL ? null : new ArrayList<>(ingredientCount);
+            for (int i = 0; i < ingredientCount; i++) {
+                ingredients.add(readIngredient(in));
+            }
+            return new Recipe(id, title, ingredients, steps, portions,
+                    language == NULL ? null : Language.values()[language]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeIngredient(DataOutputStream out, RecipeIngredient ingredient) throws IOException {
+        writeUuid(out, ingredient.getIngredientRef());
+        Amount amount = ingredient.getAmount();
+        out.writeBoolean(amount != null);
+        if (amount != null) {
+            out.writeDouble(amount.quantity());
+            writeOrdinal(out, amount.unit());
+            writeString(out, amount.description());
+        }
+    }
+
+    private static RecipeIngredient readIngredient(DataInputStream in) throws IOException {
+        UUID ref = readUuid(in);
+        Amount amount = null;
+        if (in.readBoolean()) {
+            double quantity = in.readDouble();
+            int unit = in.readInt();
+            amount = new Amount(quantity, unit == NULL ? null : Unit.values()[unit], readString(in));
+        }
+        return new RecipeIngredient(ref, amount);
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private static void writeOrdinal(DataOutputStream out, Enum<?> value) throws IOException {
+        out.writeInt(value == null ? NULL : value.ordinal());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -2,62 +2,179 @@ package server.service;
 
 import commons.*;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import server.database.IngredientRepository;
-import server.database.RecipeRepository;
+import server.database.PendingWrite;
+import server.database.PersistenceWriter;
 import server.websocket.WebSocketHub;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
 
 /// Service that keeps track of recipes
+///
+/// Concurrency model:
+/// - The catalog is an immutable `CatalogSnapshot`. Every write publishes a new
+///   snapshot with the next revision number, so reads never lock and always see a
+///   consistent point-in-time view.
+/// - Writers to a single recipe or ingredient take the shared catalog lock plus
+///   the stripe lock of the entity, so writers to different entities run in
+///   parallel while writes to the same entity are persisted and broadcast in
+///   order.
+/// - `deleteIngredient` rewrites every recipe using the ingredient, so it takes
+///   the catalog lock exclusively. This also guarantees `setRecipe` never stores a
+///   recipe referencing an ingredient that is being deleted.
+/// - Stored recipes are never modified in place, a changed recipe is always a new
+///   object.
+/// - Writes are handed to the `PersistenceWriter` while the locks are held, so
+///   they reach the database in the same order as they were published.
+/// - The catalog is loaded by the `CatalogLoader`, either before the service is
+///   created or in the background. Writes wait until loading is done.
+/// - Snapshots keep recipes in the `RecipeStore`, on the heap or off-heap.
+/// - Changes are broadcast right after they are published, unless the outbox
+///   publishes them after commit, then the `OutboxPublisher` sends them.
 @Service
-@Transactional
 public class RecipeService implements IRecipeService {
-    private final HashMap<UUID, Recipe> recipes = new HashMap<>();
-    private final HashMap<UUID, Ingredient> ingredients = new HashMap<>();
+    private static final int LOCK_STRIPES = 64;
+    private static final int CHANGE_LOG_CAPACITY = 10_000;
+    /// Revisions of one run count up below the startup time
+    private static final int REVISION_COUNTER_BITS = 20;
+
+    private final RecipeStore recipeStore;
+    private volatile CatalogSnapshot snapshot;
+    /// Only guards swapping `snapshot`, writers spend O(log n) inside it
+    private final Object publishLock = new Object();
+    /// Reverse index from an ingredient id to the ids of the recipes that use it
+    private final Map<UUID, Set<UUID>> ingredientUsages = new ConcurrentHashMap<>();
+
+    private final ChangeLog changeLog;
+
+    private final ReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final LockStripes entityLocks = new LockStripes(LOCK_STRIPES);
+
+    private volatile LoadState loadState = LoadState.WARMING_UP;
+    private final CountDownLatch loaded = new CountDownLatch(1);
 
-    private final RecipeRepository recipeRepository;
-    private final IngredientRepository ingredientRepository;
     private final WebSocketHub webSocketHub;
+    private final PersistenceWriter persistence;
+    /// Whether changes are broadcast here instead of by the `OutboxPublisher`
+    private final boolean broadcastsOnWrite;
 
-    public RecipeService(RecipeRepository recipeRepository,
-            IngredientRepository ingredientRepository,
-            WebSocketHub webSocketHub) {
-        this.recipeRepository = recipeRepository;
-        this.ingredientRepository = ingredientRepository;
+    public RecipeService(CatalogLoader loader,
+            WebSocketHub webSocketHub,
+            PersistenceWriter persistence,
+            RecipeStore recipeStore,
+            OutboxProperties outbox) {
         this.webSocketHub = webSocketHub;
+        this.persistence = persistence;
+        this.broadcastsOnWrite = !outbox.publishesAfterCommit();
+        this.recipeStore = recipeStore;
+        this.snapshot = CatalogSnapshot.empty(recipeStore);
+
+        // The startup time is the epoch of this run and makes up the upper bits of
+        // its revisions, so a revision from a previous run is always older than
+        // the change log and never names a different state in an ETag. A run
+        // would have to publish a million revisions per millisecond it was up to
+        // reach the revisions of the next run.
+        long startRevision = System.currentTimeMillis() << REVISION_COUNTER_BITS;
+        changeLog = new ChangeLog(CHANGE_LOG_CAPACITY, startRevision);
 
-        for (Ingredient ingredient : ingredientRepository.findAll()) {
-            ingredients.put(ingredient.getId(), ingredient);
+        if (loader.loadsAsync()) {
+            Thread.ofPlatform()
+                    .name("catalog-warm-up")
+                    .daemon()
+                    .start(() -> loadCatalog(loader, startRevision));
+        } else {
+            loadCatalog(loader, startRevision);
         }
-        System.out.println("Loaded " + ingredients.size() + " ingredients");
+    }
+
+    /// Loads the catalog and publishes it as `startRevision`. Recipes are indexed
+    /// by the loader threads while later pages are still being fetched.
+    private void loadCatalog(CatalogLoader loader, long startRevision) {
+        long start = System.nanoTime();
+        try {
+            CatalogLoader.Catalog catalog = loader.load(page -> page.forEach(this::indexRecipe));
+            snapshot = CatalogSnapshot.of(startRevision, catalog.recipes(), catalog.ingredients(), recipeStore);
+            loader.recordPhase("snapshot", start);
+            loadState = LoadState.READY;
+        } catch (RuntimeException e) {
+            loadState = LoadState.FAILED;
+            if (!loader.loadsAsync()) {
+                throw e;
+            }
+            System.err.println("Failed to load the catalog: " + e.getMessage());
+        } finally {
+            loaded.countDown();
+        }
+    }
 
-        for (Recipe recipe : recipeRepository.findAll()) {
-            recipes.put(recipe.getId(), recipe);
+    /// Blocks until the catalog is loaded, writes must not be published before
+    /// the loaded snapshot
+    private void awaitLoaded() {
+        if (loadState == LoadState.READY) {
+            return;
         }
-        System.out.println("Loaded " + recipes.size() + " recipes");
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the catalog", e);
+        }
+        if (loadState != LoadState.READY) {
+            throw new IllegalStateException("The catalog failed to load");
+        }
+    }
+
+    @Override
+    public LoadState getLoadState() {
+        return loadState;
     }
 
     @Override
-    public RecipeState getState() {
-        return new RecipeState(recipes.values(), ingredients.values());
+    public CatalogSnapshot getSnapshot() {
+        return snapshot;
     }
 
     @Override
     public void setRecipe(Recipe recipe) throws InvalidRecipeError {
         if (recipe == null)
             throw new InvalidRecipeError();
-        if (recipe
-                .getIngredients()
-                .stream()
-                .anyMatch(ingredient -> !ingredients.containsKey(ingredient.getIngredientRef())))
-            throw new InvalidRecipeError();
-        recipes.put(recipe.getId(), recipe);
-        recipeRepository.save(recipe);
+        awaitLoaded();
+
+        Lock lock = entityLocks.lockFor(recipe.getId());
+        catalogLock.readLock().lock();
+        lock.lock();
+        try {
+            CatalogSnapshot current = snapshot;
+            if (recipe
+                    .getIngredients()
+                    .stream()
+                    .anyMatch(ingredient -> !current.hasIngredient(ingredient.getIngredientRef())))
+                throw new InvalidRecipeError();
+            unindexRecipe(current.recipe(recipe.getId()));
+            indexRecipe(recipe);
+            publish(s -> s.withRecipe(recipe), recipeKey(recipe.getId()));
+            persistence.write(new PendingWrite.SaveRecipe(recipe));
 
-        webSocketHub.broadcastRecipeUpdate(recipe.getId(), recipe);
+            if (broadcastsOnWrite) {
+                webSocketHub.broadcastRecipeUpdate(recipe.getId(), recipe);
+            }
+        } finally {
+            lock.unlock();
+            catalogLock.readLock().unlock();
+        }
     }
 
     @Override
@@ -65,41 +182,276 @@ public class RecipeService implements IRecipeService {
         if (ingredient == null) {
             throw new InvalidIngredientError();
         }
-        ingredients.put(ingredient.getId(), ingredient);
-        ingredientRepository.save(ingredient);
+        awaitLoaded();
+
+        Lock lock = entityLocks.lockFor(ingredient.getId());
+        catalogLock.readLock().lock();
+        lock.lock();
+        try {
+            CatalogSnapshot published = publish(s -> s.withIngredient(ingredient),
+                    ingredientKey(ingredient.getId()));
+            persistence.write(new PendingWrite.SaveIngredient(ingredient));
+
+            if (broadcastsOnWrite) {
+                // the recipes only reference it, so they are named instead of resent
+                webSocketHub.broadcastIngredientChange(ingredient, usingRecipes(published, ingredient.getId()));
+            }
+        } finally {
+            lock.unlock();
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setRecipes(Collection<Recipe> recipes) throws InvalidRecipeError {
+        if (recipes == null || recipes.contains(null))
+            throw new InvalidRecipeError();
+
+        // the last version of a recipe in the batch wins
+        Map<UUID, Recipe> batch = new LinkedHashMap<>();
+        recipes.forEach(recipe -> batch.put(recipe.getId(), recipe));
+        if (batch.isEmpty()) {
+            return;
+        }
+        awaitLoaded();
 
-        webSocketHub.broadcastIngredientUpdate(ingredient.getId(), ingredient);
-        // also broadcast changes to relevant recipes
-        recipes.values().stream().filter(
-                recipe -> recipe.getIngredients()
-                        .stream()
-                        .anyMatch(ri -> ri.getIngredientRef().equals(ingredient.getId())))
-                .forEach(recipe -> webSocketHub.broadcastRecipeUpdate(recipe.getId(), recipe));
+        catalogLock.writeLock().lock();
+        try {
+            CatalogSnapshot current = snapshot;
+            for (Recipe recipe : batch.values()) {
+                if (recipe.getIngredients().stream()
+                        .anyMatch(ingredient -> !current.hasIngredient(ingredient.getIngredientRef())))
+                    throw new InvalidRecipeError();
+            }
+            for (Recipe recipe : batch.values()) {
+                unindexRecipe(current.recipe(recipe.getId()));
+                indexRecipe(recipe);
+            }
+            publish(s -> {
+                CatalogSnapshot next = s;
+                for (Recipe recipe : batch.values()) {
+                    next = next.withRecipe(recipe);
+                }
+                return next;
+            }, batch.keySet().stream().map(RecipeService::recipeKey).toArray(ChangeLog.Key[]::new));
+            List<Recipe> stored = List.copyOf(batch.values());
+            persistence.write(new PendingWrite.SaveRecipes(stored));
 
+            if (broadcastsOnWrite) {
+                webSocketHub.broadcastRecipeUpdates(stored);
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void setIngredients(Collection<Ingredient> ingredients) throws InvalidIngredientError {
+        if (ingredients == null || ingredients.contains(null))
+            throw new InvalidIngredientError();
+
+        Map<UUID, Ingredient> batch = new LinkedHashMap<>();
+        ingredients.forEach(ingredient -> batch.put(ingredient.getId(), ingredient));
+        if (batch.isEmpty()) {
+            return;
+        }
+        awaitLoaded();
+
+        catalogLock.writeLock().lock();
+        try {
+            CatalogSnapshot published = publish(s -> {
+                CatalogSnapshot next = s;
+                for (Ingredient ingredient : batch.values()) {
+                    next = next.withIngredient(ingredient);
+                }
+                return next;
+            }, batch.keySet().stream().map(RecipeService::ingredientKey).toArray(ChangeLog.Key[]::new));
+            List<Ingredient> stored = List.copyOf(batch.values());
+            persistence.write(new PendingWrite.SaveIngredients(stored));
+
+            if (broadcastsOnWrite) {
+                Map<UUID, List<Recipe>> usedBy = new HashMap<>();
+                for (Ingredient ingredient : stored) {
+                    usedBy.put(ingredient.getId(), usingRecipes(published, ingredient.getId()));
+                }
+                webSocketHub.broadcastIngredientUpdates(stored, usedBy);
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
     }
 
     @Override
     public void deleteRecipe(UUID recipeId) {
-        if (recipes.remove(recipeId) != null) {
-            recipeRepository.deleteById(recipeId);
+        awaitLoaded();
+        Lock lock = entityLocks.lockFor(recipeId);
+        catalogLock.readLock().lock();
+        lock.lock();
+        try {
+            Recipe removed = snapshot.recipe(recipeId);
+            if (removed != null) {
+                unindexRecipe(removed);
+                publish(s -> s.withoutRecipe(recipeId), recipeKey(recipeId));
+                persistence.write(new PendingWrite.DeleteRecipe(recipeId));
 
-            webSocketHub.broadcastRecipeDelete(recipeId);
+                if (broadcastsOnWrite) {
+                    webSocketHub.broadcastRecipeDelete(recipeId);
+                }
+            }
+        } finally {
+            lock.unlock();
+            catalogLock.readLock().unlock();
         }
     }
 
     @Override
     public void deleteIngredient(UUID ingredientId) {
-        if (ingredients.remove(ingredientId) != null) {
-            ingredientRepository.deleteById(ingredientId);
-            webSocketHub.broadcastIngredientDelete(ingredientId);
-        }
-        for (Recipe recipe : recipes.values()) {
-            boolean wasModified = recipe.getIngredients()
-                    .removeIf(ir -> Objects.equals(ir.getIngredientRef(), ingredientId));
-            if (wasModified) {
-                recipeRepository.save(recipe);
-                webSocketHub.broadcastRecipeUpdate(recipe.getId(), recipe);
+        awaitLoaded();
+        catalogLock.writeLock().lock();
+        try {
+            CatalogSnapshot current = snapshot;
+            boolean existed = current.hasIngredient(ingredientId);
+            Set<UUID> affected = ingredientUsages.remove(ingredientId);
+            List<Recipe> using = affected == null ? List.of() : affected.stream()
+                    .map(current::recipe)
+                    .toList();
+            List<Recipe> updated = using.stream()
+                    .map(recipe -> withoutIngredient(recipe, ingredientId))
+                    .toList();
+            if (!existed && updated.isEmpty()) {
+                return;
             }
+            // the ingredient and all recipes using it change in one revision
+            List<ChangeLog.Key> changed = new ArrayList<>();
+            changed.add(ingredientKey(ingredientId));
+            updated.forEach(recipe -> changed.add(recipeKey(recipe.getId())));
+            publish(s -> {
+                CatalogSnapshot next = s.withoutIngredient(ingredientId);
+                for (Recipe recipe : updated) {
+                    next = next.withRecipe(recipe);
+                }
+                return next;
+            }, changed.toArray(ChangeLog.Key[]::new));
+
+            // only the rows of the ingredient change, not the recipes, and they
+            // are deleted in the same transaction as the ingredient
+            persistence.write(existed
+                    ? new PendingWrite.DeleteIngredientAndUsages(ingredientId, using)
+                    : new PendingWrite.RemoveIngredientUsages(ingredientId, using));
+            if (broadcastsOnWrite) {
+                if (existed) {
+                    webSocketHub.broadcastIngredientDelete(ingredientId);
+                }
+                for (Recipe recipe : updated) {
+                    webSocketHub.broadcastRecipeUpdate(recipe.getId(), recipe);
+                }
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    private List<Recipe> usingRecipes(CatalogSnapshot snapshot, UUID ingredientId) {
+        return getIngredientUsages(ingredientId).stream()
+                .map(snapshot::recipe)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public Set<UUID> getIngredientUsages(UUID ingredientId) {
+        Set<UUID> usages = ingredientUsages.get(ingredientId);
+        return usages == null ? Set.of() : Set.copyOf(usages);
+    }
+
+    @Override
+    public RecipeChanges getChangesSince(long revision) {
+        CatalogSnapshot current = snapshot;
+        var changed = changeLog.changedBetween(revision, current.revision());
+        if (changed == null) {
+            return RecipeChanges.resync(current.revision());
+        }
+
+        List<Recipe> upsertedRecipes = new ArrayList<>();
+        List<Ingredient> upsertedIngredients = new ArrayList<>();
+        List<UUID> deletedRecipes = new ArrayList<>();
+        List<UUID> deletedIngredients = new ArrayList<>();
+        for (ChangeLog.Key key : changed) {
+            if (key.kind() == ChangeLog.Kind.RECIPE) {
+                Recipe recipe = current.recipe(key.id());
+                if (recipe != null) {
+                    upsertedRecipes.add(recipe);
+                } else {
+                    deletedRecipes.add(key.id());
+                }
+            } else {
+                Ingredient ingredient = current.ingredient(key.id());
+                if (ingredient != null) {
+                    upsertedIngredients.add(ingredient);
+                } else {
+                    deletedIngredients.add(key.id());
+                }
+            }
+        }
+        return new RecipeChanges(current.revision(), false,
+                upsertedRecipes, upsertedIngredients, deletedRecipes, deletedIngredients);
+    }
+
+    /// Applies `change` to the current snapshot, publishes the result as the next
+    /// revision and records the `changed` entities in the change log
+    private CatalogSnapshot publish(UnaryOperator<CatalogSnapshot> change,
+            ChangeLog.Key... changed) {
+        synchronized (publishLock) {
+            CatalogSnapshot current = snapshot;
+            CatalogSnapshot next = change.apply(current).withRevision(current.revision() + 1);
+            for (ChangeLog.Key key : changed) {
+                changeLog.append(next.revision(), key);
+            }
+            snapshot = next;
+            return next;
+        }
+    }
+
+    private static ChangeLog.Key recipeKey(UUID id) {
+        return new ChangeLog.Key(ChangeLog.Kind.RECIPE, id);
+    }
+
+    private static ChangeLog.Key ingredientKey(UUID id) {
+        return new ChangeLog.Key(ChangeLog.Kind.INGREDIENT, id);
+    }
+
+    /// Creates a copy of `recipe` without any reference to the given ingredient
+    private static Recipe withoutIngredient(Recipe recipe, UUID ingredientId) {
+        List<RecipeIngredient> remaining = recipe.getIngredients()
+                .stream()
+                .filter(ri -> !Objects.equals(ri.getIngredientRef(), ingredientId))
+                .toList();
+        return new Recipe(recipe.getId(), recipe.getTitle(), remaining,
+                recipe.getSteps(), recipe.getPortions(), recipe.getLanguage());
+    }
+
+    /// Adds every ingredient reference of `recipe` to the reverse index
+    private void indexRecipe(Recipe recipe) {
+        for (RecipeIngredient ri : recipe.getIngredients()) {
+            ingredientUsages.compute(ri.getIngredientRef(), (_, usages) -> {
+                Set<UUID> result = usages == null ? ConcurrentHashMap.newKeySet() : usages;
+                result.add(recipe.getId());
+                return result;
+            });
+        }
+    }
+
+    /// Removes every ingredient reference of `recipe` from the reverse index,
+    /// `null` is ignored so a missing previous version can be passed directly
+    private void unindexRecipe(Recipe recipe) {
+        if (recipe == null || recipe.getIngredients() == null) {
+            return;
+        }
+        for (RecipeIngredient ri : recipe.getIngredients()) {
+            ingredientUsages.computeIfPresent(ri.getIngredientRef(), (_, usages) -> {
+                usages.remove(recipe.getId());
+                return usages.isEmpty() ? null : usages;
+            });
         }
     }
 }
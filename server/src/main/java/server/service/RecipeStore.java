@@ -0,0 +1,17 @@
+package server.service;
+
+import commons.Recipe;
+
+/// Decides how the recipes of a `CatalogSnapshot` are kept.
+///
+/// A snapshot holds whatever `store` returns and turns it back into a recipe
+/// with `load` whenever the recipe is read. Stored values are never modified,
+/// so an older snapshot can keep using its values after newer ones were stored.
+public interface RecipeStore {
+    /// Returns the value a snapshot keeps for `recipe`
+    Object store(Recipe recipe);
+
+    /// Returns the recipe `stored` was created from. The result must not be
+    /// modified, it may be shared with other readers.
+    Recipe load(Object stored);
+}
@@ -0,0 +1,28 @@
+package server.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/// Settings for loading the catalog on startup, bound from `foodpal.startup.*`
+///
+/// @param asyncLoad   start serving before the catalog is loaded, `/api/health`
+///                    reports `WARMING_UP` and writes wait until it is done
+/// @param pageSize    how many entities are fetched per query
+/// @param parallelism how many pages are fetched and indexed at the same time,
+///                    0 uses one thread per core
+@ConfigurationProperties("foodpal.startup")
+public record StartupProperties(
+        @DefaultValue("false") boolean asyncLoad,
+        @DefaultValue("500") int pageSize,
+        @DefaultValue("0") int parallelism) {
+
+    /// Synchronous loading with default page size and parallelism
+    public static StartupProperties defaults() {
+        return new StartupProperties(false, 500, 0);
+    }
+
+    /// The number of loader threads to use
+    public int threads() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,93 @@
+package server.websocket;
+
+import org.springframework.web.socket.TextMessage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/// Estimates what permessage-deflate saves and costs.
+///
+/// The container compresses frames internally, so its results cannot be read.
+/// Instead, every `sampleEvery`-th frame sent to a session that negotiated the
+/// extension is deflated here with the same settings, and the ratio and time of
+/// the samples are extrapolated to all such frames. Samples are compressed
+/// without the context of earlier messages, so the real ratio is usually better.
+///
+/// Sampling costs CPU on its own, so it is off unless `sampleEvery` is set, and
+/// then only frames and bytes are counted.
+final class CompressionStats {
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final int sampleEvery;
+
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong sampledBytes = new AtomicLong();
+    private final AtomicLong sampledCompressedBytes = new AtomicLong();
+    private final AtomicLong sampledNanos = new AtomicLong();
+
+    /// `sampleEvery` of 0 or less turns sampling off
+    CompressionStats(int sampleEvery) {
+        this.sampleEvery = Math.max(0, sampleEvery);
+    }
+
+    /// Records a session that negotiated compression
+    void recordSession() {
+        sessions.incrementAndGet();
+    }
+
+    /// Records a frame sent to a session that negotiated compression
+    void recordFrame(TextMessage frame) {
+        long count = frames.incrementAndGet();
+        bytes.addAndGet(frame.getPayloadLength());
+        if (sampleEvery == 0 || (count - 1) % sampleEvery != 0) {
+            return;
+        }
+        byte[] payload = frame.asBytes();
+        long start = System.nanoTime();
+        int compressed = deflatedSize(payload);
+        sampledNanos.addAndGet(System.nanoTime() - start);
+        sampledBytes.addAndGet(payload.length);
+        sampledCompressedBytes.addAndGet(compressed);
+    }
+
+    /// Size of `data` as one raw deflate message, as permessage-deflate sends it
+    private static int deflatedSize(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            byte[] buffer = new byte[Math.max(64, data.length / 2)];
+            int size = 0;
+            int written;
+            do {
+                written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                size += written;
+            } while (written == buffer.length || !deflater.needsInput());
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    Map<String, Object> metrics() {
+        long sampled = sampledBytes.get();
+        long total = bytes.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("compressedSessions", sessions.get());
+        metrics.put("compressedFrames", frames.get());
+        metrics.put("compressedFrameBytes", total);
+        if (sampleEvery == 0) {
+            metrics.put("compressionEstimates", "off");
+            return metrics;
+        }
+        metrics.put("compressionEstimates", "estimates, 1 in " + sampleEvery + " frames deflated again");
+        metrics.put("estimatedCompressionRatio",
+                sampled == 0 ? 1.0 : sampledCompressedBytes.get() / (double) sampled);
+        metrics.put("estimatedCompressionCpuMillis",
+                sampled == 0 ? 0 : (long) ((double) sampledNanos.get() / sampled * total / 1_000_000));
+        return metrics;
+    }
+}
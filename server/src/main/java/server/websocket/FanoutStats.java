@@ -0,0 +1,43 @@
+package server.websocket;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Counters for broadcast events: how long encoding took and how many sessions
+/// every encoded frame was sent to
+final class FanoutStats {
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong maxEncodeNanos = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong maxFanout = new AtomicLong();
+    private volatile long lastEncodeNanos = 0;
+    private volatile int lastFanout = 0;
+
+    /// Records one event that was encoded in `nanos` and sent to `recipients`
+    /// sessions
+    void recordEncode(long nanos, int recipients) {
+        events.incrementAndGet();
+        encodeNanos.addAndGet(nanos);
+        maxEncodeNanos.accumulateAndGet(nanos, Math::max);
+        deliveries.addAndGet(recipients);
+        maxFanout.accumulateAndGet(recipients, Math::max);
+        lastEncodeNanos = nanos;
+        lastFanout = recipients;
+    }
+
+    Map<String, Object> metrics() {
+        long count = events.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("events", count);
+        metrics.put("deliveries", deliveries.get());
+        metrics.put("lastEncodeMicros", lastEncodeNanos / 1_000);
+        metrics.put("avgEncodeMicros", count == 0 ? 0 : encodeNanos.get() / 1_000 / count);
+        metrics.put("maxEncodeMicros", maxEncodeNanos.get() / 1_000);
+        metrics.put("lastFanout", lastFanout);
+        metrics.put("avgFanout", count == 0 ? 0.0 : deliveries.get() / (double) count);
+        metrics.put("maxFanout", maxFanout.get());
+        return metrics;
+    }
+}
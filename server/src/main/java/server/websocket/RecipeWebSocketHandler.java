@@ -1,5 +1,6 @@
 package server.websocket;
 
+import commons.Language;
 import commons.WebSocketResponse;
 import commons.WebSocketTypes;
 
@@ -10,6 +11,12 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @Component
@@ -54,127 +61,161 @@ public class RecipeWebSocketHandler extends TextWebSocketHandler {
             return;
         }
 
-        if (type == WebSocketTypes.SUBSCRIBE) {
-            handleSubscription(session, topic, json);
-        } else if (type == WebSocketTypes.UNSUBSCRIBE) {
-            handleUnsubscription(session, topic, json);
+        if (type == WebSocketTypes.SUBSCRIBE || type == WebSocketTypes.UNSUBSCRIBE) {
+            boolean subscribe = type == WebSocketTypes.SUBSCRIBE;
+            if (json.has("topics")) {
+                handleSubscriptions(session, subscribe, json.path("topics"));
+                return;
+            }
+            String error = subscribe ? subscribe(session, topic, json) : unsubscribe(session, topic, json);
+            if (error != null) {
+                sendErrorMessage(session, error);
+            } else if (subscribe) {
+                sendSubscribeConfirm(session, topic);
+            } else {
+                sendUnsubscribeConfirm(session, topic);
+            }
+        } else if (type == WebSocketTypes.RESUME) {
+            // a missing sequence number can never be resumed, so it gets RESYNC
+            hub.resume(session, json.path("seq").asLong(Long.MAX_VALUE));
         } else {
             sendErrorMessage(session, "Command not supported: " + typeString);
         }
     }
 
-    private void handleSubscription(
+    /// Applies every entry of a `topics` array, each shaped like a single
+    /// (un)subscribe message, and answers once for all of them. The answer holds
+    /// the topics that were applied and an error per entry that was not.
+    private void handleSubscriptions(
             WebSocketSession session,
-            String topic,
-            JsonNode json) throws Exception {
+            boolean subscribe,
+            JsonNode entries) throws Exception {
+
+        List<String> applied = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (JsonNode entry : entries) {
+            String topic = entry.path("topic").asText("");
+            String error = subscribe ? subscribe(session, topic, entry) : unsubscribe(session, topic, entry);
+            if (error == null) {
+                applied.add(topic);
+            } else {
+                errors.add(error);
+            }
+        }
+        WebSocketResponse response = new WebSocketResponse(
+                subscribe ? WebSocketTypes.SUBSCRIBED : WebSocketTypes.UNSUBSCRIBED,
+                null, Map.of("topics", applied, "errors", errors));
+        hub.send(session, new TextMessage(mapper.writeValueAsString(response)));
+    }
 
+    /// Subscribes to one topic, returns an error message if that is not possible
+    private String subscribe(WebSocketSession session, String topic, JsonNode json) {
         switch (topic) {
-            case "recipe-state" -> {
-                hub.subscribeState(session);
-                sendSubscribeConfirm(session, "recipe-state");
-            }
+            case "recipe-state" -> hub.subscribeState(session);
             case "recipe" -> {
                 String idStr = json.path("recipeId").asText(null);
                 if (idStr == null || idStr.isEmpty()) {
-                    hub.subscribeRecipe(session, null);
-                    sendSubscribeConfirm(session, "recipe");
-                } else {
-                    try {
-                        UUID recipeId = UUID.fromString(idStr);
-                        hub.subscribeRecipe(session, recipeId);
-                        sendSubscribeConfirm(session, "recipe");
-                    } catch (IllegalArgumentException e) {
-                        sendErrorMessage(session, "recipeId is not a valid UUID format");
-                    }
+                    return subscribeRecipes(session, json);
                 }
+                UUID recipeId = parseId(idStr);
+                if (recipeId == null) {
+                    return "recipeId is not a valid UUID format";
+                }
+                hub.subscribeRecipe(session, recipeId);
             }
             case "ingredient" -> {
                 String idStr = json.path("ingredientId").asText(null);
-                if (idStr == null || idStr.isEmpty()) {
-                    hub.subscribeIngredient(session, null);
-                    sendSubscribeConfirm(session, "ingredient");
-                } else {
-                    try {
-                        UUID ingredientId = UUID.fromString(idStr);
-                        hub.subscribeIngredient(session, ingredientId);
-                        sendSubscribeConfirm(session, "ingredient");
-                    } catch (IllegalArgumentException e) {
-                        sendErrorMessage(session, "ingredientId is not a valid UUID format");
-                    }
+                UUID ingredientId = parseId(idStr);
+                if (ingredientId == null && idStr != null && !idStr.isEmpty()) {
+                    return "ingredientId is not a valid UUID format";
                 }
+                hub.subscribeIngredient(session, ingredientId);
             }
-            case "ingredient-state" -> {
-                hub.subscribeIngredientState(session);
-                sendSubscribeConfirm(session, "ingredient-state");
+            case "ingredient-state" -> hub.subscribeIngredientState(session);
+            default -> {
+                return "Unknown topic: " + topic;
             }
-
-            default -> sendErrorMessage(session, "Unknown topic: " + topic);
         }
+        return null;
     }
 
-    private void handleUnsubscription(
-            WebSocketSession session,
-            String topic,
-            JsonNode json) throws Exception {
+    /// Subscribes to all recipes, or only to those in the `languages` and
+    /// `recipeIds` arrays of the message if it has them
+    private String subscribeRecipes(WebSocketSession session, JsonNode json) {
+        Set<Language> languages = EnumSet.noneOf(Language.class);
+        for (JsonNode language : json.path("languages")) {
+            try {
+                languages.add(Language.valueOf(language.asText()));
+            } catch (IllegalArgumentException e) {
+                return "unknown language: " + language.asText();
+            }
+        }
+        Set<UUID> recipeIds = new HashSet<>();
+        for (JsonNode id : json.path("recipeIds")) {
+            UUID recipeId = parseId(id.asText());
+            if (recipeId == null) {
+                return "recipeIds contains an invalid UUID";
+            }
+            recipeIds.add(recipeId);
+        }
+        hub.subscribeRecipes(session, languages, recipeIds);
+        return null;
+    }
 
+    /// Unsubscribes from one topic, returns an error message if that is not possible
+    private String unsubscribe(WebSocketSession session, String topic, JsonNode json) {
         switch (topic) {
-            case "recipe-state" -> {
-                hub.unsubscribeState(session);
-                sendUnsubscribeConfirm(session, "recipe-state");
-            }
+            case "recipe-state" -> hub.unsubscribeState(session);
             case "recipe" -> {
                 String idStr = json.path("recipeId").asText(null);
-                if (idStr == null || idStr.isEmpty()) {
-                    hub.unsubscribeRecipe(session, null);
-                    sendUnsubscribeConfirm(session, "recipe");
-                } else {
-                    try {
-                        UUID recipeId = UUID.fromString(idStr);
-                        hub.unsubscribeRecipe(session, recipeId);
-                        sendUnsubscribeConfirm(session, "recipe");
-                    } catch (IllegalArgumentException e) {
-                        sendErrorMessage(session, "recipeId is not a valid UUID format");
-                    }
+                UUID recipeId = parseId(idStr);
+                if (recipeId == null && idStr != null && !idStr.isEmpty()) {
+                    return "recipeId is not a valid UUID format";
                 }
+                hub.unsubscribeRecipe(session, recipeId);
             }
             case "ingredient" -> {
                 String idStr = json.path("ingredientId").asText(null);
-                if (idStr == null || idStr.isEmpty()) {
-                    hub.unsubscribeIngredient(session, null);
-                    sendUnsubscribeConfirm(session, "ingredient");
-                } else {
-                    try {
-                        UUID ingredientId = UUID.fromString(idStr);
-                        hub.unsubscribeIngredient(session, ingredientId);
-                        sendUnsubscribeConfirm(session, "ingredient");
-                    } catch (IllegalArgumentException e) {
-                        sendErrorMessage(session, "ingredientId is not a valid UUID format");
-                    }
+                UUID ingredientId = parseId(idStr);
+                if (ingredientId == null && idStr != null && !idStr.isEmpty()) {
+                    return "ingredientId is not a valid UUID format";
                 }
+                hub.unsubscribeIngredient(session, ingredientId);
             }
-            case "ingredient-state" -> {
-                hub.unsubscribeIngredientState(session);
-                sendUnsubscribeConfirm(session, "ingredient-state");
+            case "ingredient-state" -> hub.unsubscribeIngredientState(session);
+            default -> {
+                return "Unknown topic: " + topic;
             }
+        }
+        return null;
+    }
 
-            default -> sendErrorMessage(session, "Unknown topic: " + topic);
+    /// The UUID in `id`, or `null` if it is missing or malformed
+    private static UUID parseId(String id) {
+        if (id == null || id.isEmpty()) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
 
     private void sendSubscribeConfirm(WebSocketSession session, String topic) throws Exception {
         WebSocketResponse response = new WebSocketResponse(WebSocketTypes.SUBSCRIBED, topic, null);
-        session.sendMessage(new TextMessage(mapper.writeValueAsString(response)));
+        hub.send(session, new TextMessage(mapper.writeValueAsString(response)));
     }
 
     private void sendUnsubscribeConfirm(WebSocketSession session, String topic) throws Exception {
         WebSocketResponse response = new WebSocketResponse(WebSocketTypes.UNSUBSCRIBED,
                 topic, null);
-        session.sendMessage(new TextMessage(mapper.writeValueAsString(response)));
+        hub.send(session, new TextMessage(mapper.writeValueAsString(response)));
     }
 
     private void sendErrorMessage(WebSocketSession session, String msg) throws Exception {
         WebSocketResponse error = new WebSocketResponse(WebSocketTypes.ERROR, null, msg);
-        session.sendMessage(new TextMessage(mapper.writeValueAsString(error)));
+        hub.send(session, new TextMessage(mapper.writeValueAsString(error)));
     }
 
     @Override
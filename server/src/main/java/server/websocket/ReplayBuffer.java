@@ -0,0 +1,163 @@
+package server.websocket;
+
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+/// Assigns sequence numbers to broadcast events and keeps the most recent ones,
+/// so a client that reconnects can receive only the events it missed.
+///
+/// Sequence numbers start at the startup time shifted left, so they keep growing
+/// across restarts and a client never mistakes events of an earlier run for ones
+/// it has already seen.
+///
+/// The body of an event is a `Payload`, the JSON of the event with sequence
+/// number 0, which the hub encodes before it takes the lock that numbers events.
+/// The number is spliced in afterwards, so numbering never waits for encoding.
+/// A payload nobody is subscribed to is only encoded if it is ever replayed.
+///
+/// Every sequence number handed out has an entry, events that are not kept for
+/// replay leave a placeholder without topics, so the buffer can tell a rollover
+/// from a number that was never meant to be replayed.
+final class ReplayBuffer {
+    private static final String NO_SEQ = "\"seq\":0}";
+    private static final Payload PLACEHOLDER = new Payload(() -> null);
+
+    /// The JSON of an event without its sequence number, encoded at most once
+    static final class Payload {
+        private final Supplier<String> encoder;
+        private String json;
+        private boolean encoded = false;
+
+        /// `encoder` produces the event with sequence number 0, or `null` if it
+        /// cannot be encoded
+        Payload(Supplier<String> encoder) {
+            this.encoder = encoder;
+        }
+
+        synchronized String json() {
+            if (!encoded) {
+                json = encoder.get();
+                encoded = true;
+            }
+            return json;
+        }
+    }
+
+    /// One broadcast event and the topics it was sent to
+    static final class Event {
+        private final long seq;
+        private final Collection<Topic> topics;
+        private final Payload payload;
+        private TextMessage message;
+        private boolean encoded = false;
+
+        private Event(long seq, Collection<Topic> topics, Payload payload) {
+            this.seq = seq;
+            this.topics = topics;
+            this.payload = payload;
+        }
+
+        long seq() {
+            return seq;
+        }
+
+        Collection<Topic> topics() {
+            return topics;
+        }
+
+        /// The encoded event, or `null` if it cannot be encoded
+        synchronized TextMessage message() {
+            if (!encoded) {
+                String json = payload.json();
+                message = json == null ? null : new TextMessage(withSeq(json, seq));
+                encoded = true;
+            }
+            return message;
+        }
+    }
+
+    /// Replaces the sequence number 0 that ends `json` with `seq`
+    static String withSeq(String json, long seq) {
+        if (!json.endsWith(NO_SEQ)) {
+            throw new IllegalArgumentException("Not an event without a sequence number: " + json);
+        }
+        return json.substring(0, json.length() - 2) + seq + "}";
+    }
+
+    private final int capacity;
+    /// Guarded by `this`, ordered by sequence number
+    private final Deque<Event> events = new ArrayDeque<>();
+    private long lastSeq;
+
+    ReplayBuffer(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.lastSeq = System.currentTimeMillis() << 20;
+    }
+
+    /// Creates the next event
+    synchronized Event append(Collection<Topic> topics, Payload payload) {
+        Event event = new Event(++lastSeq, topics, payload);
+        keep(event);
+        return event;
+    }
+
+    /// Creates the next event without keeping its content, for events whose
+    /// content is also part of a later event that is kept
+    synchronized Event unrecorded(Payload payload) {
+        Event event = new Event(++lastSeq, List.of(), payload);
+        keep(new Event(event.seq(), List.of(), PLACEHOLDER));
+        return event;
+    }
+
+    private void keep(Event event) {
+        if (capacity > 0) {
+            if (events.size() == capacity) {
+                events.removeFirst();
+            }
+            events.addLast(event);
+        }
+    }
+
+    /// Runs `action` while no event can be numbered. Numbering an event and
+    /// queueing it for its recipients in one action makes events reach every
+    /// session in sequence order, its payload has to be encoded before.
+    synchronized void inOrder(Runnable action) {
+        action.run();
+    }
+
+    /// The events after `seq`, or `null` if some of them are no longer kept and
+    /// the client has to resynchronize
+    synchronized List<Event> since(long seq) {
+        if (seq > lastSeq) {
+            // a sequence number this server never handed out
+            return null;
+        }
+        if (seq == lastSeq) {
+            return List.of();
+        }
+        if (events.isEmpty() || events.getFirst().seq() > seq + 1) {
+            return null;
+        }
+        List<Event> missed = new ArrayList<>();
+        for (Event event : events) {
+            if (event.seq() > seq && !event.topics().isEmpty()) {
+                missed.add(event);
+            }
+        }
+        return missed;
+    }
+
+    synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    synchronized int size() {
+        return events.size();
+    }
+}
@@ -0,0 +1,233 @@
+package server.websocket;
+
+import commons.WebSocketTypes;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/// The outgoing messages of one WebSocket session.
+///
+/// Messages are put on a bounded queue and sent by a virtual thread owned by the
+/// outbox, so the thread broadcasting a change never waits for the network. This
+/// thread is the only one writing to the session, so sends never overlap.
+///
+/// Events that queue up while a send is in progress are sent together in one
+/// `BATCH` frame of at most `batchMaxEvents`, so a burst of changes costs the
+/// client one frame instead of hundreds. The frame is built by joining the
+/// already encoded events, nothing is encoded again.
+///
+/// A session that falls behind is evicted: when its queue exceeds the message
+/// or byte limit, or when a single send blocks longer than the send time limit,
+/// `onEvict` is called and the session is closed with `SESSION_NOT_RELIABLE`
+/// without waiting for the close.
+/// The send time is checked on every offer and by the hub's watchdog through
+/// `checkSendTime`, so a stuck session is evicted even if nothing new is sent.
+final class SessionOutbox {
+    private static final long IDLE_POLL_SECONDS = 5;
+
+    private final WebSocketSession session;
+    private final WebSocketProperties limits;
+    private final Consumer<WebSocketSession> onEvict;
+    /// `null` unless the session negotiated permessage-deflate
+    private final CompressionStats compression;
+    private final BlockingQueue<TextMessage> queue;
+    private final Thread sender;
+
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    /// `System.nanoTime()` when the current send started, 0 while idle
+    private volatile long sendStartedNanos = 0;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    SessionOutbox(WebSocketSession session, WebSocketProperties limits,
+            Consumer<WebSocketSession> onEvict, CompressionStats compression) {
+        this.session = session;
+        this.limits = limits;
+        this.onEvict = onEvict;
+        this.compression = isCompressed(session) ? compression : null;
+        if (this.compression != null) {
+            this.compression.recordSession();
+        }
+        this.queue = new LinkedBlockingQueue<>(limits.queueCapacity());
+        this.sender = Thread.ofVirtual()
+                .name("ws-outbox-" + session.getId())
+                .start(this::drain);
+    }
+
+    /// Queues `message` for sending. Returns `false` if the session is closed or
+    /// was evicted because it cannot keep up.
+    boolean offer(TextMessage message) {
+        if (closed.get()) {
+            return false;
+        }
+        if (checkSendTime()) {
+            return false;
+        }
+        // reserved before queueing, so concurrent offers cannot overshoot the limit
+        int size = message.getPayloadLength();
+        if (queuedBytes.addAndGet(size) > limits.bufferSizeLimitBytes() || !queue.offer(message)) {
+            queuedBytes.addAndGet(-size);
+            evict("Buffer size limit exceeded");
+            return false;
+        }
+        return true;
+    }
+
+    /// Evicts the session if the current send blocks longer than the send time
+    /// limit, returns whether it was evicted
+    boolean checkSendTime() {
+        long started = sendStartedNanos;
+        if (started != 0
+                && System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(limits.sendTimeLimitMillis())) {
+            evict("Send time limit exceeded");
+            return true;
+        }
+        return false;
+    }
+
+    private void drain() {
+        try {
+            while (!closed.get()) {
+                TextMessage message = queue.poll(IDLE_POLL_SECONDS, TimeUnit.SECONDS);
+                if (message == null) {
+                    if (!session.isOpen()) {
+                        // closed without the hub noticing, do not linger
+                        evict("Session closed");
+                    }
+                    continue;
+                }
+                List<TextMessage> batch = collectBatch(message);
+                for (TextMessage event : batch) {
+                    queuedBytes.addAndGet(-event.getPayloadLength());
+                }
+                TextMessage frame = batch.size() == 1 ? message : batchFrame(batch);
+                sendStartedNanos = Math.max(1, System.nanoTime());
+                try {
+                    session.sendMessage(frame);
+                    sent.addAndGet(batch.size());
+                    frames.incrementAndGet();
+                    if (compression != null) {
+                        compression.recordFrame(frame);
+                    }
+                } finally {
+                    sendStartedNanos = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the outbox was closed
+        } catch (IOException | RuntimeException e) {
+            evict("Send failed: " + e.getMessage());
+        }
+    }
+
+    private static boolean isCompressed(WebSocketSession session) {
+        List<WebSocketExtension> extensions = session.getExtensions();
+        return extensions != null && extensions.stream()
+                .anyMatch(extension -> CompressionStats.PERMESSAGE_DEFLATE.equals(extension.getName()));
+    }
+
+    /// Takes `first` and the events queued behind it, up to `batchMaxEvents`
+    private List<TextMessage> collectBatch(TextMessage first) throws InterruptedException {
+        List<TextMessage> batch = new ArrayList<>();
+        batch.add(first);
+        int max = limits.batchMaxEvents();
+        if (max <= 1) {
+            return batch;
+        }
+        if (limits.batchLingerMillis() > 0 && queue.isEmpty()) {
+            Thread.sleep(limits.batchLingerMillis());
+        }
+        queue.drainTo(batch, max - 1);
+        return batch;
+    }
+
+    /// Joins encoded `WebSocketResponse`s into one `BATCH` response whose data is
+    /// the array of them, in order
+    static TextMessage batchFrame(List<TextMessage> events) {
+        int length = 0;
+        for (TextMessage event : events) {
+            length += event.getPayloadLength() + 1;
+        }
+        StringBuilder json = new StringBuilder(length + 48)
+                .append("{\"type\":\"").append(WebSocketTypes.BATCH).append("\",\"topic\":null,\"data\":[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(events.get(i).getPayload());
+        }
+        return new TextMessage(json.append("]}"));
+    }
+
+    /// Drops the session because it cannot keep up and reports it to the hub.
+    /// The session is closed on a thread of its own: closing waits for a send
+    /// that is stuck, and the caller may be a broadcast holding the hub's locks.
+    private void evict(String reason) {
+        if (!shutdown()) {
+            return;
+        }
+        System.out.println("Evicted WebSocket session " + session.getId() + ": " + reason);
+        onEvict.accept(session);
+        Thread.ofVirtual()
+                .name("ws-evict-" + session.getId())
+                .start(() -> {
+                    try {
+                        session.close(CloseStatus.SESSION_NOT_RELIABLE.withReason(reason));
+                    } catch (IOException | RuntimeException e) {
+                        // the session is being dropped anyway
+                    }
+                });
+    }
+
+    /// Stops sending and drops all queued messages, the session itself is left
+    /// open
+    void close() {
+        shutdown();
+    }
+
+    /// Returns `false` if the outbox was already closed
+    private boolean shutdown() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        queue.clear();
+        queuedBytes.set(0);
+        if (Thread.currentThread() != sender) {
+            sender.interrupt();
+        }
+        return true;
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    int queueDepth() {
+        return queue.size();
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queueDepth", queue.size());
+        metrics.put("queuedBytes", queuedBytes.get());
+        metrics.put("sent", sent.get());
+        metrics.put("frames", frames.get());
+        long started = sendStartedNanos;
+        metrics.put("currentSendMillis", started == 0 ? 0 : (System.nanoTime() - started) / 1_000_000);
+        return metrics;
+    }
+}
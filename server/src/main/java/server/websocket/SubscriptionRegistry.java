@@ -0,0 +1,95 @@
+package server.websocket;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/// Which sessions are subscribed to which topics, indexed both ways.
+///
+/// Subscribers of a topic are kept in a concurrent set, so subscribing and
+/// checking membership take constant time. Every session also records its own
+/// topics, so dropping a session only touches the topics it subscribed to.
+/// Sets are created and removed inside `compute` of their map entry, so an empty
+/// set is never removed while a subscriber is being added to it. No lock is held
+/// across topics.
+final class SubscriptionRegistry {
+    private final Map<Topic, Set<WebSocketSession>> subscribers = new ConcurrentHashMap<>();
+    /// The topics of every session, by session id
+    private final Map<String, Set<Topic>> topicsBySession = new ConcurrentHashMap<>();
+
+    void subscribe(WebSocketSession session, Topic topic) {
+        subscribers.compute(topic, (_, sessions) -> {
+            Set<WebSocketSession> result = sessions == null ? ConcurrentHashMap.newKeySet() : sessions;
+            result.add(session);
+            return result;
+        });
+        topicsBySession.compute(session.getId(), (_, topics) -> {
+            Set<Topic> result = topics == null ? ConcurrentHashMap.newKeySet() : topics;
+            result.add(topic);
+            return result;
+        });
+    }
+
+    void unsubscribe(WebSocketSession session, Topic topic) {
+        removeSubscriber(topic, session);
+        forgetTopic(session.getId(), topic);
+    }
+
+    /// The current subscribers of `topic`, the set is live and must not be modified
+    Set<WebSocketSession> subscribersOf(Topic topic) {
+        Set<WebSocketSession> sessions = subscribers.get(topic);
+        return sessions == null ? Set.of() : sessions;
+    }
+
+    /// Removes `topic` with all its subscribers and returns them
+    Set<WebSocketSession> removeTopic(Topic topic) {
+        Set<WebSocketSession> sessions = subscribers.remove(topic);
+        if (sessions == null) {
+            return Set.of();
+        }
+        for (WebSocketSession session : sessions) {
+            forgetTopic(session.getId(), topic);
+        }
+        return sessions;
+    }
+
+    /// Removes every subscription of `session`
+    void removeSession(WebSocketSession session) {
+        Set<Topic> topics = topicsBySession.remove(session.getId());
+        if (topics != null) {
+            for (Topic topic : topics) {
+                removeSubscriber(topic, session);
+            }
+        }
+    }
+
+    /// The topics `session` is subscribed to
+    Set<Topic> topicsOf(WebSocketSession session) {
+        Set<Topic> topics = topicsBySession.get(session.getId());
+        return topics == null ? Set.of() : Set.copyOf(topics);
+    }
+
+    int topicCount() {
+        return subscribers.size();
+    }
+
+    int sessionCount() {
+        return topicsBySession.size();
+    }
+
+    private void removeSubscriber(Topic topic, WebSocketSession session) {
+        subscribers.computeIfPresent(topic, (_, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    private void forgetTopic(String sessionId, Topic topic) {
+        topicsBySession.computeIfPresent(sessionId, (_, topics) -> {
+            topics.remove(topic);
+            return topics.isEmpty() ? null : topics;
+        });
+    }
+}
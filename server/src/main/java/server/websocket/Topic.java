@@ -0,0 +1,42 @@
+package server.websocket;
+
+import commons.Language;
+
+import java.util.UUID;
+
+/// Something sessions subscribe to, `id` is `null` for a whole topic such as all
+/// recipes or the recipe state
+record Topic(String name, UUID id) {
+    static final Topic RECIPE_STATE = new Topic("recipe-state", null);
+    static final Topic INGREDIENT_STATE = new Topic("ingredient-state", null);
+    static final Topic ALL_RECIPES = recipe(null);
+    static final Topic ALL_INGREDIENTS = ingredient(null);
+
+    private static final String LANGUAGE_PREFIX = "recipe-language:";
+    private static final String RECIPE_FILTER = "recipe-filter";
+
+    static Topic recipe(UUID id) {
+        return new Topic("recipe", id);
+    }
+
+    static Topic ingredient(UUID id) {
+        return new Topic("ingredient", id);
+    }
+
+    /// The recipes in one language, part of a filtered recipe subscription
+    static Topic recipeLanguage(Language language) {
+        return new Topic(LANGUAGE_PREFIX + language.name(), null);
+    }
+
+    /// One recipe listed in a filtered recipe subscription. It is kept apart from
+    /// `recipe(id)`, so replacing a filter does not drop a subscription made for
+    /// that recipe alone.
+    static Topic recipeFilter(UUID id) {
+        return new Topic(RECIPE_FILTER, id);
+    }
+
+    /// Whether this topic belongs to a filtered recipe subscription
+    boolean isRecipeFilter() {
+        return name.startsWith(LANGUAGE_PREFIX) || name.equals(RECIPE_FILTER);
+    }
+}
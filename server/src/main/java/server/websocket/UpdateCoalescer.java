@@ -0,0 +1,129 @@
+package server.websocket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Merges rapid successive broadcasts for the same entity.
+///
+/// With a window of `windowMillis` every update or delete of an entity is held
+/// back until the next flush tick, and a newer event for the same entity replaces
+/// the pending one, so only the latest version is sent per tick. A delete
+/// therefore supersedes any pending update. Pending events are sent in the order
+/// they were last replaced.
+///
+/// A window of 0 disables coalescing, then every event is sent immediately.
+final class UpdateCoalescer implements AutoCloseable {
+    private record Pending(boolean delete, Runnable send) {
+    }
+
+    private final long windowMillis;
+    private final ScheduledExecutorService ticker;
+    /// Guarded by `this`, also held while sending so an event sent immediately
+    /// can never be overtaken by an older one that was already taken from here
+    private final Map<Topic, Pending> pending = new LinkedHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong supersededByDelete = new AtomicLong();
+
+    UpdateCoalescer(long windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+        if (this.windowMillis == 0) {
+            this.ticker = null;
+            return;
+        }
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("ws-coalescer").daemon().factory());
+        ticker.scheduleAtFixedRate(this::flush, this.windowMillis, this.windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /// Sends an event about `topic` with the next tick, replacing an event about
+    /// the same entity that is still pending
+    void submit(Topic topic, boolean delete, Runnable send) {
+        submitted.incrementAndGet();
+        if (!isEnabled()) {
+            sent.incrementAndGet();
+            send.run();
+            return;
+        }
+        synchronized (this) {
+            // removed first so the entity moves to the end of the order
+            Pending previous = pending.remove(topic);
+            if (previous != null) {
+                saved.incrementAndGet();
+                if (delete && !previous.delete()) {
+                    supersededByDelete.incrementAndGet();
+                }
+            }
+            pending.put(topic, new Pending(delete, send));
+        }
+    }
+
+    /// Runs `send` right away, dropping pending events about `topics` because
+    /// `send` carries newer versions of them
+    void sendNow(Collection<Topic> topics, Runnable send) {
+        if (!isEnabled()) {
+            send.run();
+            return;
+        }
+        synchronized (this) {
+            for (Topic topic : topics) {
+                if (pending.remove(topic) != null) {
+                    saved.incrementAndGet();
+                }
+            }
+            send.run();
+        }
+    }
+
+    /// Sends all pending events
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Pending> due = new ArrayList<>(pending.values());
+        pending.clear();
+        for (Pending event : due) {
+            try {
+                event.send().run();
+                sent.incrementAndGet();
+            } catch (RuntimeException e) {
+                // an exception would cancel the ticker, so only report it
+                System.out.println("Failed to send coalesced WebSocket event: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            flush();
+        }
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("coalesceWindowMillis", windowMillis);
+        metrics.put("coalesceSubmitted", submitted.get());
+        metrics.put("coalesceSent", sent.get());
+        metrics.put("coalesceSaved", saved.get());
+        metrics.put("coalesceSupersededByDelete", supersededByDelete.get());
+        synchronized (this) {
+            metrics.put("coalescePending", pending.size());
+        }
+        return metrics;
+    }
+}
@@ -1,22 +1,55 @@
 package server.websocket;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final RecipeWebSocketHandler recipeHandler;
+    private final WebSocketProperties properties;
 
-    public WebSocketConfig(RecipeWebSocketHandler recipeHandler) {
+    public WebSocketConfig(RecipeWebSocketHandler recipeHandler, WebSocketProperties properties) {
         this.recipeHandler = recipeHandler;
+        this.properties = properties;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(recipeHandler, "/ws").setAllowedOrigins("*");
+        registry.addHandler(recipeHandler, "/ws")
+                .setHandshakeHandler(new CompressionHandshakeHandler(properties.compression()))
+                .setAllowedOrigins("*");
+    }
+
+    /// Accepts the extensions the container supports, except permessage-deflate
+    /// when compression is disabled. The container negotiates it on its own
+    /// otherwise, whenever a client offers it.
+    static class CompressionHandshakeHandler extends DefaultHandshakeHandler {
+        private final boolean compression;
+
+        CompressionHandshakeHandler(boolean compression) {
+            this.compression = compression;
+        }
+
+        @Override
+        protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                List<WebSocketExtension> requestedExtensions, List<WebSocketExtension> supportedExtensions) {
+            List<WebSocketExtension> accepted =
+                    super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+            if (compression) {
+                return accepted;
+            }
+            return accepted.stream()
+                    .filter(extension -> !CompressionStats.PERMESSAGE_DEFLATE.equals(extension.getName()))
+                    .toList();
+        }
     }
-}
\ No newline at end of file
+}
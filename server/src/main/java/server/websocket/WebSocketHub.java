@@ -1,226 +1,602 @@
 package server.websocket;
 
+import commons.Ingredient;
+import commons.IngredientChange;
+import commons.Language;
+import commons.Recipe;
+import commons.RecipePatch;
 import commons.WebSocketResponse;
 import commons.WebSocketTypes;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import server.metrics.MetricsSource;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/// Keeps track of which sessions are subscribed to what and sends them updates.
+///
+/// Subscriptions live in a `SubscriptionRegistry`, so subscribing and dropping a
+/// session are lock-free and independent of how many other sessions exist.
+///
+/// Every session gets a `SessionOutbox`, so broadcasting only queues messages and
+/// never blocks on a slow client. Sessions that cannot keep up are evicted, a
+/// watchdog also evicts sessions whose send is stuck while nothing new arrives.
+///
+/// When `foodpal.websocket.coalesce-window-millis` is set, updates and deletes of
+/// single entities go through an `UpdateCoalescer` and only the latest event per
+/// entity is sent per window. Batch and state broadcasts are sent immediately.
+///
+/// A recipe update is sent as a `PATCH` against the previously broadcast version
+/// of that recipe when the patch is smaller than the full recipe.
+///
+/// Every event carries a sequence number and the last `replay-capacity` events
+/// are kept, so a reconnecting client sends `RESUME` and receives only what it
+/// missed, or `RESYNC` if those events are no longer kept.
 @Component
-public class WebSocketHub {
+public class WebSocketHub implements MetricsSource {
+    private static final long WATCHDOG_MIN_MILLIS = 10;
+    private static final long WATCHDOG_MAX_MILLIS = 1000;
+    /// How many recently broadcast recipes are kept to compute patches against
+    static final int PATCH_BASE_CAPACITY = 4096;
 
     private final ObjectMapper mapper = new ObjectMapper();
 
-    private final CopyOnWriteArrayList<WebSocketSession> stateSubscribers = new CopyOnWriteArrayList<>();
-    private final CopyOnWriteArrayList<WebSocketSession> globalRecipeSubscribers = new CopyOnWriteArrayList<>();
-    private final Map<UUID, CopyOnWriteArrayList<WebSocketSession>> recipeSubscribers = new ConcurrentHashMap<>();
-    private final Map<UUID, CopyOnWriteArrayList<WebSocketSession>> ingredientSubscribers = new ConcurrentHashMap<>();
-    private final CopyOnWriteArrayList<WebSocketSession> globalIngredientSubscribers = new CopyOnWriteArrayList<>();
-    private final CopyOnWriteArrayList<WebSocketSession> ingredientStateSubscribers = new CopyOnWriteArrayList<>();
+    private final WebSocketProperties properties;
+    /// Outbound queue per session id
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ScheduledExecutorService watchdog;
+    private final FanoutStats fanout = new FanoutStats();
+    private final CompressionStats compression;
+    private final UpdateCoalescer coalescer;
+    /// The last broadcast version of the most recently broadcast recipes, patches
+    /// are computed against it. With the mapped recipe store these are decoded
+    /// copies rather than the catalog's own objects, so the map is bounded and a
+    /// recipe that dropped out is sent in full. Deleted recipes are removed.
+    private final Map<UUID, Recipe> lastBroadcast = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, Recipe> eldest) {
+                    return size() > PATCH_BASE_CAPACITY;
+                }
+            });
+    private final AtomicLong patchesSent = new AtomicLong();
+    private final AtomicLong patchBytesSaved = new AtomicLong();
+    private final AtomicLong ingredientChanges = new AtomicLong();
+    private final AtomicLong recipeUpdatesAvoided = new AtomicLong();
+
+    private final SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+    private final ReplayBuffer replay;
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    public WebSocketHub(WebSocketProperties properties) {
+        this.properties = properties;
+        this.coalescer = new UpdateCoalescer(properties.coalesceWindowMillis());
+        this.replay = new ReplayBuffer(properties.replayCapacity());
+        this.compression = new CompressionStats(properties.compression() ? properties.compressionSampleEvery() : 0);
+
+        // checks a few times per limit, so a stuck send is noticed soon after it
+        long period = Math.clamp(properties.sendTimeLimitMillis() / 4, WATCHDOG_MIN_MILLIS, WATCHDOG_MAX_MILLIS);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("ws-send-watchdog").daemon().factory());
+        watchdog.scheduleAtFixedRate(this::checkSendTimes, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /// Sends the events still held back by the coalescer
+    @PreDestroy
+    public void close() {
+        watchdog.shutdownNow();
+        coalescer.close();
+    }
+
+    private void checkSendTimes() {
+        for (SessionOutbox outbox : outboxes.values()) {
+            outbox.checkSendTime();
+        }
+    }
 
     public int getTitleSubscribersCount() {
-        return stateSubscribers.size();
+        return subscriptions.subscribersOf(Topic.RECIPE_STATE).size();
     }
 
     public void subscribeState(WebSocketSession session) {
-        if (!stateSubscribers.contains(session)) {
-            stateSubscribers.add(session);
-        }
+        subscriptions.subscribe(session, Topic.RECIPE_STATE);
     }
 
+    /// Subscribes to one recipe, or to all recipes if `recipeId` is `null`
     public void subscribeRecipe(WebSocketSession session, UUID recipeId) {
         if (recipeId == null) {
-            if (!globalRecipeSubscribers.contains(session)) {
-                globalRecipeSubscribers.add(session);
-            }
-        } else {
-            recipeSubscribers.computeIfAbsent(
-                    recipeId, _ -> new CopyOnWriteArrayList<>()).addIfAbsent(session);
+            clearRecipeFilter(session);
         }
+        subscriptions.subscribe(session, Topic.recipe(recipeId));
     }
 
-    public void subscribeIngredient(WebSocketSession session, UUID ingredientId) {
-        if (ingredientId == null) {
-            if (!globalIngredientSubscribers.contains(session)) {
-                globalIngredientSubscribers.add(session);
+    /// Subscribes to the recipes in `languages` plus the recipes in `recipeIds`,
+    /// replacing an earlier subscription to all or filtered recipes. Both sets
+    /// empty subscribes to all recipes.
+    public void subscribeRecipes(WebSocketSession session, Set<Language> languages, Set<UUID> recipeIds) {
+        if (languages.isEmpty() && recipeIds.isEmpty()) {
+            subscribeRecipe(session, null);
+            return;
+        }
+        clearRecipeFilter(session);
+        subscriptions.unsubscribe(session, Topic.ALL_RECIPES);
+        for (Language language : languages) {
+            subscriptions.subscribe(session, Topic.recipeLanguage(language));
+        }
+        for (UUID recipeId : recipeIds) {
+            subscriptions.subscribe(session, Topic.recipeFilter(recipeId));
+        }
+    }
+
+    private void clearRecipeFilter(WebSocketSession session) {
+        for (Topic topic : subscriptions.topicsOf(session)) {
+            if (topic.isRecipeFilter()) {
+                subscriptions.unsubscribe(session, topic);
             }
-        } else {
-            ingredientSubscribers.computeIfAbsent(
-                    ingredientId, _ -> new CopyOnWriteArrayList<>()).addIfAbsent(session);
         }
     }
 
+    /// Subscribes to one ingredient, or to all ingredients if `ingredientId` is `null`
+    public void subscribeIngredient(WebSocketSession session, UUID ingredientId) {
+        subscriptions.subscribe(session, Topic.ingredient(ingredientId));
+    }
+
     public void unsubscribeState(WebSocketSession session) {
-        stateSubscribers.remove(session);
+        subscriptions.unsubscribe(session, Topic.RECIPE_STATE);
     }
 
+    /// Unsubscribes from one recipe, or from all or filtered recipes if
+    /// `recipeId` is `null`
     public void unsubscribeRecipe(WebSocketSession session, UUID recipeId) {
         if (recipeId == null) {
-            globalRecipeSubscribers.remove(session);
-        } else {
-            List<WebSocketSession> sessions = recipeSubscribers.get(recipeId);
-            if (sessions != null) {
-                sessions.remove(session);
-
-                if (sessions.isEmpty()) {
-                    recipeSubscribers.remove(recipeId);
-                }
-            }
+            clearRecipeFilter(session);
         }
+        subscriptions.unsubscribe(session, Topic.recipe(recipeId));
     }
 
     public void unsubscribeIngredient(WebSocketSession session, UUID ingredientId) {
-        if (ingredientId == null) {
-            globalIngredientSubscribers.remove(session);
-        } else {
-            List<WebSocketSession> sessions = ingredientSubscribers.get(ingredientId);
-            if (sessions != null) {
-                sessions.remove(session);
-
-                if (sessions.isEmpty()) {
-                    ingredientSubscribers.remove(ingredientId);
-                }
-            }
-        }
+        subscriptions.unsubscribe(session, Topic.ingredient(ingredientId));
     }
 
     public void broadcastStateUpdate(Object allRecipes) {
-        WebSocketResponse response = new WebSocketResponse(
-                WebSocketTypes.UPDATE,
-                "recipe-state",
-                allRecipes);
-        broadcast(stateSubscribers, response);
+        broadcast(event(WebSocketTypes.UPDATE, "recipe-state", allRecipes), Topic.RECIPE_STATE);
     }
 
     public void broadcastRecipeUpdate(UUID recipeId, Object recipeData) {
-        WebSocketResponse response = new WebSocketResponse(
-                WebSocketTypes.UPDATE,
-                "recipe",
-                recipeData);
+        coalescer.submit(Topic.recipe(recipeId), false,
+                () -> sendRecipeUpdate(recipeId, recipeData));
+    }
 
-        // Send to specific subscribers
-        List<WebSocketSession> sessions = recipeSubscribers.get(recipeId);
-        if (sessions != null && !sessions.isEmpty()) {
-            broadcast(sessions, response);
+    private void sendRecipeUpdate(UUID recipeId, Object recipeData) {
+        Recipe previous = recipeData instanceof Recipe recipe ? lastBroadcast.put(recipeId, recipe) : null;
+
+        // every bucket the recipe is in gets the same frame, once per session
+        List<Topic> topics = new ArrayList<>(List.of(
+                Topic.recipe(recipeId), Topic.recipeFilter(recipeId), Topic.ALL_RECIPES));
+        if (recipeData instanceof Recipe recipe && recipe.getLanguage() != null) {
+            topics.add(Topic.recipeLanguage(recipe.getLanguage()));
+        }
+        if (previous != null && previous.getLanguage() != null) {
+            // subscribers of the old language learn that it changed
+            Topic old = Topic.recipeLanguage(previous.getLanguage());
+            if (!topics.contains(old)) {
+                topics.add(old);
+            }
         }
+        broadcast(() -> encodeRecipeUpdate(recipeData, previous), topics.toArray(Topic[]::new));
+    }
 
-        // Send to global subscribers
-        broadcast(globalRecipeSubscribers, response);
+    /// Encodes the full recipe, or a patch against `previous` if that is smaller
+    private String encodeRecipeUpdate(Object recipeData, Recipe previous) {
+        String full = encode(new WebSocketResponse(WebSocketTypes.UPDATE, "recipe", recipeData));
+        if (full == null || previous == null || !(recipeData instanceof Recipe recipe)) {
+            return full;
+        }
+        RecipePatch patch = RecipePatch.diff(previous, recipe);
+        if (patch.changesNothing()) {
+            return full;
+        }
+        String delta = encode(new WebSocketResponse(WebSocketTypes.PATCH, "recipe", patch));
+        if (delta == null || delta.length() >= full.length()) {
+            return full;
+        }
+        patchesSent.incrementAndGet();
+        patchBytesSaved.addAndGet(full.length() - delta.length());
+        return delta;
     }
 
-    public void broadcastRecipeDelete(UUID recipeId) {
-        WebSocketResponse response = new WebSocketResponse(
-                WebSocketTypes.DELETE,
-                "recipe",
-                recipeId);
+    /// Broadcasts many recipe updates at once. Global subscribers receive a single
+    /// `UPDATE` whose data is the list of all recipes, subscribers of one recipe
+    /// still receive only that recipe, unless they get the list anyway.
+    public void broadcastRecipeUpdates(List<Recipe> recipes) {
+        List<Topic> topics = recipes.stream()
+                .map(recipe -> Topic.recipe(recipe.getId()))
+                .toList();
+        coalescer.sendNow(topics, () -> sendRecipeUpdates(recipes));
+    }
 
-        // Send to specific subscribers
-        List<WebSocketSession> sessions = recipeSubscribers.get(recipeId);
-        if (sessions != null && !sessions.isEmpty()) {
-            broadcast(sessions, response);
-            // The recipe is gone, so remove the subscribers as well
-            recipeSubscribers.remove(recipeId);
+    private void sendRecipeUpdates(List<Recipe> recipes) {
+        Set<WebSocketSession> global = Set.copyOf(subscriptions.subscribersOf(Topic.ALL_RECIPES));
+        // every language bucket gets the recipes in or leaving that language
+        Map<Language, List<Recipe>> byLanguage = new EnumMap<>(Language.class);
+        for (Recipe recipe : recipes) {
+            Recipe previous = lastBroadcast.put(recipe.getId(), recipe);
+            if (recipe.getLanguage() != null) {
+                byLanguage.computeIfAbsent(recipe.getLanguage(), k -> new ArrayList<>()).add(recipe);
+            }
+            if (previous != null && previous.getLanguage() != null && previous.getLanguage() != recipe.getLanguage()) {
+                byLanguage.computeIfAbsent(previous.getLanguage(), k -> new ArrayList<>()).add(recipe);
+            }
+        }
+        Map<Language, Set<WebSocketSession>> languageSessions = new EnumMap<>(Language.class);
+        byLanguage.forEach((language, inLanguage) -> {
+            Topic topic = Topic.recipeLanguage(language);
+            Set<WebSocketSession> sessions = without(subscriptions.subscribersOf(topic), global);
+            languageSessions.put(language, sessions);
+            broadcast(List.of(topic), event(WebSocketTypes.UPDATE, "recipe", inLanguage), sessions);
+        });
+
+        List<Topic> topics = new ArrayList<>();
+        topics.add(Topic.ALL_RECIPES);
+        for (Recipe recipe : recipes) {
+            Topic topic = Topic.recipe(recipe.getId());
+            Topic filter = Topic.recipeFilter(recipe.getId());
+            topics.add(topic);
+            topics.add(filter);
+            Set<WebSocketSession> specific = new HashSet<>(subscriptions.subscribersOf(topic));
+            specific.addAll(subscriptions.subscribersOf(filter));
+            specific.removeAll(global);
+            specific.removeAll(languageSessions.getOrDefault(recipe.getLanguage(), Set.of()));
+            // not kept for replay, the list below covers it
+            deliverUnrecorded(event(WebSocketTypes.UPDATE, "recipe", recipe), specific);
         }
+        broadcast(topics, event(WebSocketTypes.UPDATE, "recipe", recipes), global);
+    }
 
-        // Send to global subscribers
-        broadcast(globalRecipeSubscribers, response);
+    private static Set<WebSocketSession> without(Set<WebSocketSession> sessions, Set<WebSocketSession> excluded) {
+        Set<WebSocketSession> result = new HashSet<>(sessions);
+        result.removeAll(excluded);
+        return result;
     }
 
-    public void broadcastIngredientUpdate(UUID ingredientId, Object ingredientData) {
-        WebSocketResponse response = new WebSocketResponse(
-                WebSocketTypes.UPDATE,
-                "ingredient",
-                ingredientData);
+    public void broadcastRecipeDelete(UUID recipeId) {
+        coalescer.submit(Topic.recipe(recipeId), true,
+                () -> sendRecipeDelete(recipeId));
+    }
+
+    private void sendRecipeDelete(UUID recipeId) {
+        lastBroadcast.remove(recipeId);
+        Topic topic = Topic.recipe(recipeId);
 
-        // Send to specific subscribers
-        List<WebSocketSession> sessions = ingredientSubscribers.get(ingredientId);
-        if (sessions != null && !sessions.isEmpty()) {
-            broadcast(sessions, response);
+        // The recipe is gone, so remove the subscribers as well. Its language is
+        // not always known here, but deletes are small, so all languages get it.
+        List<Topic> topics = new ArrayList<>(List.of(topic, Topic.recipeFilter(recipeId), Topic.ALL_RECIPES));
+        Set<WebSocketSession> recipients = new HashSet<>(subscriptions.removeTopic(topic));
+        for (Topic other : topics.subList(1, topics.size())) {
+            recipients.addAll(subscriptions.subscribersOf(other));
         }
+        for (Language language : Language.values()) {
+            Topic languageTopic = Topic.recipeLanguage(language);
+            topics.add(languageTopic);
+            recipients.addAll(subscriptions.subscribersOf(languageTopic));
+        }
+        broadcast(topics, event(WebSocketTypes.DELETE, "recipe", recipeId), recipients);
+    }
 
-        // Send to global subscribers
-        broadcast(globalIngredientSubscribers, response);
+    public void broadcastIngredientUpdate(UUID ingredientId, Object ingredientData) {
+        coalescer.submit(Topic.ingredient(ingredientId), false,
+                () -> sendIngredientUpdate(ingredientId, ingredientData));
     }
 
-    private void broadcast(List<WebSocketSession> sessions, WebSocketResponse response) {
-        String json;
+    private void sendIngredientUpdate(UUID ingredientId, Object ingredientData) {
+        broadcast(event(WebSocketTypes.UPDATE, "ingredient", ingredientData),
+                Topic.ingredient(ingredientId), Topic.ALL_INGREDIENTS);
+    }
 
-        try {
-            json = mapper.writeValueAsString(response);
-        } catch (IOException e) {
-            return;
+    /// Announces an updated ingredient once per session. Subscribers of the
+    /// recipes using it get one `INGREDIENT_CHANGE` carrying the ingredient and
+    /// naming the recipes, which only reference it and did not change themselves.
+    /// The other subscribers of the ingredient get the plain `UPDATE`.
+    public void broadcastIngredientChange(Ingredient ingredient, Collection<Recipe> usedBy) {
+        List<Recipe> recipes = List.copyOf(usedBy);
+        coalescer.submit(Topic.ingredient(ingredient.getId()), false,
+                () -> sendIngredientChange(ingredient, recipes));
+    }
+
+    private void sendIngredientChange(Ingredient ingredient, List<Recipe> recipes) {
+        Set<WebSocketSession> told = sendChangeToRecipes(ingredient, recipes);
+        Topic topic = Topic.ingredient(ingredient.getId());
+        Set<WebSocketSession> others = new HashSet<>(subscriptions.subscribersOf(topic));
+        others.addAll(subscriptions.subscribersOf(Topic.ALL_INGREDIENTS));
+        others.removeAll(told);
+        broadcast(List.of(topic, Topic.ALL_INGREDIENTS), event(WebSocketTypes.UPDATE, "ingredient", ingredient),
+                others);
+    }
+
+    /// Sends `INGREDIENT_CHANGE` to the subscribers of `recipes`, returns them
+    private Set<WebSocketSession> sendChangeToRecipes(Ingredient ingredient, List<Recipe> recipes) {
+        if (recipes.isEmpty()) {
+            return Set.of();
+        }
+        Set<Topic> topics = new LinkedHashSet<>();
+        topics.add(Topic.ALL_RECIPES);
+        List<UUID> recipeIds = new ArrayList<>(recipes.size());
+        for (Recipe recipe : recipes) {
+            recipeIds.add(recipe.getId());
+            topics.add(Topic.recipe(recipe.getId()));
+            topics.add(Topic.recipeFilter(recipe.getId()));
+            if (recipe.getLanguage() != null) {
+                topics.add(Topic.recipeLanguage(recipe.getLanguage()));
+            }
+        }
+        Set<WebSocketSession> recipients = new LinkedHashSet<>();
+        for (Topic topic : topics) {
+            recipients.addAll(subscriptions.subscribersOf(topic));
         }
+        ingredientChanges.incrementAndGet();
+        recipeUpdatesAvoided.addAndGet(recipes.size());
+        broadcast(topics, event(WebSocketTypes.INGREDIENT_CHANGE, "recipe", new IngredientChange(ingredient, recipeIds)),
+                recipients);
+        return recipients;
+    }
 
-        TextMessage message = new TextMessage(json);
+    /// Ingredient counterpart of `broadcastRecipeUpdates`, announcing every
+    /// ingredient once per session like `broadcastIngredientChange`. `usedBy`
+    /// holds the recipes using each ingredient.
+    public void broadcastIngredientUpdates(List<Ingredient> ingredients, Map<UUID, List<Recipe>> usedBy) {
+        List<Topic> topics = ingredients.stream()
+                .map(ingredient -> Topic.ingredient(ingredient.getId()))
+                .toList();
+        Map<UUID, List<Recipe>> usages = Map.copyOf(usedBy);
+        coalescer.sendNow(topics, () -> sendIngredientUpdates(ingredients, usages));
+    }
 
-        for (WebSocketSession session : sessions) {
-            try {
-                if (session.isOpen()) {
-                    session.sendMessage(message);
-                } else {
-                    removeSessionEverywhere(session);
-                }
-            } catch (IOException e) {
-                removeSessionEverywhere(session);
+    private void sendIngredientUpdates(List<Ingredient> ingredients, Map<UUID, List<Recipe>> usedBy) {
+        Map<UUID, Set<WebSocketSession>> told = new HashMap<>();
+        Set<WebSocketSession> toldAny = new HashSet<>();
+        for (Ingredient ingredient : ingredients) {
+            Set<WebSocketSession> sessions =
+                    sendChangeToRecipes(ingredient, usedBy.getOrDefault(ingredient.getId(), List.of()));
+            told.put(ingredient.getId(), sessions);
+            toldAny.addAll(sessions);
+        }
+        // the list only goes to sessions that need every ingredient in it
+        Set<WebSocketSession> allIngredients = Set.copyOf(subscriptions.subscribersOf(Topic.ALL_INGREDIENTS));
+        Set<WebSocketSession> global = without(allIngredients, toldAny);
+        List<Topic> topics = new ArrayList<>();
+        topics.add(Topic.ALL_INGREDIENTS);
+        for (Ingredient ingredient : ingredients) {
+            Topic topic = Topic.ingredient(ingredient.getId());
+            topics.add(topic);
+            Set<WebSocketSession> specific = new HashSet<>(subscriptions.subscribersOf(topic));
+            allIngredients.stream().filter(toldAny::contains).forEach(specific::add);
+            specific.removeAll(global);
+            specific.removeAll(told.get(ingredient.getId()));
+            // not kept for replay, the list below covers it
+            deliverUnrecorded(event(WebSocketTypes.UPDATE, "ingredient", ingredient), specific);
+        }
+        broadcast(topics, event(WebSocketTypes.UPDATE, "ingredient", ingredients), global);
+    }
+
+    public void broadcastIngredientDelete(UUID ingredientId) {
+        coalescer.submit(Topic.ingredient(ingredientId), true,
+                () -> sendIngredientDelete(ingredientId));
+    }
+
+    private void sendIngredientDelete(UUID ingredientId) {
+        Topic topic = Topic.ingredient(ingredientId);
+        broadcast(List.of(topic, Topic.ALL_INGREDIENTS), event(WebSocketTypes.DELETE, "ingredient", ingredientId),
+                subscriptions.removeTopic(topic), subscriptions.subscribersOf(Topic.ALL_INGREDIENTS));
+    }
+
+    public void subscribeIngredientState(WebSocketSession session) {
+        subscriptions.subscribe(session, Topic.INGREDIENT_STATE);
+    }
+
+    public void unsubscribeIngredientState(WebSocketSession session) {
+        subscriptions.unsubscribe(session, Topic.INGREDIENT_STATE);
+    }
+
+    public void broadcastIngredientStateUpdate(Object allIngredients) {
+        broadcast(event(WebSocketTypes.UPDATE, "ingredient-state", allIngredients), Topic.INGREDIENT_STATE);
+    }
+
+    /// Sends `session` the events after `lastSeq` on the topics it is subscribed
+    /// to, or `RESYNC` if they are no longer all kept. The client has to subscribe
+    /// again before resuming.
+    public void resume(WebSocketSession session, long lastSeq) {
+        List<ReplayBuffer.Event> missed = replay.since(lastSeq);
+        if (missed != null) {
+            // encoded before the lock, only events appended meanwhile are left
+            missed.forEach(ReplayBuffer.Event::message);
+        }
+        // no new event may overtake the replayed ones
+        replay.inOrder(() -> replay(session, lastSeq));
+    }
+
+    private void replay(WebSocketSession session, long lastSeq) {
+        List<ReplayBuffer.Event> missed = replay.since(lastSeq);
+        if (missed == null) {
+            resyncs.incrementAndGet();
+            String json = encode(new WebSocketResponse(WebSocketTypes.RESYNC, null, replay.lastSeq()));
+            if (json != null) {
+                send(session, new TextMessage(json));
+            }
+            return;
+        }
+        Set<Topic> topics = subscriptions.topicsOf(session);
+        for (ReplayBuffer.Event event : missed) {
+            if (event.topics().stream().anyMatch(topics::contains) && event.message() != null) {
+                send(session, event.message());
+                replayed.incrementAndGet();
             }
         }
     }
 
-    public synchronized void removeSessionEverywhere(WebSocketSession session) {
-        stateSubscribers.remove(session);
-        globalRecipeSubscribers.remove(session);
-        globalIngredientSubscribers.remove(session);
-        ingredientStateSubscribers.remove(session);
+    /// An encoder of a plain event, the sequence number is spliced in when it is
+    /// appended to the replay buffer
+    private Supplier<String> event(WebSocketTypes type, String topic, Object data) {
+        return () -> encode(new WebSocketResponse(type, topic, data));
+    }
 
-        recipeSubscribers.values().forEach(sessions -> sessions.remove(session));
-        recipeSubscribers.values().removeIf(CopyOnWriteArrayList::isEmpty);
+    /// Broadcasts an event to all subscribers of `topics`
+    private void broadcast(Supplier<String> encoder, Topic... topics) {
+        Set<WebSocketSession> recipients = new LinkedHashSet<>();
+        for (Topic topic : topics) {
+            recipients.addAll(subscriptions.subscribersOf(topic));
+        }
+        ReplayBuffer.Payload payload = encodeFor(encoder, recipients);
+        replay.inOrder(() -> deliver(replay.append(List.of(topics), payload), recipients));
+    }
 
-        ingredientSubscribers.values().forEach(sessions -> sessions.remove(session));
-        ingredientSubscribers.values().removeIf(CopyOnWriteArrayList::isEmpty);
+    /// Broadcasts an event about `topics` to the sessions in `audiences`
+    @SafeVarargs
+    private void broadcast(Collection<Topic> topics, Supplier<String> encoder,
+            Collection<WebSocketSession>... audiences) {
+        Set<WebSocketSession> recipients = new LinkedHashSet<>();
+        for (Collection<WebSocketSession> audience : audiences) {
+            recipients.addAll(audience);
+        }
+        ReplayBuffer.Payload payload = encodeFor(encoder, recipients);
+        replay.inOrder(() -> deliver(replay.append(topics, payload), recipients));
     }
 
-    public void broadcastIngredientDelete(UUID ingredientId) {
-        WebSocketResponse response = new WebSocketResponse(
-                WebSocketTypes.DELETE,
-                "ingredient",
-                ingredientId);
+    /// Sends an event that is not kept for replay to `recipients`
+    private void deliverUnrecorded(Supplier<String> encoder, Set<WebSocketSession> recipients) {
+        ReplayBuffer.Payload payload = encodeFor(encoder, recipients);
+        replay.inOrder(() -> deliver(replay.unrecorded(payload), recipients));
+    }
+
+    /// Encodes an event once for all `recipients`, before the replay buffer is
+    /// locked to number it. Without recipients it is only encoded if replayed.
+    private ReplayBuffer.Payload encodeFor(Supplier<String> encoder, Set<WebSocketSession> recipients) {
+        ReplayBuffer.Payload payload = new ReplayBuffer.Payload(encoder);
+        if (!recipients.isEmpty()) {
+            long start = System.nanoTime();
+            payload.json();
+            fanout.recordEncode(System.nanoTime() - start, recipients.size());
+        }
+        return payload;
+    }
 
-        // Send to specific subscribers
-        List<WebSocketSession> sessions = ingredientSubscribers.get(ingredientId);
-        if (sessions != null && !sessions.isEmpty()) {
-            broadcast(sessions, response);
-            ingredientSubscribers.remove(ingredientId);
+    /// Queues the same immutable frame of `event` for every recipient. The event
+    /// was recorded for replay before, so it is kept even if nobody receives it
+    /// now. Called while the replay buffer numbers no other event, the payload
+    /// is already encoded and queueing never blocks, so this is short.
+    private void deliver(ReplayBuffer.Event event, Set<WebSocketSession> recipients) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        TextMessage message = event.message();
+        if (message == null) {
+            return;
+        }
+        for (WebSocketSession session : recipients) {
+            if (session.isOpen()) {
+                send(session, message);
+            } else {
+                removeSessionEverywhere(session);
+            }
         }
+    }
 
-        // Send to global subscribers
-        broadcast(globalIngredientSubscribers, response);
+    /// Returns `null` if `response` cannot be serialized
+    private String encode(WebSocketResponse response) {
+        try {
+            return mapper.writeValueAsString(response);
+        } catch (IOException e) {
+            return null;
+        }
     }
 
-    public void subscribeIngredientState(WebSocketSession session) {
-        if (!ingredientStateSubscribers.contains(session)) {
-            ingredientStateSubscribers.add(session);
+    /// Queues a message for a single session, it is sent asynchronously in the
+    /// order it was queued. The underlying session does not allow concurrent sends,
+    /// so every outgoing message has to go through here.
+    public void send(WebSocketSession session, TextMessage message) {
+        if (!session.isOpen()) {
+            return;
         }
+        SessionOutbox outbox = outboxes.computeIfAbsent(session.getId(),
+                _ -> new SessionOutbox(session, properties, this::evict, compression));
+        outbox.offer(message);
     }
 
-    public void unsubscribeIngredientState(WebSocketSession session) {
-        ingredientStateSubscribers.remove(session);
+    private void evict(WebSocketSession session) {
+        evictions.incrementAndGet();
+        removeSessionEverywhere(session);
     }
 
-    public void broadcastIngredientStateUpdate(Object allIngredients) {
-        WebSocketResponse response = new WebSocketResponse(
-                WebSocketTypes.UPDATE,
-                "ingredient-state",
-                allIngredients);
-        broadcast(ingredientStateSubscribers, response);
+    /// Drops the outbox and all subscriptions of `session`, this only touches the
+    /// topics the session subscribed to
+    public void removeSessionEverywhere(WebSocketSession session) {
+        SessionOutbox outbox = outboxes.remove(session.getId());
+        if (outbox != null) {
+            outbox.close();
+        }
+        subscriptions.removeSession(session);
     }
 
-}
\ No newline at end of file
+    @Override
+    public String metricsName() {
+        return "websocket";
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Map<String, Object> sessions = new TreeMap<>();
+        int totalQueued = 0;
+        int maxQueued = 0;
+        for (Map.Entry<String, SessionOutbox> entry : outboxes.entrySet()) {
+            int depth = entry.getValue().queueDepth();
+            totalQueued += depth;
+            maxQueued = Math.max(maxQueued, depth);
+            sessions.put(entry.getKey(), entry.getValue().metrics());
+        }
+        metrics.put("sessions", outboxes.size());
+        metrics.put("evictions", evictions.get());
+        metrics.put("subscribedSessions", subscriptions.sessionCount());
+        metrics.put("topics", subscriptions.topicCount());
+        metrics.put("queuedMessages", totalQueued);
+        metrics.put("maxQueueDepth", maxQueued);
+        metrics.putAll(fanout.metrics());
+        metrics.putAll(coalescer.metrics());
+        metrics.putAll(compression.metrics());
+        metrics.put("patchBases", lastBroadcast.size());
+        metrics.put("patchesSent", patchesSent.get());
+        metrics.put("patchBytesSaved", patchBytesSaved.get());
+        metrics.put("ingredientChanges", ingredientChanges.get());
+        metrics.put("recipeUpdatesAvoided", recipeUpdatesAvoided.get());
+        metrics.put("lastSeq", replay.lastSeq());
+        metrics.put("replayBuffered", replay.size());
+        metrics.put("replayed", replayed.get());
+        metrics.put("resyncs", resyncs.get());
+        metrics.put("perSession", sessions);
+        return metrics;
+    }
+}
@@ -0,0 +1,43 @@
+package server.websocket;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/// Limits for outgoing WebSocket messages, bound from `foodpal.websocket.*`
+///
+/// @param sendTimeLimitMillis   how long a single send may block before the
+///                              session is considered too slow and evicted
+/// @param bufferSizeLimitBytes  how many bytes may wait in the outbound queue of
+///                              one session before it is evicted
+/// @param queueCapacity         how many messages may wait in the outbound queue of
+///                              one session before it is evicted
+/// @param batchMaxEvents        how many queued events may be sent together in
+///                              one `BATCH` frame, 1 sends every event on its own
+/// @param batchLingerMillis     how long the sender waits for more events before
+///                              sending a frame, 0 only batches what is queued
+/// @param coalesceWindowMillis  how long updates of one entity are collected so
+///                              only the latest is sent, 0 sends every update
+/// @param replayCapacity        how many recent events are kept for clients
+///                              resuming after a reconnect
+/// @param compression           whether permessage-deflate is accepted when a
+///                              client offers it
+/// @param compressionSampleEvery deflate every n-th compressed frame again to
+///                              estimate the ratio and CPU cost of compression
+///                              in the metrics, 0 turns the sampling off
+@ConfigurationProperties("foodpal.websocket")
+public record WebSocketProperties(
+        @DefaultValue("10000") long sendTimeLimitMillis,
+        @DefaultValue("4194304") long bufferSizeLimitBytes,
+        @DefaultValue("1000") int queueCapacity,
+        @DefaultValue("50") int batchMaxEvents,
+        @DefaultValue("0") long batchLingerMillis,
+        @DefaultValue("0") long coalesceWindowMillis,
+        @DefaultValue("1024") int replayCapacity,
+        @DefaultValue("true") boolean compression,
+        @DefaultValue("0") int compressionSampleEvery) {
+
+    /// The default limits
+    public static WebSocketProperties defaults() {
+        return new WebSocketProperties(10_000, 4 * 1024 * 1024, 1000, 50, 0, 0, 1024, true, 0);
+    }
+}
@@ -0,0 +1,28 @@
+package server.api;
+
+import org.junit.jupiter.api.Test;
+import server.service.LoadState;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HealthControllerTest {
+    @Test
+    public void readyWhenLoaded() {
+        var response = new HealthController(new TestRecipeService()).getHealth();
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("READY", response.getBody().get("status"));
+    }
+
+    @Test
+    public void unavailableWhileWarmingUp() {
+        var warmingUp = new TestRecipeService() {
+            @Override
+            public LoadState getLoadState() {
+                return LoadState.WARMING_UP;
+            }
+        };
+        var response = new HealthController(warmingUp).getHealth();
+        assertEquals(503, response.getStatusCode().value());
+        assertEquals("WARMING_UP", response.getBody().get("status"));
+    }
+}
@@ -1,19 +1,30 @@
 package server.api;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import commons.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import server.service.CatalogSnapshot;
 import server.service.IRecipeService;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 public class RecipeControllerTest {
+    ObjectMapper mapper = new ObjectMapper();
     RecipeController recipeController;
     TestRecipeService testRecipeService;
+    SerializedStateCache stateCache;
     Ingredient yogurt = new Ingredient("Yogurt", new NutritionValues(1, 2, 3));
     Ingredient sugar = new Ingredient("Sugar", new NutritionValues(1, 2, 3));
     List<String> preparationSteps = List.of("Melt sugar", "Freeze yogurt", "Blend");
@@ -27,7 +38,8 @@ public class RecipeControllerTest {
     @BeforeEach
     public void setup() {
         testRecipeService = new TestRecipeService();
-        recipeController = new RecipeController(testRecipeService);
+        stateCache = new SerializedStateCache(mapper, true);
+        recipeController = new RecipeController(testRecipeService, stateCache);
     }
 
     @Test
@@ -54,7 +66,7 @@ public class RecipeControllerTest {
     }
 
     @Test
-    public void getState() throws InvalidRecipeError, InvalidIngredientError {
+    public void getState() throws InvalidRecipeError, InvalidIngredientError, IOException {
         recipeController.setIngredient(yogurt);
         recipeController.setIngredient(sugar);
         recipeController.setRecipe(recipe);
@@ -64,7 +76,102 @@ public class RecipeControllerTest {
         expectedService.setIngredient(sugar);
         expectedService.setRecipe(recipe);
 
-        assertEquals(expectedService.getState(), recipeController.getRecipeState());
+        var response = recipeController.getRecipeState(null, null);
+        assertEquals(expectedService.getState(), mapper.readValue(response.getBody(), RecipeState.class));
+        assertEquals("3", response.getHeaders().getFirst(RecipeController.REVISION_HEADER));
+    }
+
+    @Test
+    public void getAllRecipes() throws InvalidRecipeError, InvalidIngredientError, IOException {
+        recipeController.setIngredient(yogurt);
+        recipeController.setIngredient(sugar);
+        recipeController.setRecipe(recipe);
+
+        var response = recipeController.getAllRecipes(null, null);
+        assertEquals(List.of(recipe), mapper.readValue(response.getBody(), new TypeReference<List<Recipe>>() { }));
+        assertEquals("3", response.getHeaders().getFirst(RecipeController.REVISION_HEADER));
+    }
+
+    @Test
+    public void serializedStateIsCachedPerRevision() throws InvalidIngredientError, IOException {
+        recipeController.setIngredient(yogurt);
+        var first = recipeController.getRecipeState(null, null);
+        var second = recipeController.getRecipeState("gzip, deflate", null);
+        assertEquals(1L, stateCache.metrics().get("misses"));
+        assertEquals(1L, stateCache.metrics().get("hits"));
+        assertEquals("gzip", second.getHeaders().getFirst("Content-Encoding"));
+        try (var unzipped = new GZIPInputStream(new ByteArrayInputStream(second.getBody()))) {
+            assertArrayEquals(first.getBody(), unzipped.readAllBytes());
+        }
+
+        // a write publishes a new revision, which is serialized again
+        recipeController.setIngredient(sugar);
+        var third = recipeController.getRecipeState(null, null);
+        assertEquals(2L, stateCache.metrics().get("misses"));
+        assertEquals(2, mapper.readValue(third.getBody(), RecipeState.class).ingredients().size());
+    }
+
+    @Test
+    public void unchangedStateAnswersNotModified() throws InvalidIngredientError {
+        recipeController.setIngredient(yogurt);
+        var full = recipeController.getRecipeState(null, null);
+        String etag = full.getHeaders().getETag();
+        assertNotNull(etag);
+
+        var notModified = recipeController.getRecipeState(null, etag);
+        assertEquals(304, notModified.getStatusCode().value());
+        assertNull(notModified.getBody());
+        assertEquals(etag, notModified.getHeaders().getETag());
+
+        // the gzipped representation has its own tag
+        assertEquals(200, recipeController.getRecipeState("gzip", etag).getStatusCode().value());
+
+        recipeController.setIngredient(sugar);
+        var changed = recipeController.getRecipeState(null, etag);
+        assertEquals(200, changed.getStatusCode().value());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+    }
+
+    @Test
+    public void ifNoneMatchParsing() {
+        String etag = RecipeController.etag(SerializedStateCache.View.STATE, 5, false);
+        assertTrue(RecipeController.matchesAny(etag, etag));
+        assertTrue(RecipeController.matchesAny("\"other\", W/" + etag, etag));
+        assertTrue(RecipeController.matchesAny("*", etag));
+        assertFalse(RecipeController.matchesAny(null, etag));
+        assertFalse(RecipeController.matchesAny(
+                RecipeController.etag(SerializedStateCache.View.STATE, 4, false), etag));
+    }
+
+    @Test
+    public void getIngredientUsages() throws InvalidRecipeError, InvalidIngredientError {
+        recipeController.setIngredient(yogurt);
+        recipeController.setIngredient(sugar);
+        recipeController.setRecipe(recipe);
+
+        assertEquals(Set.of(recipe.getId()), recipeController.getIngredientUsages(yogurt.getId()));
+        assertTrue(recipeController.getIngredientUsages(UUID.randomUUID()).isEmpty());
+    }
+
+    @Test
+    public void setBatches() throws InvalidRecipeError, InvalidIngredientError {
+        recipeController.setIngredients(List.of(yogurt, sugar));
+        recipeController.setRecipes(List.of(recipe));
+
+        var expectedService = new TestRecipeService();
+        expectedService.setIngredient(yogurt);
+        expectedService.setIngredient(sugar);
+        expectedService.setRecipe(recipe);
+
+        assertEquals(expectedService, testRecipeService);
+    }
+
+    @Test
+    public void setRecipesRejectsWholeBatch() {
+        Recipe valid = new Recipe("Plain", List.of(), List.of("Serve"), 1, Language.EN);
+        assertThrows(InvalidRecipeError.class,
+                () -> recipeController.setRecipes(List.of(valid, recipe)));
+        assertTrue(testRecipeService.recipes.isEmpty());
     }
 
     @Test
@@ -93,10 +200,11 @@ public class RecipeControllerTest {
 class TestRecipeService implements IRecipeService {
     public final HashMap<UUID, Recipe> recipes = new HashMap<>();
     public final HashMap<UUID, Ingredient> ingredients = new HashMap<>();
+    private long revision = 0;
 
     @Override
-    public RecipeState getState() {
-        return new RecipeState(recipes.values(), ingredients.values());
+    public CatalogSnapshot getSnapshot() {
+        return CatalogSnapshot.of(revision, recipes.values(), ingredients.values());
     }
 
     @Override
@@ -109,21 +217,56 @@ class TestRecipeService implements IRecipeService {
                 .anyMatch(ingredient -> !ingredients.containsKey(ingredient.getIngredientRef())))
             throw new InvalidRecipeError();
         recipes.put(recipe.getId(), recipe);
+        revision++;
     }
 
     @Override
     public void setIngredient(Ingredient ingredient) {
         ingredients.put(ingredient.getId(), ingredient);
+        revision++;
+    }
+
+    @Override
+    public void setRecipes(Collection<Recipe> batch) throws InvalidRecipeError {
+        for (Recipe recipe : batch) {
+            if (recipe == null || recipe.getIngredients().stream()
+                    .anyMatch(ingredient -> !ingredients.containsKey(ingredient.getIngredientRef())))
+                throw new InvalidRecipeError();
+        }
+        batch.forEach(recipe -> recipes.put(recipe.getId(), recipe));
+        revision++;
+    }
+
+    @Override
+    public void setIngredients(Collection<Ingredient> batch) {
+        batch.forEach(ingredient -> ingredients.put(ingredient.getId(), ingredient));
+        revision++;
     }
 
     @Override
     public void deleteRecipe(UUID recipeId) {
         recipes.remove(recipeId);
+        revision++;
     }
 
     @Override
     public void deleteIngredient(UUID ingredientId) {
         ingredients.remove(ingredientId);
+        revision++;
+    }
+
+    @Override
+    public RecipeChanges getChangesSince(long since) {
+        return RecipeChanges.resync(revision);
+    }
+
+    @Override
+    public Set<UUID> getIngredientUsages(UUID ingredientId) {
+        return recipes.values().stream()
+                .filter(r -> r.getIngredients().stream()
+                        .anyMatch(ri -> ri.getIngredientRef().equals(ingredientId)))
+                .map(Recipe::getId)
+                .collect(Collectors.toSet());
     }
 
     @Override
@@ -0,0 +1,152 @@
+package server.database;
+
+import commons.IdGenerator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/// Compares time-ordered and random ids as primary keys. Inserts run against an
+/// H2 file database the way the `PersistenceWriter` sends them, in committed
+/// batches, and the results are printed so they can be compared between
+/// machines. H2 does not report page splits, so they are counted on a model of
+/// the leaves of the primary-key B-tree. Only runs with `-Pbenchmark`.
+@Tag("benchmark")
+public class IdOrderingBenchmarkTest {
+    private static final int ROWS = 20_000;
+    private static final int BATCH = 100;
+    private static final int KEYS_PER_LEAF = 48;
+
+    @TempDir
+    Path directory;
+
+    private record Result(double rowsPerSecond, long diskBytes) {
+    }
+
+    @Test
+    public void timeOrderedIdsAppendToTheIndex() throws SQLException {
+        // the first round only warms up
+        insert("warm_up", UUID::randomUUID);
+        Result random = insert("random_ids", UUID::randomUUID);
+        Result ordered = insert("ordered_ids", IdGenerator::next);
+
+        LeafModel randomLeaves = LeafModel.of(UUID::randomUUID);
+        LeafModel orderedLeaves = LeafModel.of(IdGenerator::next);
+
+        System.out.printf("H2 inserts of %d rows: time-ordered %.0f rows/s in %d KiB, random %.0f rows/s in %d KiB%n",
+                ROWS, ordered.rowsPerSecond(), ordered.diskBytes() / 1024,
+                random.rowsPerSecond(), random.diskBytes() / 1024);
+        System.out.printf("Index leaves: time-ordered %s; random %s%n", orderedLeaves, randomLeaves);
+
+        // a batch of time-ordered ids lands in the last leaf or two
+        assertTrue(orderedLeaves.dirtiedPerBatch() * 5 < randomLeaves.dirtiedPerBatch(),
+                orderedLeaves + " vs " + randomLeaves);
+    }
+
+    private Result insert(String table, Supplier<UUID> ids) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:" + directory.resolve(table), "sa", "")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE entries (id UUID PRIMARY KEY, name VARCHAR(64))");
+            }
+            connection.setAutoCommit(false);
+            long start = System.nanoTime();
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO entries VALUES (?, ?)")) {
+                for (int i = 1; i <= ROWS; i++) {
+                    insert.setObject(1, ids.get());
+                    insert.setString(2, "Entry " + i);
+                    insert.addBatch();
+                    if (i % BATCH == 0) {
+                        insert.executeBatch();
+                        connection.commit();
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            try (Statement statement = connection.createStatement();
+                    ResultSet size = statement.executeQuery("CALL DISK_SPACE_USED('ENTRIES')")) {
+                size.next();
+                return new Result(ROWS / seconds, size.getLong(1));
+            }
+        }
+    }
+
+    /// The leaves of a B-tree index. A full leaf is split in the middle, as in
+    /// H2's MVStore, and every leaf a committed batch changes has to be written.
+    private static final class LeafModel {
+        /// Leaves by their smallest key, the first one also takes smaller keys
+        private final TreeMap<UUID, List<UUID>> leaves = new TreeMap<>();
+        private long splits = 0;
+        private long dirtied = 0;
+
+        static LeafModel of(Supplier<UUID> ids) {
+            LeafModel model = new LeafModel();
+            Set<List<UUID>> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 1; i <= ROWS; i++) {
+                model.insert(ids.get(), dirty);
+                if (i % BATCH == 0) {
+                    model.dirtied += dirty.size();
+                    dirty.clear();
+                }
+            }
+            return model;
+        }
+
+        private void insert(UUID key, Set<List<UUID>> dirty) {
+            Map.Entry<UUID, List<UUID>> entry = leaves.floorEntry(key);
+            if (entry == null) {
+                entry = leaves.firstEntry();
+            }
+            if (entry == null) {
+                List<UUID> leaf = new ArrayList<>();
+                leaf.add(key);
+                leaves.put(key, leaf);
+                dirty.add(leaf);
+                return;
+            }
+            List<UUID> leaf = entry.getValue();
+            int index = Collections.binarySearch(leaf, key);
+            leaf.add(-index - 1, key);
+            if (index == -1) {
+                // the smallest key changed
+                leaves.remove(entry.getKey());
+                leaves.put(key, leaf);
+            }
+            dirty.add(leaf);
+            if (leaf.size() > KEYS_PER_LEAF) {
+                List<UUID> upper = new ArrayList<>(leaf.subList(leaf.size() / 2, leaf.size()));
+                leaf.subList(leaf.size() / 2, leaf.size()).clear();
+                leaves.put(upper.getFirst(), upper);
+                dirty.add(upper);
+                splits++;
+            }
+        }
+
+        double dirtiedPerBatch() {
+            return dirtied / (double) (ROWS / BATCH);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d splits, %d leaves %.0f%% full, %.1f leaves written per batch",
+                    splits, leaves.size(), 100.0 * ROWS / leaves.size() / KEYS_PER_LEAF, dirtiedPerBatch());
+        }
+    }
+}
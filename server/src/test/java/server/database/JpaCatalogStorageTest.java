@@ -0,0 +1,77 @@
+package server.database;
+
+import commons.Ingredient;
+import commons.NutritionValues;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the writes have to be committed, they are numbered right before the commit
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class JpaCatalogStorageTest {
+    @Autowired
+    private RecipeRepository recipeRepository;
+    @Autowired
+    private IngredientRepository ingredientRepository;
+    @Autowired
+    private ChangeRecordRepository changeRecordRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactions;
+    private JpaCatalogStorage storage;
+
+    @BeforeEach
+    public void setup() {
+        transactions = new TransactionTemplate(transactionManager);
+        storage = new JpaCatalogStorage(recipeRepository, ingredientRepository, changeRecordRepository, transactions);
+        storage.migrate();
+    }
+
+    private static Ingredient ingredient(String name) {
+        return new Ingredient(name, new NutritionValues(0, 0, 0));
+    }
+
+    @Test
+    public void rolledBackWritesLeaveNoGapInTheSequence() {
+        long first = storage.lastChangeSeq();
+        Ingredient salt = ingredient("Salt");
+        Ingredient pepper = ingredient("Pepper");
+        long before = System.currentTimeMillis();
+
+        storage.apply(List.of(new PendingWrite.SaveIngredient(salt)));
+        transactions.executeWithoutResult(status -> {
+            storage.apply(List.of(new PendingWrite.SaveIngredient(ingredient("Lost"))));
+            status.setRollbackOnly();
+        });
+        storage.apply(List.of(new PendingWrite.SaveIngredient(pepper)));
+
+        List<ChangeRecord> changes = storage.changesAfter(first, 10);
+        assertEquals(List.of(first + 1, first + 2), changes.stream().map(change -> change.seq).toList());
+        assertEquals(List.of(salt, pepper), changes.stream().map(ChangeRecord::ingredient).toList());
+        assertTrue(changes.getFirst().committedAt >= before);
+        assertEquals(first + 2, storage.lastChangeSeq());
+    }
+
+    @Test
+    public void sequenceContinuesAfterThePrunedHistory() {
+        storage.apply(List.of(new PendingWrite.SaveIngredient(ingredient("Salt"))));
+        long last = storage.lastChangeSeq();
+
+        storage.pruneChanges(last + 1);
+        storage.migrate();
+        storage.apply(List.of(new PendingWrite.SaveIngredient(ingredient("Pepper"))));
+
+        assertEquals(List.of(last + 1), storage.changesAfter(0, 10).stream().map(change -> change.seq).toList());
+    }
+}
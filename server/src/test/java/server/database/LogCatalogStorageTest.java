@@ -0,0 +1,138 @@
+package server.database;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import commons.Amount;
+import commons.Ingredient;
+import commons.Language;
+import commons.NutritionValues;
+import commons.Recipe;
+import commons.RecipeIngredient;
+import commons.Unit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogCatalogStorageTest {
+    @TempDir
+    Path directory;
+
+    private final Ingredient salt = new Ingredient("Salt", new NutritionValues(0, 0, 0));
+    private final Ingredient flour = new Ingredient("Flour", new NutritionValues(10, 70, 1));
+    private final Recipe bread = new Recipe("Bread",
+            List.of(new RecipeIngredient(flour.getId(), new Amount(500, Unit.GRAM)),
+                    new RecipeIngredient(salt.getId(), new Amount(10, Unit.GRAM))),
+            List.of("Knead", "Bake"), 4, Language.EN);
+
+    private LogCatalogStorage open(long compactAfterBytes) {
+        return new LogCatalogStorage(new ObjectMapper(),
+                new StorageProperties(StorageProperties.Engine.LOG, directory, true, compactAfterBytes));
+    }
+
+    @Test
+    public void writesAreRecoveredAfterRestart() throws IOException {
+        Recipe removed = new Recipe("Gone", List.of(), List.of(), 1, Language.NL);
+        try (LogCatalogStorage storage = open(Long.MAX_VALUE)) {
+            storage.apply(List.of(new PendingWrite.SaveIngredients(List.of(salt, flour))));
+            storage.apply(List.of(new PendingWrite.SaveRecipe(bread), new PendingWrite.SaveRecipe(removed)));
+            storage.apply(List.of(new PendingWrite.DeleteRecipe(removed.getId())));
+        }
+
+        try (LogCatalogStorage storage = open(Long.MAX_VALUE)) {
+            assertEquals(2, storage.countIngredients());
+            assertEquals(List.of(bread), storage.recipePage(0, 10));
+            assertEquals(3L, storage.metrics().get("recoveredFrames"));
+        }
+    }
+
+    @Test
+    public void incompleteFrameAtTheEndIsCutOff() throws IOException {
+        try (LogCatalogStorage storage = open(Long.MAX_VALUE)) {
+            storage.apply(List.of(new PendingWrite.SaveIngredient(salt)));
+        }
+        // a crash in the middle of appending the next frame
+        Files.write(directory.resolve(LogCatalogStorage.LOG_FILE), new byte[] {0, 0, 1, 0, 42, 7},
+                StandardOpenOption.APPEND);
+
+        try (LogCatalogStorage storage = open(Long.MAX_VALUE)) {
+            assertEquals(List.of(salt), storage.ingredientPage(0, 10));
+            assertEquals(6L, storage.metrics().get("truncatedBytes"));
+            storage.apply(List.of(new PendingWrite.SaveIngredient(flour)));
+        }
+        try (LogCatalogStorage storage = open(Long.MAX_VALUE)) {
+            assertEquals(2, storage.countIngredients());
+        }
+    }
+
+    @Test
+    public void compactionKeepsTheState() throws IOException {
+        try (LogCatalogStorage storage = open(1)) {
+            storage.apply(List.of(new PendingWrite.SaveIngredients(List.of(salt, flour))));
+            storage.apply(List.of(new PendingWrite.SaveRecipe(bread)));
+            storage.apply(List.of(new PendingWrite.RemoveIngredientUsages(salt.getId(), List.of(bread)),
+                    new PendingWrite.DeleteIngredient(salt.getId())));
+            assertEquals(3L, storage.metrics().get("snapshots"));
+        }
+        assertEquals(0, Files.size(directory.resolve(LogCatalogStorage.LOG_FILE)));
+
+        try (LogCatalogStorage storage = open(1)) {
+            assertEquals(List.of(flour), storage.ingredientPage(0, 10));
+            assertEquals(List.of(bread.getIngredients().getFirst()),
+                    storage.recipePage(0, 10).getFirst().getIngredients());
+        }
+    }
+
+    @Test
+    public void changeRecordsAreNumberedAndSurviveCompaction() throws IOException {
+        try (LogCatalogStorage storage = open(1)) {
+            storage.apply(List.of(new PendingWrite.SaveIngredients(List.of(salt, flour))));
+            storage.apply(List.of(new PendingWrite.SaveRecipe(bread), new PendingWrite.DeleteIngredient(salt.getId())));
+        }
+
+        try (LogCatalogStorage storage = open(1)) {
+            List<ChangeRecord> changes = storage.changesAfter(0, 10);
+            assertEquals(List.of(1L, 2L, 3L, 4L), changes.stream().map(change -> change.seq).toList());
+            assertEquals(List.of(salt.getId(), flour.getId(), bread.getId(), salt.getId()),
+                    changes.stream().map(change -> change.entityId).toList());
+            assertEquals(bread, changes.get(2).recipe());
+            assertTrue(changes.get(3).deleted);
+            assertEquals(4, storage.lastChangeSeq());
+
+            storage.pruneChanges(3);
+            assertEquals(List.of(3L, 4L), storage.changesAfter(0, 10).stream().map(change -> change.seq).toList());
+            storage.apply(List.of(new PendingWrite.DeleteRecipe(bread.getId())));
+            assertEquals(5L, storage.changesAfter(4, 10).getFirst().seq);
+        }
+    }
+
+    @Test
+    public void failedCompactionDoesNotFailTheWrite() throws IOException {
+        // the new snapshot cannot be written while a directory is in its place
+        Path blocked = Files.createDirectories(directory.resolve(LogCatalogStorage.SNAPSHOT_FILE + ".tmp"));
+        Files.writeString(blocked.resolve("file"), "x");
+        try (LogCatalogStorage storage = open(1)) {
+            storage.apply(List.of(new PendingWrite.SaveIngredient(salt)));
+
+            assertEquals(1L, storage.metrics().get("failedCompactions"));
+            assertEquals(0L, storage.metrics().get("snapshots"));
+            assertEquals(1, storage.lastChangeSeq());
+
+            Files.delete(blocked.resolve("file"));
+            Files.delete(blocked);
+            storage.apply(List.of(new PendingWrite.SaveIngredient(flour)));
+            assertEquals(1L, storage.metrics().get("snapshots"));
+        }
+
+        try (LogCatalogStorage storage = open(Long.MAX_VALUE)) {
+            // pages are ordered by id, salt was created first
+            assertEquals(List.of(salt, flour), storage.ingredientPage(0, 10));
+            assertEquals(List.of(1L, 2L), storage.changesAfter(0, 10).stream().map(change -> change.seq).toList());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package server.database;
+
+import commons.Amount;
+import commons.Ingredient;
+import commons.Language;
+import commons.NutritionValues;
+import commons.Recipe;
+import commons.RecipeIngredient;
+import commons.Unit;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PersistenceWriterTest {
+    private final RecipeRepository recipeRepository = mock(RecipeRepository.class);
+    private final IngredientRepository ingredientRepository = mock(IngredientRepository.class);
+    private final ChangeRecordRepository changeRecordRepository = mock(ChangeRecordRepository.class);
+    private final AtomicInteger transactionCount = new AtomicInteger();
+
+    /// Runs callbacks directly and counts how many transactions were started
+    private final TransactionOperations countingTransactions = new TransactionOperations() {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) {
+            transactionCount.incrementAndGet();
+            TransactionStatus status = new SimpleTransactionStatus();
+            return action.doInTransaction(status);
+        }
+    };
+
+    private PersistenceWriter writer(PersistenceProperties.Durability durability) {
+        return new PersistenceWriter(
+                new JpaCatalogStorage(recipeRepository, ingredientRepository, changeRecordRepository,
+                        countingTransactions),
+                new PersistenceProperties(durability, 10_000, 100, 50));
+    }
+
+    @Test
+    public void syncCommitsEveryWrite() throws InterruptedException {
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.SYNC);
+        Ingredient ingredient = new Ingredient("Salt", new NutritionValues(0, 0, 0));
+        writer.write(new PendingWrite.SaveIngredient(ingredient));
+        writer.write(new PendingWrite.DeleteIngredient(ingredient.getId()));
+
+        verify(ingredientRepository).save(ingredient);
+        verify(ingredientRepository).deleteById(ingredient.getId());
+        assertEquals(2, transactionCount.get());
+        writer.close();
+    }
+
+    @Test
+    public void ingredientAndItsUsagesAreDeletedInOneTransaction() throws InterruptedException {
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.SYNC);
+        Ingredient salt = new Ingredient("Salt", new NutritionValues(0, 0, 0));
+        Recipe bread = new Recipe("Bread",
+                List.of(new RecipeIngredient(salt.getId(), new Amount(5, Unit.GRAM))), List.of(), 1, Language.EN);
+        writer.write(new PendingWrite.DeleteIngredientAndUsages(salt.getId(), List.of(bread)));
+
+        verify(recipeRepository).removeIngredient(salt.getId(), List.of(bread));
+        verify(ingredientRepository).deleteById(salt.getId());
+        assertEquals(1, transactionCount.get());
+        writer.close();
+    }
+
+    @Test
+    public void batchedGroupsWritesIntoFewTransactions() throws InterruptedException {
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.BATCHED);
+        int writes = 1_000;
+        for (int i = 0; i < writes; i++) {
+            writer.write(new PendingWrite.DeleteRecipe(UUID.randomUUID()));
+        }
+        writer.flush();
+
+        verify(recipeRepository, times(writes)).deleteById(any());
+        assertTrue(transactionCount.get() < writes / 10,
+                "expected group commits, got " + transactionCount.get() + " transactions");
+        assertEquals(0, writer.getQueueDepth());
+        writer.close();
+    }
+
+    @Test
+    public void failingWriteDoesNotLoseTheRestOfTheBatch() throws InterruptedException {
+        UUID broken = UUID.randomUUID();
+        doThrow(new IllegalStateException("broken")).when(recipeRepository).deleteById(broken);
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.BATCHED);
+
+        List<UUID> ids = List.of(UUID.randomUUID(), broken, UUID.randomUUID());
+        for (UUID id : ids) {
+            writer.write(new PendingWrite.DeleteRecipe(id));
+        }
+        writer.close();
+
+        // the good writes are retried on their own after the batch failed
+        verify(recipeRepository, atLeastOnce()).deleteById(ids.get(0));
+        verify(recipeRepository, atLeastOnce()).deleteById(ids.get(2));
+        assertEquals(1L, writer.metrics().get("failedWrites"));
+    }
+
+    @Test
+    public void interruptedWriterCommitsTheBatchItCollected() throws InterruptedException {
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.BATCHED);
+        UUID id = UUID.randomUUID();
+        writer.write(new PendingWrite.DeleteRecipe(id));
+        // the writer lingers for more writes to join the batch
+        Thread.sleep(20);
+        Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("persistence-writer"))
+                .forEach(Thread::interrupt);
+
+        writer.flush();
+
+        verify(recipeRepository).deleteById(id);
+        writer.close();
+    }
+
+    @Test
+    public void closeFlushesQueuedWrites() throws InterruptedException {
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.ASYNC);
+        for (int i = 0; i < 100; i++) {
+            writer.write(new PendingWrite.DeleteIngredient(UUID.randomUUID()));
+        }
+        writer.close();
+
+        verify(ingredientRepository, times(100)).deleteById(any());
+        assertThrows(IllegalStateException.class,
+                () -> writer.write(new PendingWrite.DeleteIngredient(UUID.randomUUID())));
+    }
+
+    @Test
+    public void closeDuringSubmitsPersistsEveryAcceptedWrite() throws InterruptedException {
+        PersistenceWriter writer = writer(PersistenceProperties.Durability.BATCHED);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> submitters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            submitters.add(Thread.ofPlatform().start(() -> {
+                try {
+                    while (true) {
+                        writer.write(new PendingWrite.DeleteRecipe(UUID.randomUUID()));
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // rejected after the shutdown
+                }
+            }));
+        }
+        Thread.sleep(20);
+        writer.close();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        // a write is either rejected or persisted, never left on the queue
+        verify(recipeRepository, times(accepted.get())).deleteById(any());
+        assertEquals(0, writer.getQueueDepth());
+    }
+}
@@ -0,0 +1,168 @@
+package server.database;
+
+import commons.Amount;
+import commons.Language;
+import commons.Recipe;
+import commons.RecipeIngredient;
+import commons.Unit;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// JDBC batching is off, so every statement sent to the database is counted
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=1"
+})
+public class RecipeRepositoryTest {
+    private static final int ROWS = 10;
+
+    @Autowired
+    private RecipeRepository recipeRepository;
+    @Autowired
+    private TestEntityManager entityManager;
+    private Statistics statistics;
+
+    @BeforeEach
+    public void setup() {
+        statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+    }
+
+    private static Recipe recipe(UUID id, List<RecipeIngredient> ingredients) {
+        return new Recipe(id, "Stew", ingredients, List.of("Cook"), 2, Language.EN);
+    }
+
+    private static List<RecipeIngredient> rows(UUID... refs) {
+        List<RecipeIngredient> rows = new ArrayList<>();
+        for (int i = 0; i < refs.length; i++) {
+            rows.add(new RecipeIngredient(refs[i], new Amount(i + 1, Unit.GRAM)));
+        }
+        return rows;
+    }
+
+    private static UUID[] ids(int count) {
+        UUID[] ids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+        return ids;
+    }
+
+    /// Statements `work` sends to the database, starting and ending with an empty
+    /// persistence context
+    private long statementsOf(Runnable work) {
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+        work.run();
+        entityManager.flush();
+        entityManager.clear();
+        return statistics.getPrepareStatementCount();
+    }
+
+    @Test
+    public void changingOneAmountUpdatesOnlyItsRow() {
+        UUID id = UUID.randomUUID();
+        List<RecipeIngredient> ingredients = rows(ids(ROWS));
+        recipeRepository.save(recipe(id, ingredients));
+
+        List<RecipeIngredient> changed = new ArrayList<>(ingredients);
+        changed.set(3, new RecipeIngredient(changed.get(3).getIngredientRef(), new Amount(99, Unit.GRAM)));
+        long statements = statementsOf(() -> recipeRepository.save(recipe(id, changed)));
+
+        // loading the stored version, then one row update. Without positions all
+        // rows were deleted and inserted again, 2 + ROWS statements.
+        assertTrue(statements <= 3, "expected a row update, got " + statements + " statements");
+        assertEquals(0, statistics.getCollectionRecreateCount());
+        assertEquals(changed, recipeRepository.findById(id).orElseThrow().getIngredients());
+    }
+
+    @Test
+    public void removingAnIngredientIsOneBulkDeletePlusRenumbering() {
+        UUID[] refs = ids(5);
+        UUID salt = refs[2];
+        List<Recipe> stored = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            stored.add(recipeRepository.save(recipe(UUID.randomUUID(), rows(refs))));
+        }
+
+        long statements = statementsOf(() -> recipeRepository.removeIngredient(salt, stored));
+
+        // one delete, then two statements per recipe to close the gap. Saving every
+        // recipe took a select, a delete and 4 inserts each, 18 statements.
+        assertEquals(1 + 2 * stored.size(), statements);
+        for (Recipe recipe : stored) {
+            List<UUID> remaining = recipeRepository.findById(recipe.getId()).orElseThrow()
+                    .getIngredients().stream()
+                    .map(RecipeIngredient::getIngredientRef)
+                    .toList();
+            assertEquals(List.of(refs[0], refs[1], refs[3], refs[4]), remaining);
+        }
+    }
+
+    @Test
+    public void removingRepeatedIngredientKeepsTheOrder() {
+        UUID[] refs = ids(3);
+        UUID id = UUID.randomUUID();
+        Recipe stored = recipeRepository.save(recipe(id, rows(refs[0], refs[1], refs[0], refs[2])));
+
+        statementsOf(() -> recipeRepository.removeIngredient(refs[0], List.of(stored)));
+
+        List<UUID> remaining = recipeRepository.findById(id).orElseThrow()
+                .getIngredients().stream()
+                .map(RecipeIngredient::getIngredientRef)
+                .toList();
+        assertEquals(List.of(refs[1], refs[2]), remaining);
+    }
+
+    @Test
+    public void rowsStoredWithoutAPositionAreNumberedInStoredOrder() throws SQLException {
+        UUID soup = UUID.randomUUID();
+        UUID stew = UUID.randomUUID();
+        // the table as ddl-auto=update leaves it for rows stored before positions
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:unindexed", "sa", "");
+                Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE recipe_ingredients "
+                    + "(recipe_id UUID, ingredient_ref UUID, ingredient_index INT)");
+            String insert = "INSERT INTO recipe_ingredients VALUES ('%s', RANDOM_UUID(), %s)";
+            statement.execute(insert.formatted(soup, "NULL"));
+            statement.execute(insert.formatted(stew, "NULL"));
+            statement.execute(insert.formatted(soup, "NULL"));
+            statement.execute(insert.formatted(stew, "0"));
+            statement.execute(insert.formatted(soup, "NULL"));
+
+            assertEquals(4, statement.executeUpdate(RecipeRepository.NUMBER_UNINDEXED_INGREDIENT_ROWS));
+            assertEquals(List.of(0, 1, 2), positions(statement, soup));
+            assertEquals(List.of(1, 0), positions(statement, stew));
+            assertEquals(0, statement.executeUpdate(RecipeRepository.NUMBER_UNINDEXED_INGREDIENT_ROWS));
+        }
+    }
+
+    /// Positions of the rows of `recipeId` in the order they were stored
+    private static List<Integer> positions(Statement statement, UUID recipeId) throws SQLException {
+        List<Integer> positions = new ArrayList<>();
+        try (ResultSet rows = statement.executeQuery("SELECT ingredient_index FROM recipe_ingredients "
+                + "WHERE recipe_id = '" + recipeId + "' ORDER BY _ROWID_")) {
+            while (rows.next()) {
+                positions.add(rows.getInt(1));
+            }
+        }
+        return positions;
+    }
+}
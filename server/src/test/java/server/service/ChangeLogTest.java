@@ -0,0 +1,42 @@
+package server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeLogTest {
+    private static ChangeLog.Key recipe(UUID id) {
+        return new ChangeLog.Key(ChangeLog.Kind.RECIPE, id);
+    }
+
+    @Test
+    public void keepsLatestPositionOfEachKey() {
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        ChangeLog log = new ChangeLog(10, 0);
+        log.append(1, recipe(a));
+        log.append(2, recipe(b));
+        log.append(3, recipe(a));
+
+        assertEquals(List.of(recipe(b), recipe(a)), List.copyOf(log.changedBetween(0, 3)));
+        assertEquals(List.of(recipe(b)), List.copyOf(log.changedBetween(0, 2)));
+        assertEquals(List.of(recipe(a)), List.copyOf(log.changedBetween(2, 3)));
+        assertTrue(log.changedBetween(3, 3).isEmpty());
+    }
+
+    @Test
+    public void evictionRaisesFloor() {
+        ChangeLog log = new ChangeLog(2, 0);
+        log.append(1, recipe(UUID.randomUUID()));
+        log.append(2, recipe(UUID.randomUUID()));
+        log.append(3, recipe(UUID.randomUUID()));
+
+        assertEquals(1, log.floor());
+        assertEquals(2, log.size());
+        assertNull(log.changedBetween(0, 3));
+        assertEquals(2, log.changedBetween(1, 3).size());
+    }
+}
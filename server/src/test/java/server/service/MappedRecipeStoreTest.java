@@ -0,0 +1,153 @@
+package server.service;
+
+import commons.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedRecipeStoreTest {
+    private static final int MEASURED_RECIPES = 20_000;
+
+    @TempDir
+    Path directory;
+
+    private MappedRecipeStore store;
+
+    @AfterEach
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private MappedRecipeStore store(int segmentBytes, int cacheEntries) {
+        store = new MappedRecipeStore(new CatalogProperties(true, directory, segmentBytes, cacheEntries));
+        return store;
+    }
+
+    private static Recipe recipe(int i) {
+        return new Recipe(UUID.randomUUID(), "Recipe " + i + " \u2013 cr\u00e8me br\u00fbl\u00e9e",
+                new ArrayList<>(List.of(
+                        new RecipeIngredient(UUID.randomUUID(), new Amount(1.5 * i, Unit.GRAM)),
+                        new RecipeIngredient(UUID.randomUUID(), new Amount(1, "a pinch")))),
+                new ArrayList<>(List.of("Mix everything", "Bake for " + i + " minutes")),
+                i % 8 + 1, Language.values()[i % Language.values().length]);
+    }
+
+    @Test
+    public void decodesWhatWasStored() {
+        MappedRecipeStore store = store(1 << 16, 0);
+        Recipe recipe = recipe(3);
+        Recipe sparse = new Recipe(UUID.randomUUID(), null, null, null, 0, null);
+
+        Object handle = store.store(recipe);
+        Object sparseHandle = store.store(sparse);
+
+        Recipe loaded = store.load(handle);
+        assertNotSame(recipe, loaded);
+        assertEquals(recipe, loaded);
+        assertEquals(RecipePatch.fingerprint(recipe), RecipePatch.fingerprint(loaded));
+        assertEquals(sparse, store.load(sparseHandle));
+    }
+
+    @Test
+    public void cachesRecentlyUsedRecipes() {
+        MappedRecipeStore store = store(1 << 16, 1);
+        Recipe first = recipe(1);
+        Object firstHandle = store.store(first);
+        Object secondHandle = store.store(recipe(2));
+
+        // storing the second recipe evicted the first one
+        Recipe decoded = store.load(firstHandle);
+        assertNotSame(first, decoded);
+        assertSame(decoded, store.load(firstHandle));
+        assertNotNull(store.load(secondHandle));
+
+        assertEquals(1L, store.metrics().get("cacheHits"));
+        assertEquals(2L, store.metrics().get("cacheMisses"));
+    }
+
+    @Test
+    public void rollsOverToNewSegments() throws Exception {
+        MappedRecipeStore store = store(512, 0);
+        List<Recipe> recipes = new ArrayList<>();
+        List<Object> handles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            recipes.add(recipe(i));
+            handles.add(store.store(recipes.get(i)));
+        }
+        Recipe large = new Recipe(UUID.randomUUID(), "x".repeat(2_000), List.of(), List.of(), 1, Language.EN);
+        Object largeHandle = store.store(large);
+
+        for (int i = 0; i < recipes.size(); i++) {
+            assertEquals(recipes.get(i), store.load(handles.get(i)));
+        }
+        assertEquals(large, store.load(largeHandle));
+        int segments = (int) store.metrics().get("segments");
+        assertTrue(segments > 1);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(segments, files.count());
+        }
+
+        store.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void snapshotsLoadRecipesFromTheStore() {
+        MappedRecipeStore store = store(1 << 16, 0);
+        Recipe kept = recipe(1);
+        Recipe replaced = recipe(2);
+        CatalogSnapshot before = CatalogSnapshot.of(1, List.of(kept, replaced), List.of(), store);
+        Recipe renamed = replaced.cloneWithTitle("Renamed");
+        CatalogSnapshot after = before.withRecipe(renamed).withoutRecipe(kept.getId());
+
+        assertEquals(replaced, before.recipe(replaced.getId()));
+        assertEquals(renamed, after.recipe(replaced.getId()));
+        assertNull(after.recipe(kept.getId()));
+        assertEquals(List.of(renamed), new ArrayList<>(after.recipes()));
+        assertEquals(2, before.recipes().size());
+    }
+
+    /// Compares the heap retained by a snapshot of the same recipes in both
+    /// stores, the numbers are printed so they can be compared between machines
+    @Test
+    public void offHeapSnapshotRetainsLessHeap() {
+        long heapBytes = retainedHeap(HeapRecipeStore.INSTANCE);
+        long mappedBytes = retainedHeap(store(1 << 24, 0));
+
+        System.out.printf("Catalog of %d recipes retains %d KiB on the heap, %d KiB with the mapped store%n",
+                MEASURED_RECIPES, heapBytes / 1024, mappedBytes / 1024);
+        assertTrue(mappedBytes < heapBytes, "mapped " + mappedBytes + " >= heap " + heapBytes);
+    }
+
+    private static long retainedHeap(RecipeStore store) {
+        long before = usedHeap();
+        CatalogSnapshot snapshot = CatalogSnapshot.empty(store);
+        for (int i = 0; i < MEASURED_RECIPES; i++) {
+            snapshot = snapshot.withRecipe(recipe(i));
+        }
+        long retained = usedHeap() - before;
+        assertEquals(MEASURED_RECIPES, snapshot.recipes().size());
+        return retained;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,123 @@
+package server.service;
+
+import commons.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.database.CatalogStorage;
+import server.database.ChangeRecord;
+import server.database.PendingWrite;
+import server.websocket.WebSocketHub;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class OutboxPublisherTest {
+    private final CatalogStorage storage = mock(CatalogStorage.class);
+    private final IRecipeService recipeService = mock(IRecipeService.class);
+    private final WebSocketHub webSocketHub = mock(WebSocketHub.class);
+
+    private final Ingredient salt = new Ingredient("Salt", new NutritionValues(0, 0, 0));
+    private final Recipe soup = new Recipe("Soup",
+            List.of(new RecipeIngredient(salt.getId(), new Amount(5, Unit.GRAM))), List.of("Boil"), 2, Language.EN);
+
+    @BeforeEach
+    public void setup() {
+        when(storage.lastChangeSeq()).thenReturn(10L);
+        when(recipeService.getLoadState()).thenReturn(LoadState.READY);
+        when(recipeService.getSnapshot()).thenReturn(CatalogSnapshot.of(1, List.of(soup), List.of(salt)));
+        when(recipeService.getIngredientUsages(salt.getId())).thenReturn(Set.of(soup.getId()));
+    }
+
+    private OutboxPublisher publisher(OutboxProperties.Publish publish, long retainRecords) {
+        return new OutboxPublisher(storage, recipeService, webSocketHub,
+                new OutboxProperties(publish, 50, 500, retainRecords));
+    }
+
+    private static ChangeRecord record(long seq, PendingWrite write) {
+        ChangeRecord record = ChangeRecord.describing(List.of(write), 0).getFirst();
+        record.seq = seq;
+        return record;
+    }
+
+    private Recipe renamed(String title) {
+        return new Recipe(soup.getId(), title, soup.getIngredients(), soup.getSteps(), soup.getPortions(),
+                soup.getLanguage());
+    }
+
+    @Test
+    public void afterCommitBroadcastsTheCommittedValueOfEachChangedEntityOnce() {
+        UUID gone = UUID.randomUUID();
+        Recipe broth = renamed("Broth");
+        when(storage.changesAfter(10, 500)).thenReturn(List.of(
+                record(11, new PendingWrite.SaveRecipe(soup)),
+                record(12, new PendingWrite.SaveIngredient(salt)),
+                record(13, new PendingWrite.SaveRecipe(broth)),
+                record(14, new PendingWrite.DeleteRecipe(gone))));
+        // the catalog in memory is already ahead of the committed records
+        when(recipeService.getSnapshot()).thenReturn(CatalogSnapshot.of(2, List.of(renamed("Stock")), List.of(salt)));
+        OutboxPublisher publisher = publisher(OutboxProperties.Publish.AFTER_COMMIT, 100_000);
+
+        assertEquals(4, publisher.drain());
+
+        verify(webSocketHub).broadcastRecipeUpdate(soup.getId(), broth);
+        verify(webSocketHub).broadcastIngredientChange(eq(salt), anyList());
+        verify(webSocketHub).broadcastRecipeDelete(gone);
+        verifyNoMoreInteractions(webSocketHub);
+        assertEquals(14L, publisher.metrics().get("publishedSeq"));
+        assertEquals(3L, publisher.metrics().get("broadcasts"));
+    }
+
+    @Test
+    public void deletedIngredientIsAnnouncedFromItsRecord() {
+        when(storage.changesAfter(10, 500)).thenReturn(List.of(
+                record(11, new PendingWrite.DeleteIngredientAndUsages(salt.getId(), List.of(soup))),
+                record(12, new PendingWrite.DeleteIngredient(salt.getId()))));
+        OutboxPublisher publisher = publisher(OutboxProperties.Publish.AFTER_COMMIT, 100_000);
+
+        assertEquals(2, publisher.drain());
+
+        Recipe withoutSalt = new Recipe(soup.getId(), soup.getTitle(), List.of(), soup.getSteps(),
+                soup.getPortions(), soup.getLanguage());
+        verify(webSocketHub).broadcastRecipeUpdate(soup.getId(), withoutSalt);
+        verify(webSocketHub).broadcastIngredientDelete(salt.getId());
+    }
+
+    @Test
+    public void immediateOnlyPrunesTheHistory() {
+        when(storage.lastChangeSeq()).thenReturn(10L, 20L);
+        OutboxPublisher publisher = publisher(OutboxProperties.Publish.IMMEDIATE, 5);
+
+        publisher.pruneHistory();
+
+        verify(storage).pruneChanges(16);
+        verify(storage, never()).changesAfter(anyLong(), anyInt());
+        verifyNoInteractions(webSocketHub);
+    }
+
+    @Test
+    public void nothingIsPublishedWhileTheCatalogIsLoading() {
+        when(recipeService.getLoadState()).thenReturn(LoadState.WARMING_UP);
+        OutboxPublisher publisher = publisher(OutboxProperties.Publish.AFTER_COMMIT, 100_000);
+
+        assertEquals(0, publisher.drain());
+        verify(storage, never()).changesAfter(anyLong(), anyInt());
+    }
+
+    @Test
+    public void prunesHistoryBeyondTheRetention() {
+        when(storage.changesAfter(10, 500)).thenReturn(List.of(
+                record(11, new PendingWrite.SaveRecipe(soup)),
+                record(12, new PendingWrite.SaveRecipe(soup)),
+                record(13, new PendingWrite.SaveRecipe(soup))));
+        OutboxPublisher publisher = publisher(OutboxProperties.Publish.AFTER_COMMIT, 2);
+
+        publisher.drain();
+
+        // 12 and 13 are kept
+        verify(storage).pruneChanges(12);
+    }
+}
@@ -0,0 +1,95 @@
+package server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentHashMapTest {
+
+    /// A key with a chosen hash code, used to force hash collisions
+    private record CollidingKey(String name, int hash) {
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        Map<Integer, String> expected = new HashMap<>();
+        PersistentHashMap<Integer, String> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                String value = "v" + i;
+                expected.put(key, value);
+                map = map.plus(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 5_000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+        assertEquals(expected.keySet(), new HashSet<>(map.keys()));
+    }
+
+    @Test
+    public void olderVersionsAreUnaffected() {
+        PersistentHashMap<String, Integer> v1 = PersistentHashMap.<String, Integer>empty()
+                .plus("a", 1)
+                .plus("b", 2);
+        PersistentHashMap<String, Integer> v2 = v1.plus("a", 10).minus("b").plus("c", 3);
+
+        assertEquals(2, v1.size());
+        assertEquals(1, v1.get("a"));
+        assertEquals(2, v1.get("b"));
+        assertNull(v1.get("c"));
+
+        assertEquals(2, v2.size());
+        assertEquals(10, v2.get("a"));
+        assertNull(v2.get("b"));
+        assertEquals(3, v2.get("c"));
+    }
+
+    @Test
+    public void handlesHashCollisions() {
+        CollidingKey a = new CollidingKey("a", 7);
+        CollidingKey b = new CollidingKey("b", 7);
+        CollidingKey c = new CollidingKey("c", 7 | (1 << 10));
+
+        PersistentHashMap<CollidingKey, String> map = PersistentHashMap.<CollidingKey, String>empty()
+                .plus(a, "a")
+                .plus(b, "b")
+                .plus(c, "c");
+        assertEquals(3, map.size());
+        assertEquals("a", map.get(a));
+        assertEquals("b", map.get(b));
+        assertEquals("c", map.get(c));
+
+        map = map.minus(a);
+        assertEquals(2, map.size());
+        assertNull(map.get(a));
+        assertEquals("b", map.get(b));
+        assertEquals(Set.of("b", "c"), new HashSet<>(map.values()));
+
+        map = map.minus(b).minus(c);
+        assertTrue(map.isEmpty());
+        assertFalse(map.values().iterator().hasNext());
+    }
+
+    @Test
+    public void unchangedUpdatesReturnSameInstance() {
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("a", "x");
+        assertSame(map, map.plus("a", "x"));
+        assertSame(map, map.minus("missing"));
+    }
+}
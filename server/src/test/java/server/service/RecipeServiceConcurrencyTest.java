@@ -0,0 +1,174 @@
+package server.service;
+
+import commons.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionOperations;
+import server.database.ChangeRecordRepository;
+import server.database.IngredientRepository;
+import server.database.JpaCatalogStorage;
+import server.database.PersistenceProperties;
+import server.database.PersistenceWriter;
+import server.database.RecipeRepository;
+import server.websocket.WebSocketHub;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/// Hammers `RecipeService` from many threads and checks that the state stays
+/// consistent. The throughput measurement is a benchmark and only runs with
+/// `-Pbenchmark`.
+public class RecipeServiceConcurrencyTest {
+    private static final int INGREDIENTS = 50;
+    private static final int WRITES_PER_THREAD = 5_000;
+
+    private RecipeService recipeService;
+    private List<Ingredient> ingredients;
+
+    @BeforeEach
+    public void setup() throws InvalidIngredientError {
+        // stub-only mocks do not record invocations, so they are cheap and thread safe
+        RecipeRepository recipeRepository = mock(RecipeRepository.class, withSettings().stubOnly());
+        IngredientRepository ingredientRepository = mock(IngredientRepository.class, withSettings().stubOnly());
+        JpaCatalogStorage storage = new JpaCatalogStorage(recipeRepository, ingredientRepository,
+                mock(ChangeRecordRepository.class, withSettings().stubOnly()),
+                TransactionOperations.withoutTransaction());
+        recipeService = new RecipeService(
+                new CatalogLoader(storage, StartupProperties.defaults()),
+                mock(WebSocketHub.class, withSettings().stubOnly()),
+                new PersistenceWriter(storage, PersistenceProperties.sync()),
+                new HeapRecipeStore(),
+                OutboxProperties.defaults());
+
+        ingredients = new ArrayList<>();
+        for (int i = 0; i < INGREDIENTS; i++) {
+            Ingredient ingredient = new Ingredient("Ingredient " + i, new NutritionValues(1, 2, 3));
+            ingredients.add(ingredient);
+            recipeService.setIngredient(ingredient);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void writeThroughputScales() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assumeTrue(cores >= 4, "needs at least 4 cores to measure scaling");
+        // the first round only warms up
+        measureWrites(1);
+
+        double single = measureWrites(1);
+        double parallel = measureWrites(cores);
+
+        System.out.printf("RecipeService writes: 1 thread %.0f ops/s, %d threads %.0f ops/s (x%.2f)%n",
+                single, cores, parallel, parallel / single);
+        // writes of different recipes only share the catalog read lock
+        assertTrue(parallel > 1.5 * single,
+                String.format("%d threads reached x%.2f of one thread", cores, parallel / single));
+        assertConsistent();
+    }
+
+    @Test
+    public void concurrentIngredientDeletesKeepStateConsistent() throws Exception {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            writers.add(pool.submit(() -> writeRecipes(WRITES_PER_THREAD / 5)));
+        }
+        // delete half of the ingredients while recipes are being written
+        Future<?> deleter = pool.submit(() -> {
+            for (int i = 0; i < INGREDIENTS / 2; i++) {
+                recipeService.deleteIngredient(ingredients.get(i).getId());
+            }
+        });
+        deleter.get(1, TimeUnit.MINUTES);
+        for (Future<?> writer : writers) {
+            writer.get(1, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+
+        assertEquals(INGREDIENTS - INGREDIENTS / 2, recipeService.getState().ingredients().size());
+        assertConsistent();
+    }
+
+    private double measureWrites(int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                writeRecipes(WRITES_PER_THREAD);
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return threads * (double) WRITES_PER_THREAD / (elapsed / 1e9);
+    }
+
+    /// Writes, rewrites and deletes random recipes, recipes referencing an
+    /// ingredient that was deleted concurrently are expected to be rejected
+    private void writeRecipes(int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            UUID id = ids.isEmpty() || random.nextInt(4) != 0
+                    ? UUID.randomUUID()
+                    : ids.get(random.nextInt(ids.size()));
+            try {
+                recipeService.setRecipe(randomRecipe(id, random));
+                ids.add(id);
+            } catch (InvalidRecipeError e) {
+                // an ingredient was deleted in the meantime
+            }
+            if (!ids.isEmpty() && random.nextInt(10) == 0) {
+                recipeService.deleteRecipe(ids.remove(random.nextInt(ids.size())));
+            }
+        }
+    }
+
+    private Recipe randomRecipe(UUID id, ThreadLocalRandom random) {
+        List<RecipeIngredient> used = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Ingredient ingredient = ingredients.get(random.nextInt(INGREDIENTS));
+            used.add(new RecipeIngredient(ingredient.getId(), new Amount(i + 1, Unit.GRAM)));
+        }
+        return new Recipe(id, "Recipe " + id, used, List.of("Mix"), 1, Language.EN);
+    }
+
+    /// Every stored recipe only references existing ingredients, and the reverse
+    /// index matches the recipes exactly
+    private void assertConsistent() {
+        RecipeState state = recipeService.getState();
+        Set<UUID> ingredientIds = state.ingredients().stream()
+                .map(Ingredient::getId)
+                .collect(Collectors.toSet());
+
+        Map<UUID, Set<UUID>> expectedUsages = new HashMap<>();
+        for (Recipe recipe : state.recipes()) {
+            for (RecipeIngredient ri : recipe.getIngredients()) {
+                assertTrue(ingredientIds.contains(ri.getIngredientRef()),
+                        "Recipe references a deleted ingredient");
+                expectedUsages.computeIfAbsent(ri.getIngredientRef(), _ -> new HashSet<>())
+                        .add(recipe.getId());
+            }
+        }
+        for (Ingredient ingredient : ingredients) {
+            assertEquals(expectedUsages.getOrDefault(ingredient.getId(), Set.of()),
+                    recipeService.getIngredientUsages(ingredient.getId()));
+        }
+    }
+}
@@ -1,19 +1,28 @@
 package server.service;
 
 import commons.*;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import static org.mockito.Mockito.*;
 
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionOperations;
+import server.database.ChangeRecordRepository;
 import server.database.IngredientRepository;
+import server.database.JpaCatalogStorage;
+import server.database.PersistenceProperties;
+import server.database.PersistenceWriter;
 import server.database.RecipeRepository;
 import server.websocket.WebSocketHub;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -24,8 +33,9 @@ public class RecipeServiceTest {
         @Mock
         private IngredientRepository ingredientRepository;
         @Mock
+        private ChangeRecordRepository changeRecordRepository;
+        @Mock
         private WebSocketHub webSocketHub;
-        @InjectMocks
         private RecipeService recipeService;
 
         Ingredient yogurt = new Ingredient("Yogurt", new NutritionValues(1, 2, 3));
@@ -46,6 +56,25 @@ public class RecipeServiceTest {
                         67,
                         Language.EN);
 
+        @BeforeEach
+        public void setup() {
+                recipeService = new RecipeService(loader(), webSocketHub, syncWriter(),
+                                new HeapRecipeStore(), OutboxProperties.defaults());
+        }
+
+        private JpaCatalogStorage storage() {
+                return new JpaCatalogStorage(recipeRepository, ingredientRepository, changeRecordRepository,
+                                TransactionOperations.withoutTransaction());
+        }
+
+        private CatalogLoader loader() {
+                return new CatalogLoader(storage(), StartupProperties.defaults());
+        }
+
+        private PersistenceWriter syncWriter() {
+                return new PersistenceWriter(storage(), PersistenceProperties.sync());
+        }
+
         @Test
         public void addIngredient() throws InvalidIngredientError {
                 var yogurt = new Ingredient("Yogurt", new NutritionValues(1, 2, 3));
@@ -62,6 +91,20 @@ public class RecipeServiceTest {
 
         }
 
+        @Test
+        public void writesAppendChangeRecordsAndLeaveBroadcastsToTheOutbox() throws Exception {
+                var afterCommit = new RecipeService(loader(), webSocketHub, syncWriter(), new HeapRecipeStore(),
+                                new OutboxProperties(OutboxProperties.Publish.AFTER_COMMIT, 50, 500, 100));
+
+                afterCommit.setIngredient(yogurt);
+                afterCommit.setIngredient(sugar);
+                afterCommit.setRecipe(sugaredYogurt);
+                afterCommit.deleteIngredient(sugar.getId());
+
+                verifyNoInteractions(webSocketHub);
+                verify(changeRecordRepository, times(4)).saveAll(anyList());
+        }
+
         @Test
         public void recipeNull() {
                 assertThrows(InvalidRecipeError.class, () -> recipeService.setRecipe(null));
@@ -117,11 +160,14 @@ public class RecipeServiceTest {
 
         @Test
         public void loadRecipes() throws InvalidRecipeError, InvalidIngredientError {
-                when(ingredientRepository.findAll()).thenReturn(
-                                List.of(yogurt, sugar));
-                when(recipeRepository.findAll()).thenReturn(
-                                List.of(sugaredYogurt));
-                var loadedService = new RecipeService(recipeRepository, ingredientRepository, webSocketHub);
+                when(ingredientRepository.count()).thenReturn(2L);
+                when(ingredientRepository.findAll(any(Pageable.class))).thenReturn(
+                                new PageImpl<>(List.of(yogurt, sugar)));
+                when(recipeRepository.count()).thenReturn(1L);
+                when(recipeRepository.findAll(any(Pageable.class))).thenReturn(
+                                new PageImpl<>(List.of(sugaredYogurt)));
+                var loadedService = new RecipeService(loader(), webSocketHub, syncWriter(),
+                                new HeapRecipeStore(), OutboxProperties.defaults());
 
                 recipeService.setIngredient(yogurt);
                 recipeService.setIngredient(sugar);
@@ -130,6 +176,28 @@ public class RecipeServiceTest {
                 assertEquals(recipeService.getState(), loadedService.getState());
         }
 
+        @Test
+        public void asyncLoadServesWhileWarmingUp() throws InvalidIngredientError {
+                CountDownLatch release = new CountDownLatch(1);
+                when(ingredientRepository.count()).thenReturn(1L);
+                when(ingredientRepository.findAll(any(Pageable.class))).thenAnswer(_ -> {
+                        release.await();
+                        return new PageImpl<>(List.of(yogurt));
+                });
+                var warmingUp = new RecipeService(
+                                new CatalogLoader(storage(), new StartupProperties(true, 500, 2)),
+                                webSocketHub, syncWriter(), new HeapRecipeStore(), OutboxProperties.defaults());
+
+                assertEquals(LoadState.WARMING_UP, warmingUp.getLoadState());
+                assertTrue(warmingUp.getState().ingredients().isEmpty());
+
+                release.countDown();
+                // writes wait for the load, so the loaded ingredient is kept
+                warmingUp.setIngredient(sugar);
+                assertEquals(LoadState.READY, warmingUp.getLoadState());
+                assertEquals(2, warmingUp.getState().ingredients().size());
+        }
+
         @Test
         public void deleteRecipe() throws InvalidRecipeError, InvalidIngredientError {
                 recipeService.setIngredient(yogurt);
@@ -141,11 +209,26 @@ public class RecipeServiceTest {
                 assertTrue(recipeService.getState().recipes().isEmpty());
                 verify(recipeRepository).deleteById(sugaredYogurt.getId());
                 verify(webSocketHub).broadcastRecipeDelete(sugaredYogurt.getId());
-                verify(webSocketHub).broadcastIngredientUpdate(yogurt.getId(), yogurt);
-                verify(webSocketHub).broadcastIngredientUpdate(sugar.getId(), sugar);
+                verify(webSocketHub).broadcastIngredientChange(yogurt, List.of());
+                verify(webSocketHub).broadcastIngredientChange(sugar, List.of());
                 verify(webSocketHub).broadcastRecipeUpdate(sugaredYogurt.getId(), sugaredYogurt);
         }
 
+        @Test
+        public void ingredientChangeNamesRecipesInsteadOfResendingThem()
+                        throws InvalidRecipeError, InvalidIngredientError {
+                recipeService.setIngredient(yogurt);
+                recipeService.setIngredient(sugar);
+                recipeService.setRecipe(sugaredYogurt);
+                clearInvocations(webSocketHub);
+
+                recipeService.setIngredient(sugar);
+
+                verify(webSocketHub).broadcastIngredientChange(sugar, List.of(sugaredYogurt));
+                verify(webSocketHub, never()).broadcastIngredientUpdate(any(), any());
+                verify(webSocketHub, never()).broadcastRecipeUpdate(any(), any());
+        }
+
         @Test
         public void deleteNonExistentRecipe() {
                 UUID randomId = UUID.randomUUID();
@@ -170,6 +253,158 @@ public class RecipeServiceTest {
                 verify(ingredientRepository).deleteById(sugar.getId());
         }
 
+        @Test
+        public void ingredientUsagesFollowRecipeChanges() throws InvalidRecipeError, InvalidIngredientError {
+                recipeService.setIngredient(yogurt);
+                recipeService.setIngredient(sugar);
+                recipeService.setRecipe(sugaredYogurt);
+
+                assertEquals(Set.of(sugaredYogurt.getId()), recipeService.getIngredientUsages(yogurt.getId()));
+                assertEquals(Set.of(sugaredYogurt.getId()), recipeService.getIngredientUsages(sugar.getId()));
+
+                // replacing the recipe without sugar should drop it from the index
+                var plainYogurt = new Recipe(
+                                sugaredYogurt.getId(),
+                                "Plain Yogurt",
+                                List.of(new RecipeIngredient(yogurt.getId(), new Amount(10, Unit.GRAM))),
+                                List.of("Get yogurt"),
+                                1,
+                                Language.EN);
+                recipeService.setRecipe(plainYogurt);
+                assertTrue(recipeService.getIngredientUsages(sugar.getId()).isEmpty());
+                assertEquals(Set.of(plainYogurt.getId()), recipeService.getIngredientUsages(yogurt.getId()));
+
+                recipeService.deleteRecipe(plainYogurt.getId());
+                assertTrue(recipeService.getIngredientUsages(yogurt.getId()).isEmpty());
+        }
+
+        @Test
+        public void deleteIngredientUpdatesOnlyUsingRecipes() throws InvalidRecipeError, InvalidIngredientError {
+                var honey = new Ingredient("Honey", new NutritionValues(0, 80, 0));
+                recipeService.setIngredient(yogurt);
+                recipeService.setIngredient(sugar);
+                recipeService.setIngredient(honey);
+                var honeyYogurt = new Recipe(
+                                "Honey Yogurt",
+                                List.of(
+                                                new RecipeIngredient(yogurt.getId(), new Amount(10, Unit.GRAM)),
+                                                new RecipeIngredient(honey.getId(), new Amount(1, Unit.TEASPOON))),
+                                List.of("Mix"),
+                                1,
+                                Language.EN);
+                recipeService.setRecipe(sugaredYogurt);
+                recipeService.setRecipe(honeyYogurt);
+                clearInvocations(recipeRepository, webSocketHub);
+
+                recipeService.deleteIngredient(honey.getId());
+
+                var updated = recipeService.getState().recipes().stream()
+                                .filter(r -> r.getId().equals(honeyYogurt.getId()))
+                                .findFirst()
+                                .orElseThrow();
+                assertEquals(List.of(new RecipeIngredient(yogurt.getId(), new Amount(10, Unit.GRAM))),
+                                updated.getIngredients());
+                // the stored recipe is replaced, never edited in place
+                assertEquals(2, honeyYogurt.getIngredients().size());
+                verify(recipeRepository).removeIngredient(honey.getId(), List.of(honeyYogurt));
+                verify(recipeRepository, never()).save(any());
+                assertTrue(recipeService.getIngredientUsages(honey.getId()).isEmpty());
+        }
+
+        @Test
+        public void snapshotsAreIsolatedFromLaterWrites() throws InvalidRecipeError, InvalidIngredientError {
+                recipeService.setIngredient(yogurt);
+                recipeService.setIngredient(sugar);
+                CatalogSnapshot before = recipeService.getSnapshot();
+
+                recipeService.setRecipe(sugaredYogurt);
+                recipeService.deleteIngredient(yogurt.getId());
+                CatalogSnapshot after = recipeService.getSnapshot();
+
+                assertTrue(before.recipes().isEmpty());
+                assertEquals(2, before.ingredients().size());
+
+                // deleting an ingredient and updating its recipes is one revision
+                assertEquals(before.revision() + 2, after.revision());
+                assertEquals(1, after.recipes().size());
+                assertEquals(1, after.ingredients().size());
+                assertEquals(1, after.recipe(sugaredYogurt.getId()).getIngredients().size());
+        }
+
+        @Test
+        public void changesSinceRevisionAreCompacted() throws InvalidRecipeError, InvalidIngredientError {
+                recipeService.setIngredient(yogurt);
+                long since = recipeService.getSnapshot().revision();
+
+                recipeService.setIngredient(sugar);
+                recipeService.setRecipe(sugaredYogurt);
+                recipeService.setRecipe(sugaredYogurt);
+                recipeService.deleteIngredient(yogurt.getId());
+
+                RecipeChanges changes = recipeService.getChangesSince(since);
+                assertFalse(changes.resyncRequired());
+                assertEquals(recipeService.getSnapshot().revision(), changes.revision());
+                assertEquals(List.of(sugar), changes.ingredients());
+                assertEquals(List.of(yogurt.getId()), changes.deletedIngredients());
+                assertEquals(1, changes.recipes().size());
+                assertEquals(1, changes.recipes().getFirst().getIngredients().size());
+                assertTrue(changes.deletedRecipes().isEmpty());
+
+                RecipeChanges none = recipeService.getChangesSince(changes.revision());
+                assertFalse(none.resyncRequired());
+                assertTrue(none.recipes().isEmpty());
+        }
+
+        @Test
+        public void changesFromUnknownRevisionRequireResync() {
+                long current = recipeService.getSnapshot().revision();
+                assertTrue(recipeService.getChangesSince(current - 1).resyncRequired());
+                assertTrue(recipeService.getChangesSince(current + 1).resyncRequired());
+        }
+
+        @Test
+        public void revisionsOfALaterRunAreNewer() throws Exception {
+                // more writes than milliseconds pass before the restart
+                for (int i = 0; i < 50; i++) {
+                        recipeService.setIngredient(new Ingredient("Ingredient " + i, new NutritionValues(1, 2, 3)));
+                }
+                long before = recipeService.getSnapshot().revision();
+                Thread.sleep(2);
+
+                RecipeService restarted = new RecipeService(loader(), webSocketHub, syncWriter(),
+                                new HeapRecipeStore(), OutboxProperties.defaults());
+
+                assertTrue(restarted.getSnapshot().revision() > before);
+                assertTrue(restarted.getChangesSince(before).resyncRequired());
+        }
+
+        @Test
+        public void batchesArePublishedAsOneRevision() throws InvalidRecipeError, InvalidIngredientError {
+                long before = recipeService.getSnapshot().revision();
+                recipeService.setIngredients(List.of(yogurt, sugar));
+                recipeService.setRecipes(List.of(sugaredYogurt));
+
+                assertEquals(before + 2, recipeService.getSnapshot().revision());
+                assertEquals(Set.of(sugaredYogurt.getId()), recipeService.getIngredientUsages(sugar.getId()));
+                verify(ingredientRepository).saveAll(List.of(yogurt, sugar));
+                verify(recipeRepository).saveAll(List.of(sugaredYogurt));
+                verify(webSocketHub).broadcastRecipeUpdates(List.of(sugaredYogurt));
+                verify(webSocketHub, never()).broadcastRecipeUpdate(any(), any());
+        }
+
+        @Test
+        public void invalidRecipeRejectsWholeBatch() throws InvalidIngredientError {
+                recipeService.setIngredient(yogurt);
+                var plain = new Recipe("Plain yogurt",
+                                List.of(new RecipeIngredient(yogurt.getId(), new Amount(1, Unit.CUP))),
+                                List.of("Serve"), 1, Language.EN);
+
+                assertThrows(InvalidRecipeError.class,
+                                () -> recipeService.setRecipes(List.of(plain, sugaredYogurt)));
+                assertTrue(recipeService.getState().recipes().isEmpty());
+                verify(recipeRepository, never()).saveAll(any());
+        }
+
         @Test
         public void deleteNonExistentIngredient() {
                 UUID randomId = UUID.randomUUID();
@@ -0,0 +1,49 @@
+package server.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionStatsTest {
+
+    @Test
+    public void repetitiveJsonCompressesWell() {
+        StringBuilder json = new StringBuilder("[");
+        UUID ingredient = UUID.randomUUID();
+        for (int i = 0; i < 50; i++) {
+            json.append("{\"ingredientRef\":\"").append(ingredient).append("\",\"amount\":{\"quantity\":")
+                    .append(i).append(",\"unit\":\"GRAM\",\"description\":null}},");
+        }
+        json.append("{}]");
+
+        CompressionStats stats = new CompressionStats(1);
+        stats.recordSession();
+        stats.recordFrame(new TextMessage(json));
+        stats.recordFrame(new TextMessage(json));
+
+        Map<String, Object> metrics = stats.metrics();
+        assertEquals(1L, metrics.get("compressedSessions"));
+        assertEquals(2L, metrics.get("compressedFrames"));
+        assertTrue((double) metrics.get("estimatedCompressionRatio") < 0.5);
+    }
+
+    @Test
+    public void nothingSampledReportsNoSavings() {
+        assertEquals(1.0, new CompressionStats(16).metrics().get("estimatedCompressionRatio"));
+    }
+
+    @Test
+    public void samplingIsOffByDefault() {
+        CompressionStats stats = new CompressionStats(0);
+        stats.recordFrame(new TextMessage("{\"type\":\"UPDATE\"}"));
+
+        Map<String, Object> metrics = stats.metrics();
+        assertEquals(1L, metrics.get("compressedFrames"));
+        assertEquals("off", metrics.get("compressionEstimates"));
+        assertFalse(metrics.containsKey("estimatedCompressionRatio"));
+    }
+}
@@ -0,0 +1,93 @@
+package server.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayBufferTest {
+    private static ReplayBuffer.Payload payload() {
+        return new ReplayBuffer.Payload(() -> "{\"seq\":0}");
+    }
+
+    private static ReplayBuffer.Event append(ReplayBuffer buffer) {
+        return buffer.append(List.of(Topic.ALL_RECIPES), payload());
+    }
+
+    @Test
+    public void sequenceNumbersIncrease() {
+        ReplayBuffer buffer = new ReplayBuffer(10);
+        long first = append(buffer).seq();
+        long second = append(buffer).seq();
+        assertEquals(first + 1, second);
+        assertEquals(second, buffer.lastSeq());
+    }
+
+    @Test
+    public void onlyMissedEventsAreReturned() {
+        ReplayBuffer buffer = new ReplayBuffer(10);
+        long first = append(buffer).seq();
+        ReplayBuffer.Event second = append(buffer);
+        ReplayBuffer.Event third = append(buffer);
+
+        assertEquals(List.of(second, third), buffer.since(first));
+        assertEquals(List.of(), buffer.since(third.seq()));
+        assertEquals("{\"seq\":" + third.seq() + "}", third.message().getPayload());
+    }
+
+    @Test
+    public void rolledOverBufferRequiresResync() {
+        ReplayBuffer buffer = new ReplayBuffer(2);
+        long first = append(buffer).seq();
+        append(buffer);
+        append(buffer);
+        append(buffer);
+
+        assertNull(buffer.since(first));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void unrecordedEventsDoNotLookLikeARollover() {
+        ReplayBuffer buffer = new ReplayBuffer(10);
+        long first = append(buffer).seq();
+        ReplayBuffer.Event skipped = buffer.unrecorded(payload());
+        ReplayBuffer.Event third = append(buffer);
+
+        assertEquals(first + 1, skipped.seq());
+        assertEquals(List.of(third), buffer.since(first));
+        assertEquals(List.of(third), buffer.since(skipped.seq()));
+        assertEquals("{\"seq\":" + skipped.seq() + "}", skipped.message().getPayload());
+    }
+
+    @Test
+    public void unknownSequenceNumberRequiresResync() {
+        ReplayBuffer buffer = new ReplayBuffer(2);
+        append(buffer);
+        assertNull(buffer.since(buffer.lastSeq() + 1));
+        assertNull(buffer.since(0));
+    }
+
+    @Test
+    public void eventsAreEncodedOnce() {
+        ReplayBuffer buffer = new ReplayBuffer(2);
+        int[] calls = new int[1];
+        ReplayBuffer.Event event = buffer.append(List.of(Topic.recipe(UUID.randomUUID())),
+                new ReplayBuffer.Payload(() -> {
+                    calls[0]++;
+                    return "{\"type\":\"UPDATE\",\"seq\":0}";
+                }));
+        assertEquals(0, calls[0]);
+        assertSame(event.message(), event.message());
+        assertEquals(1, calls[0]);
+        assertEquals("{\"type\":\"UPDATE\",\"seq\":" + event.seq() + "}", event.message().getPayload());
+    }
+
+    @Test
+    public void onlyEventsWithoutASequenceNumberAreNumbered() {
+        assertEquals("{\"seq\":42}", ReplayBuffer.withSeq("{\"seq\":0}", 42));
+        assertThrows(IllegalArgumentException.class, () -> ReplayBuffer.withSeq("{\"seq\":7}", 42));
+    }
+}
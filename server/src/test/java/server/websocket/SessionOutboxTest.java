@@ -0,0 +1,166 @@
+package server.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SessionOutboxTest {
+    private static final WebSocketProperties LIMITS = new WebSocketProperties(200, 1024, 10, 1, 0, 0, 0, false, 0);
+
+    private WebSocketSession session(List<String> received, CountDownLatch release) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("test");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            release.await();
+            received.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    @Test
+    public void messagesAreSentInOrder() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        WebSocketSession session = session(received, new CountDownLatch(0));
+        SessionOutbox outbox = new SessionOutbox(session, LIMITS, _ -> fail("evicted"), new CompressionStats(0));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(outbox.offer(new TextMessage("m" + i)));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.size() < 5 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), received);
+        outbox.close();
+    }
+
+    @Test
+    public void offerNeverBlocksAndEvictsFullQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession session = session(new CopyOnWriteArrayList<>(), release);
+        AtomicReference<WebSocketSession> evicted = new AtomicReference<>();
+        SessionOutbox outbox = new SessionOutbox(session, LIMITS, evicted::set, new CompressionStats(0));
+
+        // the first message blocks in sendMessage, the others fill the queue
+        boolean accepted = true;
+        for (int i = 0; i <= LIMITS.queueCapacity() + 1 && accepted; i++) {
+            accepted = outbox.offer(new TextMessage("m" + i));
+        }
+        assertFalse(accepted);
+        assertSame(session, evicted.get());
+        assertTrue(outbox.isClosed());
+        verify(session, timeout(1_000)).close(any(CloseStatus.class));
+        release.countDown();
+    }
+
+    @Test
+    public void evictionDoesNotWaitForTheSessionToClose() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession session = session(new CopyOnWriteArrayList<>(), release);
+        // like a real session, closing waits for the stuck send
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(session).close(any(CloseStatus.class));
+        AtomicReference<WebSocketSession> evicted = new AtomicReference<>();
+        SessionOutbox outbox = new SessionOutbox(session, LIMITS, evicted::set, new CompressionStats(0));
+
+        assertTrue(outbox.offer(new TextMessage("stuck")));
+        Thread.sleep(LIMITS.sendTimeLimitMillis() * 2);
+        long start = System.nanoTime();
+        assertFalse(outbox.offer(new TextMessage("next")));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(millis < LIMITS.sendTimeLimitMillis(), "offer took " + millis + " ms");
+        assertSame(session, evicted.get());
+        verify(session, timeout(1_000)).close(any(CloseStatus.class));
+        release.countDown();
+    }
+
+    @Test
+    public void slowSendIsEvicted() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession session = session(new CopyOnWriteArrayList<>(), release);
+        AtomicReference<WebSocketSession> evicted = new AtomicReference<>();
+        SessionOutbox outbox = new SessionOutbox(session, LIMITS, evicted::set, new CompressionStats(0));
+
+        assertTrue(outbox.offer(new TextMessage("stuck")));
+        Thread.sleep(LIMITS.sendTimeLimitMillis() * 2);
+        assertFalse(outbox.offer(new TextMessage("next")));
+        assertSame(session, evicted.get());
+        release.countDown();
+    }
+
+    @Test
+    public void stuckSendIsEvictedWithoutAnotherMessage() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession session = session(new CopyOnWriteArrayList<>(), release);
+        AtomicReference<WebSocketSession> evicted = new AtomicReference<>();
+        SessionOutbox outbox = new SessionOutbox(session, LIMITS, evicted::set, new CompressionStats(0));
+
+        assertTrue(outbox.offer(new TextMessage("stuck")));
+        Thread.sleep(LIMITS.sendTimeLimitMillis() / 2);
+        assertFalse(outbox.checkSendTime());
+        Thread.sleep(LIMITS.sendTimeLimitMillis() * 2);
+        assertTrue(outbox.checkSendTime());
+        assertSame(session, evicted.get());
+        release.countDown();
+    }
+
+    @Test
+    public void queuedBytesAreLimited() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession session = session(new CopyOnWriteArrayList<>(), release);
+        AtomicReference<WebSocketSession> evicted = new AtomicReference<>();
+        SessionOutbox outbox = new SessionOutbox(session, LIMITS, evicted::set, new CompressionStats(0));
+        String large = "x".repeat((int) LIMITS.bufferSizeLimitBytes() / 2);
+
+        // the first message blocks in sendMessage and no longer counts
+        assertTrue(outbox.offer(new TextMessage(large)));
+        Thread.sleep(50);
+        assertTrue(outbox.offer(new TextMessage(large)));
+        assertTrue(outbox.offer(new TextMessage(large)));
+        assertFalse(outbox.offer(new TextMessage("x")));
+        assertSame(session, evicted.get());
+        release.countDown();
+    }
+
+    @Test
+    public void queuedEventsAreSentAsOneBatchFrame() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        WebSocketSession session = session(received, release);
+        SessionOutbox outbox = new SessionOutbox(session, new WebSocketProperties(5_000, 1024, 10, 50, 0, 0, 0, false, 0),
+                _ -> fail("evicted"), new CompressionStats(0));
+
+        // the first event blocks in sendMessage while the others queue up
+        outbox.offer(new TextMessage("{\"n\":0}"));
+        Thread.sleep(100);
+        for (int i = 1; i <= 3; i++) {
+            outbox.offer(new TextMessage("{\"n\":" + i + "}"));
+        }
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((long) outbox.metrics().get("frames") < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("{\"n\":0}",
+                "{\"type\":\"BATCH\",\"topic\":null,\"data\":[{\"n\":1},{\"n\":2},{\"n\":3}]}"), received);
+        assertEquals(4L, outbox.metrics().get("sent"));
+        assertEquals(2L, outbox.metrics().get("frames"));
+        outbox.close();
+    }
+}
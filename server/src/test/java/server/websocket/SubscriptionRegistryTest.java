@@ -0,0 +1,65 @@
+package server.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SubscriptionRegistryTest {
+    private final SubscriptionRegistry registry = new SubscriptionRegistry();
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        return session;
+    }
+
+    @Test
+    public void subscribingTwiceKeepsOneSubscription() {
+        WebSocketSession session = session("a");
+        registry.subscribe(session, Topic.ALL_RECIPES);
+        registry.subscribe(session, Topic.ALL_RECIPES);
+        assertEquals(Set.of(session), registry.subscribersOf(Topic.ALL_RECIPES));
+    }
+
+    @Test
+    public void removingSessionDropsOnlyItsTopics() {
+        WebSocketSession a = session("a");
+        WebSocketSession b = session("b");
+        Topic recipe = Topic.recipe(UUID.randomUUID());
+        registry.subscribe(a, recipe);
+        registry.subscribe(a, Topic.RECIPE_STATE);
+        registry.subscribe(b, recipe);
+
+        registry.removeSession(a);
+        assertEquals(Set.of(b), registry.subscribersOf(recipe));
+        assertTrue(registry.subscribersOf(Topic.RECIPE_STATE).isEmpty());
+        assertEquals(Set.of(), registry.topicsOf(a));
+        assertEquals(1, registry.topicCount());
+        assertEquals(1, registry.sessionCount());
+    }
+
+    @Test
+    public void removingTopicUpdatesSessions() {
+        WebSocketSession a = session("a");
+        Topic recipe = Topic.recipe(UUID.randomUUID());
+        registry.subscribe(a, recipe);
+        registry.subscribe(a, Topic.ALL_RECIPES);
+
+        assertEquals(Set.of(a), registry.removeTopic(recipe));
+        assertEquals(Set.of(Topic.ALL_RECIPES), registry.topicsOf(a));
+    }
+
+    @Test
+    public void lastUnsubscribeRemovesTopic() {
+        WebSocketSession a = session("a");
+        registry.subscribe(a, Topic.INGREDIENT_STATE);
+        registry.unsubscribe(a, Topic.INGREDIENT_STATE);
+        assertEquals(0, registry.topicCount());
+        assertEquals(0, registry.sessionCount());
+    }
+}
@@ -0,0 +1,69 @@
+package server.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdateCoalescerTest {
+    // long enough that the ticker never fires during a test, flush is called directly
+    private final UpdateCoalescer coalescer = new UpdateCoalescer(60_000);
+    private final List<String> sent = new ArrayList<>();
+
+    @AfterEach
+    public void teardown() {
+        coalescer.close();
+    }
+
+    private static Topic recipe(UUID id) {
+        return Topic.recipe(id);
+    }
+
+    @Test
+    public void onlyLatestUpdatePerEntityIsSent() {
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        coalescer.submit(recipe(a), false, () -> sent.add("a1"));
+        coalescer.submit(recipe(b), false, () -> sent.add("b1"));
+        coalescer.submit(recipe(a), false, () -> sent.add("a2"));
+        assertTrue(sent.isEmpty());
+
+        coalescer.flush();
+        assertEquals(List.of("b1", "a2"), sent);
+        assertEquals(1L, coalescer.metrics().get("coalesceSaved"));
+    }
+
+    @Test
+    public void deleteSupersedesPendingUpdate() {
+        UUID a = UUID.randomUUID();
+        coalescer.submit(recipe(a), false, () -> sent.add("update"));
+        coalescer.submit(recipe(a), true, () -> sent.add("delete"));
+
+        coalescer.flush();
+        assertEquals(List.of("delete"), sent);
+        assertEquals(1L, coalescer.metrics().get("coalesceSupersededByDelete"));
+    }
+
+    @Test
+    public void sendNowDropsOlderPendingEvents() {
+        UUID a = UUID.randomUUID();
+        coalescer.submit(recipe(a), false, () -> sent.add("single"));
+        coalescer.sendNow(Set.of(recipe(a)), () -> sent.add("batch"));
+
+        coalescer.flush();
+        assertEquals(List.of("batch"), sent);
+    }
+
+    @Test
+    public void disabledWindowSendsImmediately() {
+        UpdateCoalescer immediate = new UpdateCoalescer(0);
+        immediate.submit(recipe(UUID.randomUUID()), false, () -> sent.add("now"));
+        assertEquals(List.of("now"), sent);
+        assertFalse(immediate.isEnabled());
+    }
+}
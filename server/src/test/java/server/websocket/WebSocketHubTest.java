@@ -0,0 +1,208 @@
+package server.websocket;
+
+import commons.Ingredient;
+import commons.Language;
+import commons.NutritionValues;
+import commons.Recipe;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class WebSocketHubTest {
+    private WebSocketHub hub;
+
+    @BeforeEach
+    public void setup() {
+        hub = new WebSocketHub(WebSocketProperties.defaults());
+    }
+
+    private static WebSocketSession openSession(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    @Test
+    public void eventIsEncodedOnceAndSentOncePerSession() throws Exception {
+        UUID recipeId = UUID.randomUUID();
+        WebSocketSession both = openSession("both");
+        WebSocketSession globalOnly = openSession("global");
+        hub.subscribeRecipe(both, recipeId);
+        hub.subscribeRecipe(both, null);
+        hub.subscribeRecipe(globalOnly, null);
+
+        hub.broadcastRecipeUpdate(recipeId,
+                new Recipe(recipeId, "Soup", List.of(), List.of(), 1, Language.EN));
+
+        assertEquals(1L, hub.metrics().get("events"));
+        assertEquals(2L, hub.metrics().get("deliveries"));
+        verify(both, timeout(5_000).times(1)).sendMessage(any(TextMessage.class));
+        verify(globalOnly, timeout(5_000).times(1)).sendMessage(any(TextMessage.class));
+    }
+
+    @Test
+    public void patchBasesAreBoundedAndDroppedOnDelete() {
+        UUID first = UUID.randomUUID();
+        hub.broadcastRecipeUpdate(first, new Recipe(first, "Soup", List.of(), List.of(), 1, Language.EN));
+        for (int i = 0; i < WebSocketHub.PATCH_BASE_CAPACITY; i++) {
+            UUID id = UUID.randomUUID();
+            hub.broadcastRecipeUpdate(id, new Recipe(id, "Recipe " + i, List.of(), List.of(), 1, Language.EN));
+        }
+        assertEquals(WebSocketHub.PATCH_BASE_CAPACITY, hub.metrics().get("patchBases"));
+
+        UUID last = UUID.randomUUID();
+        hub.broadcastRecipeUpdate(last, new Recipe(last, "Stew", List.of(), List.of(), 1, Language.EN));
+        hub.broadcastRecipeDelete(last);
+        assertEquals(WebSocketHub.PATCH_BASE_CAPACITY - 1, hub.metrics().get("patchBases"));
+    }
+
+    @Test
+    public void nothingIsEncodedWithoutSubscribers() {
+        hub.broadcastRecipeDelete(UUID.randomUUID());
+        assertEquals(0L, hub.metrics().get("events"));
+    }
+
+    @Test
+    public void smallChangeIsSentAsPatch() {
+        UUID recipeId = UUID.randomUUID();
+        hub.subscribeRecipe(openSession("global"), null);
+        List<String> steps = List.of("Chop the onions finely", "Fry them until golden",
+                "Add the stock and simmer for twenty minutes", "Blend until smooth");
+
+        hub.broadcastRecipeUpdate(recipeId, new Recipe(recipeId, "Soup", List.of(), steps, 2, Language.EN));
+        assertEquals(0L, hub.metrics().get("patchesSent"));
+        hub.broadcastRecipeUpdate(recipeId, new Recipe(recipeId, "Soup", List.of(), steps, 4, Language.EN));
+        assertEquals(1L, hub.metrics().get("patchesSent"));
+        assertTrue((long) hub.metrics().get("patchBytesSaved") > 0);
+    }
+
+    @Test
+    public void ingredientChangeIsOneEventForAllUsingRecipes() throws Exception {
+        WebSocketSession global = openSession("global");
+        hub.subscribeRecipe(global, null);
+        Ingredient salt = new Ingredient(UUID.randomUUID(), "Salt", new NutritionValues(0, 0, 0));
+        List<Recipe> usedBy = List.of(
+                new Recipe(UUID.randomUUID(), "Soup", List.of(), List.of(), 1, Language.EN),
+                new Recipe(UUID.randomUUID(), "Bread", List.of(), List.of(), 1, Language.EN));
+
+        hub.broadcastIngredientChange(salt, usedBy);
+
+        verify(global, timeout(5_000).times(1)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("INGREDIENT_CHANGE")));
+        assertEquals(2L, hub.metrics().get("recipeUpdatesAvoided"));
+    }
+
+    @Test
+    public void ingredientChangeReachesEverySessionOnce() throws Exception {
+        Ingredient salt = new Ingredient(UUID.randomUUID(), "Salt", new NutritionValues(0, 0, 0));
+        Recipe soup = new Recipe(UUID.randomUUID(), "Soup", List.of(), List.of(), 1, Language.EN);
+        WebSocketSession both = openSession("both");
+        hub.subscribeRecipe(both, null);
+        hub.subscribeIngredient(both, null);
+        hub.subscribeIngredient(both, salt.getId());
+        WebSocketSession ingredientsOnly = openSession("ingredients");
+        hub.subscribeIngredient(ingredientsOnly, null);
+
+        hub.broadcastIngredientChange(salt, List.of(soup));
+
+        verify(both, timeout(5_000).times(1)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("INGREDIENT_CHANGE")));
+        verify(ingredientsOnly, timeout(5_000).times(1)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("\"type\":\"UPDATE\"")));
+        Thread.sleep(100);
+        verify(both, times(1)).sendMessage(any(TextMessage.class));
+        verify(ingredientsOnly, times(1)).sendMessage(any(TextMessage.class));
+    }
+
+    @Test
+    public void batchedIngredientChangesReachEverySessionOnce() throws Exception {
+        Ingredient salt = new Ingredient(UUID.randomUUID(), "Salt", new NutritionValues(0, 0, 0));
+        Ingredient flour = new Ingredient(UUID.randomUUID(), "Flour", new NutritionValues(10, 70, 1));
+        Recipe soup = new Recipe(UUID.randomUUID(), "Soup", List.of(), List.of(), 1, Language.EN);
+        // every event in a frame of its own
+        hub = new WebSocketHub(new WebSocketProperties(10_000, 4 * 1024 * 1024, 1000, 1, 0, 0, 1024, true, 0));
+        WebSocketSession both = openSession("both");
+        hub.subscribeRecipe(both, null);
+        hub.subscribeIngredient(both, null);
+
+        hub.broadcastIngredientUpdates(List.of(salt, flour), Map.of(salt.getId(), List.of(soup)));
+
+        // salt arrives as the change, flour on its own instead of in the list
+        verify(both, timeout(5_000).times(1)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("INGREDIENT_CHANGE")));
+        verify(both, timeout(5_000).times(1)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("\"name\":\"Flour\"")));
+        Thread.sleep(100);
+        verify(both, times(2)).sendMessage(any(TextMessage.class));
+        verify(both, never()).sendMessage(argThat(message -> {
+            String payload = ((TextMessage) message).getPayload();
+            return payload.contains("Flour") && payload.contains("Salt");
+        }));
+    }
+
+    @Test
+    public void languageFilterOnlyReceivesMatchingRecipes() throws Exception {
+        UUID englishId = UUID.randomUUID();
+        UUID dutchId = UUID.randomUUID();
+        UUID favouriteId = UUID.randomUUID();
+        WebSocketSession dutch = openSession("dutch");
+        hub.subscribeRecipes(dutch, Set.of(Language.NL), Set.of(favouriteId));
+
+        hub.broadcastRecipeUpdate(englishId, new Recipe(englishId, "Soup", List.of(), List.of(), 1, Language.EN));
+        hub.broadcastRecipeUpdate(dutchId, new Recipe(dutchId, "Soep", List.of(), List.of(), 1, Language.NL));
+        hub.broadcastRecipeUpdate(favouriteId,
+                new Recipe(favouriteId, "Suppe", List.of(), List.of(), 1, Language.DE));
+
+        verify(dutch, timeout(5_000).times(2)).sendMessage(any(TextMessage.class));
+        verify(dutch, never()).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("\"title\":\"Soup\"")));
+
+        // an empty filter goes back to all recipes
+        hub.subscribeRecipes(dutch, Set.of(), Set.of());
+        hub.broadcastRecipeDelete(UUID.randomUUID());
+        verify(dutch, timeout(5_000).times(3)).sendMessage(any(TextMessage.class));
+    }
+
+    @Test
+    public void resumeReplaysMissedEventsOfSubscribedTopics() throws Exception {
+        UUID recipeId = UUID.randomUUID();
+        WebSocketSession before = openSession("before");
+        hub.subscribeRecipe(before, null);
+        hub.broadcastRecipeDelete(UUID.randomUUID());
+        long lastSeq = (long) hub.metrics().get("lastSeq");
+
+        // the client is disconnected while this happens
+        hub.removeSessionEverywhere(before);
+        hub.broadcastRecipeUpdate(recipeId,
+                new Recipe(recipeId, "Soup", List.of(), List.of(), 1, Language.EN));
+        hub.broadcastIngredientDelete(UUID.randomUUID());
+
+        WebSocketSession after = openSession("after");
+        hub.subscribeRecipe(after, null);
+        hub.resume(after, lastSeq);
+
+        verify(after, timeout(5_000).times(1)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("\"title\":\"Soup\"")));
+        assertEquals(1L, hub.metrics().get("replayed"));
+    }
+
+    @Test
+    public void resumeFromUnknownSequenceAsksForResync() throws Exception {
+        WebSocketSession session = openSession("session");
+        hub.resume(session, 0);
+        verify(session, timeout(5_000)).sendMessage(argThat(
+                message -> ((TextMessage) message).getPayload().contains("RESYNC")));
+    }
+}
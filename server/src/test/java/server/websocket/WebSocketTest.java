@@ -496,5 +496,56 @@ public class WebSocketTest {
         session.close();
     }
 
+    @Test
+    public void testBatchedSubscribeAnswersOnce() throws Exception {
+        List<String> confirmations = new java.util.concurrent.CopyOnWriteArrayList<>();
+        CompletableFuture<String> subConfirmation = new CompletableFuture<>();
+        CompletableFuture<String> recipeUpdate = new CompletableFuture<>();
+        CompletableFuture<String> ingredientUpdate = new CompletableFuture<>();
+
+        TextWebSocketHandler handler = new TextWebSocketHandler() {
+            @Override
+            protected void handleTextMessage(@NonNull WebSocketSession session, TextMessage message) {
+                String payload = message.getPayload();
+                if (payload.contains("SUBSCRIBED")) {
+                    confirmations.add(payload);
+                    subConfirmation.complete(payload);
+                } else if (payload.contains("Batched Recipe")) {
+                    recipeUpdate.complete(payload);
+                } else if (payload.contains("Batched Ingredient")) {
+                    ingredientUpdate.complete(payload);
+                }
+            }
+        };
 
-}
\ No newline at end of file
+        String url = "ws://localhost:" + port + "/ws";
+        StandardWebSocketClient client = new StandardWebSocketClient();
+        WebSocketSession session = client.execute(handler, url).get(5, TimeUnit.SECONDS);
+
+        UUID recipeId = UUID.randomUUID();
+        UUID ingredientId = UUID.randomUUID();
+        Map<String, Object> subRequest = new HashMap<>();
+        subRequest.put("type", "SUBSCRIBE");
+        subRequest.put("topics", List.of(
+                Map.of("topic", "recipe", "recipeId", recipeId.toString()),
+                Map.of("topic", "ingredient", "ingredientId", ingredientId.toString()),
+                Map.of("topic", "no-such-topic")));
+        session.sendMessage(new TextMessage(mapper.writeValueAsString(subRequest)));
+        subConfirmation.get(5, TimeUnit.SECONDS);
+
+        hub.broadcastRecipeUpdate(recipeId,
+                new Recipe(recipeId, "Batched Recipe", List.of(), List.of(), 2, Language.EN));
+        hub.broadcastIngredientUpdate(ingredientId,
+                new Ingredient(ingredientId, "Batched Ingredient", new NutritionValues(0, 0, 0)));
+        recipeUpdate.get(5, TimeUnit.SECONDS);
+        ingredientUpdate.get(5, TimeUnit.SECONDS);
+
+        // one answer for all entries, listing the one that failed
+        assertEquals(1, confirmations.size());
+        JsonNode data = mapper.readTree(confirmations.getFirst()).path("data");
+        assertEquals(2, data.path("topics").size());
+        assertEquals(1, data.path("errors").size());
+
+        session.close();
+    }
+}